@@ -0,0 +1,67 @@
+package engine;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Tokenization of the names and regions: each invocation analyzes TEXTS texts of the dataset, at index time (the
+ * terms are interned into a dictionary which already holds them, like most terms of a record file) and at query time
+ * (the terms are only looked up)
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class AnalyzerBenchmark {
+    static final int TEXTS = 1024;
+
+    private final String[] texts = new String[TEXTS];
+    private Analyzer analyzer;
+
+    @Setup
+    public void setup() {
+        List<Document> docs = SyntheticDataset.documents(TEXTS / 2);
+        for (int i = 0; i < docs.size(); i++) {
+            texts[2 * i] = docs.get(i).name;
+            texts[2 * i + 1] = docs.get(i).region;
+        }
+        analyzer = Analyzer.standard(new TermDictionary(), SearchIndex.STOP_WORDS);
+        index();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(TEXTS)
+    public int index() {
+        int terms = 0;
+        for (String text : texts) {
+            analyzer.analyze(text, true);
+            terms += analyzer.termCount();
+        }
+        return terms;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(TEXTS)
+    public int query() {
+        int terms = 0;
+        for (String text : texts) {
+            analyzer.analyze(text, false);
+            terms += analyzer.fullTerm();
+        }
+        return terms;
+    }
+}
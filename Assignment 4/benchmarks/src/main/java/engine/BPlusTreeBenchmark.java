@@ -0,0 +1,113 @@
+package engine;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Inserts, lookups and range scans of the B+ Tree of coordinates, with its values in memory. "insert" adds "size"
+ * coordinates one at a time and "bulkLoad" loads them sorted, like the index does, so their score is the time of a
+ * whole tree; "find" looks up LOOKUPS coordinates of the tree per invocation, and "range" reads the values of
+ * RANGES ranges of about RANGE_WIDTH keys each
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class BPlusTreeBenchmark {
+    static final int LOOKUPS = 1024;
+    static final int RANGES = 64;
+    static final int RANGE_WIDTH = 100;
+
+    @Param({"100000"})
+    int size;
+
+    private List<BPlusTree.Entry<SearchIndex.Coordinate, Integer>> entries;
+    private List<BPlusTree.Entry<SearchIndex.Coordinate, Integer>> sortedEntries;
+    private SearchIndex.Coordinate[] lookups;
+    private SearchIndex.Coordinate[] rangeStarts;
+    private SearchIndex.Coordinate[] rangeEnds;
+    private BPlusTree<SearchIndex.Coordinate, Integer> tree;
+
+    @Setup
+    public void setup() {
+        entries = new ArrayList<>(size);
+        int ordinal = 0;
+        for (Document doc : SyntheticDataset.documents(size)) {
+            SearchIndex.Coordinate coordinate = new SearchIndex.Coordinate(Double.parseDouble(doc.latitude),
+                    Double.parseDouble(doc.longitude));
+            entries.add(new BPlusTree.Entry<>(coordinate, ordinal++));
+        }
+        sortedEntries = new ArrayList<>(entries);
+        Collections.sort(sortedEntries);
+        Random random = new Random(SyntheticDataset.SEED);
+        lookups = new SearchIndex.Coordinate[LOOKUPS];
+        for (int i = 0; i < LOOKUPS; i++) {
+            lookups[i] = entries.get(random.nextInt(size)).key;
+        }
+        rangeStarts = new SearchIndex.Coordinate[RANGES];
+        rangeEnds = new SearchIndex.Coordinate[RANGES];
+        for (int i = 0; i < RANGES; i++) {
+            int start = random.nextInt(size - RANGE_WIDTH);
+            rangeStarts[i] = sortedEntries.get(start).key;
+            rangeEnds[i] = sortedEntries.get(start + RANGE_WIDTH - 1).key;
+        }
+        tree = bulkLoad();
+    }
+
+    @Benchmark
+    public BPlusTree<SearchIndex.Coordinate, Integer> insert() {
+        BPlusTree<SearchIndex.Coordinate, Integer> t = new BPlusTree<>(16);
+        for (BPlusTree.Entry<SearchIndex.Coordinate, Integer> entry : entries) {
+            t.add(entry.key, entry.value);
+        }
+        return t;
+    }
+
+    @Benchmark
+    public BPlusTree<SearchIndex.Coordinate, Integer> bulkLoad() {
+        BPlusTree<SearchIndex.Coordinate, Integer> t = new BPlusTree<>(16);
+        t.bulkLoad(sortedEntries, 0.9);
+        return t;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LOOKUPS)
+    public int find() {
+        int found = 0;
+        for (SearchIndex.Coordinate coordinate : lookups) {
+            found += tree.find(coordinate).size();
+        }
+        return found;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(RANGES)
+    public int range() {
+        int sum = 0;
+        for (int i = 0; i < RANGES; i++) {
+            BPlusTree.RangeCursor<SearchIndex.Coordinate, Integer> cursor = tree.range(rangeStarts[i], rangeEnds[i]);
+            while (cursor.next()) {
+                sum += cursor.value();
+            }
+        }
+        return sum;
+    }
+}
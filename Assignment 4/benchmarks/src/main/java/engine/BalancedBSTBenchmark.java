@@ -0,0 +1,93 @@
+package engine;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Inserts and lookups of the trees of ids: the AVLTree used while documents are added, and the Eytzinger tree which
+ * replaces it once the index is frozen. "insert" adds "size" ids in the shuffled order of the dataset, so its score
+ * is the time of a whole tree; the lookups search LOOKUPS ids of the tree per invocation
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class BalancedBSTBenchmark {
+    static final int LOOKUPS = 1024;
+
+    @Param({"100000"})
+    int size;
+
+    private String[] keys;
+    private String[] lookups;
+    private BalancedBST<String, Integer> tree;
+    private EytzingerTree<String> frozenTree;
+
+    @Setup
+    public void setup() {
+        keys = new String[size];
+        for (int i = 0; i < size; i++) {
+            keys[i] = SyntheticDataset.id(i);
+        }
+        Random random = new Random(SyntheticDataset.SEED);
+        lookups = new String[LOOKUPS];
+        for (int i = 0; i < LOOKUPS; i++) {
+            lookups[i] = keys[random.nextInt(size)];
+        }
+        tree = insert();
+        List<String> sortedKeys = new ArrayList<>(size);
+        List<Integer> values = new ArrayList<>(size);
+        tree.collectInOrder(sortedKeys, values);
+        int[] sortedValues = new int[size];
+        for (int i = 0; i < size; i++) {
+            sortedValues[i] = values.get(i);
+        }
+        frozenTree = new EytzingerTree<>(sortedKeys, sortedValues);
+    }
+
+    @Benchmark
+    public BalancedBST<String, Integer> insert() {
+        BalancedBST<String, Integer> t = new BalancedBST<>();
+        for (int i = 0; i < keys.length; i++) {
+            t.add(keys[i], i);
+        }
+        return t;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LOOKUPS)
+    public int get() {
+        int sum = 0;
+        for (String key : lookups) {
+            sum += tree.get(key);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LOOKUPS)
+    public int eytzingerGet() {
+        int sum = 0;
+        for (String key : lookups) {
+            sum += frozenTree.get(key);
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,108 @@
+package engine;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Puts and gets of our HashMap keyed by document ids, with java.util.HashMap as the baseline. "put" fills a new map
+ * with "size" ids, so its score is the time of a whole map; the gets look up LOOKUPS ids per invocation, either ids of
+ * the map or ids it does not contain
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class HashMapBenchmark {
+    static final int LOOKUPS = 1024;
+
+    @Param({"1000", "100000"})
+    int size;
+
+    private String[] keys;
+    private String[] hits;
+    private String[] misses;
+    private HashMap<String, Integer> map;
+    private java.util.HashMap<String, Integer> jdkMap;
+
+    @Setup
+    public void setup() {
+        keys = new String[size];
+        for (int i = 0; i < size; i++) {
+            keys[i] = SyntheticDataset.id(i);
+        }
+        Random random = new Random(SyntheticDataset.SEED);
+        hits = new String[LOOKUPS];
+        misses = new String[LOOKUPS];
+        for (int i = 0; i < LOOKUPS; i++) {
+            hits[i] = keys[random.nextInt(size)];
+            misses[i] = SyntheticDataset.id(size + i);
+        }
+        map = put();
+        jdkMap = jdkPut();
+    }
+
+    @Benchmark
+    public HashMap<String, Integer> put() {
+        HashMap<String, Integer> m = new HashMap<>();
+        for (int i = 0; i < keys.length; i++) {
+            m.put(keys[i], i);
+        }
+        return m;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LOOKUPS)
+    public int getHit() {
+        int sum = 0;
+        for (String key : hits) {
+            sum += map.get(key);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LOOKUPS)
+    public int getMiss() {
+        int found = 0;
+        for (String key : misses) {
+            if (map.get(key) != null) {
+                found++;
+            }
+        }
+        return found;
+    }
+
+    @Benchmark
+    public java.util.HashMap<String, Integer> jdkPut() {
+        java.util.HashMap<String, Integer> m = new java.util.HashMap<>();
+        for (int i = 0; i < keys.length; i++) {
+            m.put(keys[i], i);
+        }
+        return m;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LOOKUPS)
+    public int jdkGetHit() {
+        int sum = 0;
+        for (String key : hits) {
+            sum += jdkMap.get(key);
+        }
+        return sum;
+    }
+}
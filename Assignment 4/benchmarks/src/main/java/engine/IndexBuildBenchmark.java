@@ -0,0 +1,96 @@
+package engine;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Builds the index from a record file of "records" synthetic records, the way Driver does: "readRecordFile" only reads
+ * the documents, "build" reads them, adds them to a new index with "buildThreads" threads and freezes it, with the
+ * trigram indices if "substringIndex" is true. Each operation is timed once, as a build is long enough to be measured
+ * alone
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+@State(Scope.Benchmark)
+public class IndexBuildBenchmark {
+    @Param({"100000"})
+    int records;
+
+    @Param({"1"})
+    int buildThreads;
+
+    @Param({"false"})
+    boolean substringIndex;
+
+    private Path recordFile;
+    private ForkJoinPool pool;
+
+    @Setup
+    public void setup() throws IOException {
+        recordFile = SyntheticDataset.writeRecordFile(records);
+        if (buildThreads > 1) {
+            pool = new ForkJoinPool(buildThreads);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        if (pool != null) {
+            pool.shutdown();
+        }
+        Files.deleteIfExists(recordFile);
+    }
+
+    @Benchmark
+    public List<Document> readRecordFile() throws IOException {
+        final List<Document> documents = new ArrayList<>(records);
+        RecordFileReader.read(recordFile, new RecordFileReader.RecordHandler() {
+            @Override
+            public void record(Document doc) {
+                documents.add(doc);
+            }
+        });
+        return documents;
+    }
+
+    @Benchmark
+    public SearchIndex build() throws IOException {
+        final SearchIndex index = new SearchIndex();
+        if (substringIndex) {
+            index.enableSubstringIndex();
+        }
+        if (pool != null) {
+            index.addDocuments(readRecordFile(), pool);
+        } else {
+            RecordFileReader.read(recordFile, new RecordFileReader.RecordHandler() {
+                @Override
+                public void record(Document doc) {
+                    index.addDocument(doc);
+                }
+            });
+        }
+        index.freeze();
+        return index;
+    }
+}
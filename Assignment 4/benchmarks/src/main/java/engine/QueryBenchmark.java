@@ -0,0 +1,134 @@
+package engine;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Searches a frozen index of "records" synthetic records with a mix of QUERIES queries of one kind, built from random
+ * documents of the dataset so most of them find something:
+ * - EXACT_MATCH: the whole name of a document
+ * - MATCH_ALL: two words of a name
+ * - MATCH_ANY: two words of a name, or two types
+ * - PREFIX: the first word of a name and the first letter of its second word, if any
+ * - FUZZY: a word of a name with a char replaced, within 1 edit
+ * - CONTAINS: 4 chars from the middle of a name, through the trigram index unless "substringIndex" is false
+ * - AT: the coordinate of a document
+ * - WITHIN: a box of a degree around the coordinate of a document
+ * - RADIUS: a circle of 50 km around the coordinate of a document
+ * - NEAR: the 10 documents nearest to the coordinate of a document
+ * - AND: a word of a name, a type and a box of 4 degrees
+ * - MIX: the queries of all the kinds above
+ * The query cache is disabled, so every query searches the indices
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+@State(Scope.Benchmark)
+public class QueryBenchmark {
+    static final int QUERIES = 256;
+    private static final String[] KINDS = {"EXACT_MATCH", "MATCH_ALL", "MATCH_ANY", "PREFIX", "FUZZY", "CONTAINS", "AT",
+            "WITHIN", "RADIUS", "NEAR", "AND"};
+
+    @Param({"100000"})
+    int records;
+
+    @Param({"EXACT_MATCH", "MATCH_ALL", "MATCH_ANY", "PREFIX", "FUZZY", "CONTAINS", "AT", "WITHIN", "RADIUS",
+            "NEAR", "AND", "MIX"})
+    String kind;
+
+    @Param({"true"})
+    boolean substringIndex;
+
+    private SearchIndex index;
+    private final Query[] queries = new Query[QUERIES];
+
+    @Setup
+    public void setup() {
+        List<Document> docs = SyntheticDataset.documents(records);
+        index = new SearchIndex();
+        index.setQueryCacheSize(0);
+        if (substringIndex) {
+            index.enableSubstringIndex();
+        }
+        index.addDocuments(docs);
+        index.freeze();
+        Random random = new Random(SyntheticDataset.SEED);
+        for (int i = 0; i < QUERIES; i++) {
+            String queryKind = "MIX".equals(kind) ? KINDS[i % KINDS.length] : kind;
+            queries[i] = new Query(query(queryKind, docs.get(random.nextInt(records)), random));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(QUERIES)
+    public int search() {
+        int found = 0;
+        for (Query query : queries) {
+            found += index.searchQuery(query).size();
+        }
+        return found;
+    }
+
+    private static String query(String kind, Document doc, Random random) {
+        String[] words = doc.name.split(" ");
+        String word = words[random.nextInt(words.length)];
+        String otherWord = SyntheticDataset.WORDS[random.nextInt(SyntheticDataset.WORDS.length)];
+        double latitude = Double.parseDouble(doc.latitude);
+        double longitude = Double.parseDouble(doc.longitude);
+        switch (kind) {
+            case "EXACT_MATCH":
+                return "name: EXACT_MATCH(" + doc.name + ")";
+            case "MATCH_ALL":
+                return "name: MATCH_ALL(" + word + " " + words[random.nextInt(words.length)] + ")";
+            case "MATCH_ANY":
+                if (random.nextBoolean()) {
+                    return "name: MATCH_ANY(" + word + " | " + otherWord + ")";
+                }
+                return "type: MATCH_ANY(" + doc.type + " | "
+                        + SyntheticDataset.TYPES[random.nextInt(SyntheticDataset.TYPES.length)] + ")";
+            case "PREFIX":
+                return "name: PREFIX(" + words[0] + (words.length > 1 ? " " + words[1].charAt(0) : "") + ")";
+            case "FUZZY":
+                char[] misspelt = word.toCharArray();
+                misspelt[random.nextInt(misspelt.length)] = 'x';
+                return "name: FUZZY(" + new String(misspelt) + "~1)";
+            case "CONTAINS":
+                int from = random.nextInt(Math.max(1, doc.name.length() - 3));
+                return "name: CONTAINS(" + doc.name.substring(from, Math.min(doc.name.length(), from + 4)) + ")";
+            case "AT":
+                return "location: AT(" + doc.latitude + "," + doc.longitude + ")";
+            case "WITHIN":
+                return "location: " + within(latitude, longitude, 0.5);
+            case "RADIUS":
+                return "location: RADIUS(" + doc.latitude + "," + doc.longitude + " | 50)";
+            case "NEAR":
+                return "location: NEAR(" + doc.latitude + "," + doc.longitude + " | 10)";
+            case "AND":
+                return "name: " + word + " AND type: " + doc.type + " AND location: " + within(latitude, longitude, 2);
+            default:
+                throw new IllegalArgumentException("unknown kind of query: " + kind);
+        }
+    }
+
+    private static String within(double latitude, double longitude, double halfSide) {
+        return String.format(Locale.ROOT, "WITHIN(%.4f,%.4f | %.4f,%.4f)", latitude - halfSide, longitude - halfSide,
+                latitude + halfSide, longitude + halfSide);
+    }
+}
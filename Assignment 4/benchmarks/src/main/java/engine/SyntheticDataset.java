@@ -0,0 +1,105 @@
+package engine;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * SyntheticDataset generates records shaped like the geographical names of Quebec from a fixed seed, so every run of
+ * the benchmarks works on the same records without shipping the real file:
+ * - the ids are distinct strings of an "E" and 5 letters, in a shuffled order
+ * - the names are 1 to 4 words of a French vocabulary, with accents and stop words
+ * - the types and regions are drawn from short lists, like the Generic Term and Location columns
+ * - the coordinates are spread over Quebec, and 1% of the places share the coordinate of another place
+ */
+final class SyntheticDataset {
+    static final long SEED = 5511;
+    static final String[] WORDS = {"Lac", "Rivière", "Mont", "Saint-Jean", "verte", "Ruisseau", "Baie", "Île",
+            "Pointe", "national", "Parc", "de", "la", "du", "Bonjour", "Étang", "Cap", "Petit", "Grand", "Rouge", "Noir",
+            "Chute", "Montagne", "aux", "Castors", "Sainte-Anne", "Brûlé", "Lièvre", "Orignal", "Côte"};
+    static final String[] TYPES = {"Lake", "River", "Mountain", "Park", "National Park", "Parish", "Township", "Bay",
+            "Stream", "Island"};
+    static final String[] REGIONS = {"Rivière-Bonjour; La Matanie", "Chertsey; Matawinie", "Amos; Abitibi",
+            "Baie-d'Hudson; Nord-du-Québec", "Saint-Lambert; Longueuil", "Brossard; Longueuil",
+            "Montréal; Mont-Royal", "Gaspé; La Côte-de-Gaspé"};
+    private static final String HEADER = "CGNDB Key,Geographical Name,Language,Syllabic Form,Generic Term,"
+            + "Generic Category,Concise Code,Toponymic Feature ID,Latitude,Longitude,Location,Province - Territory,"
+            + "Relevance at Scale,Decision Date,Source";
+    private static final int ID_SPACE = 26 * 26 * 26 * 26 * 26;
+
+    private SyntheticDataset() {
+    }
+
+    /**
+     * Returns the i-th id: i is mapped to a distinct number of 5 letters by a multiplication modulo 26^5, so the ids
+     * are distinct and do not come in sorted order
+     */
+    static String id(int i) {
+        if (i < 0 || i >= ID_SPACE) {
+            throw new IllegalArgumentException("id number must be between 0 and " + ID_SPACE + "; got " + i);
+        }
+        long n = (i * 2654435761L) % ID_SPACE;
+        char[] letters = new char[6];
+        letters[0] = 'E';
+        for (int c = letters.length - 1; c > 0; c--) {
+            letters[c] = (char) ('A' + n % 26);
+            n /= 26;
+        }
+        return new String(letters);
+    }
+
+    /**
+     * Returns the first "count" documents of the dataset
+     */
+    static List<Document> documents(int count) {
+        Random random = new Random(SEED);
+        List<Document> docs = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            StringBuilder name = new StringBuilder();
+            for (int w = 1 + random.nextInt(4); w > 0; w--) {
+                if (name.length() > 0) {
+                    name.append(' ');
+                }
+                name.append(WORDS[random.nextInt(WORDS.length)]);
+            }
+            String latitude;
+            String longitude;
+            if (i > 0 && random.nextInt(100) == 0) {
+                Document other = docs.get(random.nextInt(i));
+                latitude = other.latitude;
+                longitude = other.longitude;
+            } else {
+                latitude = String.format(Locale.ROOT, "%.7f", 45 + 17 * random.nextDouble());
+                longitude = String.format(Locale.ROOT, "%.7f", -79 + 22 * random.nextDouble());
+            }
+            docs.add(new Document(id(i), name.toString(), TYPES[random.nextInt(TYPES.length)], latitude, longitude,
+                    REGIONS[random.nextInt(REGIONS.length)]));
+        }
+        return docs;
+    }
+
+    /**
+     * Writes the first "count" documents of the dataset to a temporary record file, in the columns of the real one,
+     * deleted when the JVM exits
+     */
+    static Path writeRecordFile(int count) throws IOException {
+        Path file = Files.createTempFile("synthetic-", ".csv");
+        file.toFile().deleteOnExit();
+        try (BufferedWriter out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            out.write(HEADER);
+            out.newLine();
+            for (Document doc : documents(count)) {
+                out.write(doc.id + ",\"" + doc.name + "\",French,," + doc.type + ",Cat,CODE,abc," + doc.latitude + ","
+                        + doc.longitude + ",\"" + doc.region + "\",Quebec,50000,2000-01-01,src");
+                out.newLine();
+            }
+        }
+        return file;
+    }
+}
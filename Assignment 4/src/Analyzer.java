@@ -0,0 +1,256 @@
+import java.text.Normalizer;
+import java.util.Arrays;
+
+/**
+ * An Analyzer turns a text into the ids of its terms, with the same pipeline at index time and at query time:
+ * - the tokenizer cuts the text at the delimiters
+ * - the token filters map each char of a token, by default to lower case and then without its accent (é to e)
+ * - the stop words are removed, unless the text has only stop words, in which case they are kept
+ * - each term is looked up in a TermDictionary shared by the indices, and interned at index time
+ * The tokens are written into buffers reused from one text to the next, so analyzing a text only allocates the new
+ * terms of the dictionary. The terms of a text, joined by a space, form its full term, also looked up in the
+ * dictionary. An Analyzer is not thread-safe, each thread needs its own.
+ */
+class Analyzer {
+    /**
+     * Maps each char of a token
+     */
+    interface TokenFilter {
+        char filter(char c);
+    }
+
+    static final TokenFilter LOWER_CASE = new TokenFilter() {
+        @Override
+        public char filter(char c) {
+            return Character.toLowerCase(c);
+        }
+    };
+
+    // the letter without accent of each char of the Latin-1 and Latin Extended blocks, from FOLDING_FROM, the char
+    // itself if it has no such letter
+    private static final char FOLDING_FROM = '\u00C0';
+    private static final char[] FOLDING = new char['\u0250' - FOLDING_FROM];
+
+    static {
+        for (int i = 0; i < FOLDING.length; i++) {
+            char c = (char) (FOLDING_FROM + i);
+            String decomposed = Normalizer.normalize(String.valueOf(c), Normalizer.Form.NFD);
+            char base = decomposed.charAt(0);
+            FOLDING[i] = base < 0x80 && Character.isLetter(base) ? base : c;
+        }
+    }
+
+    static final TokenFilter ACCENT_FOLDING = new TokenFilter() {
+        @Override
+        public char filter(char c) {
+            return c >= FOLDING_FROM && c - FOLDING_FROM < FOLDING.length ? FOLDING[c - FOLDING_FROM] : c;
+        }
+    };
+
+    private final TermDictionary dictionary;
+    private final TermDictionary stopWords = new TermDictionary();
+    private final TokenFilter[] filters;
+    private final Tokens kept = new Tokens();
+    private final Tokens stopped = new Tokens();
+    private Tokens tokens = kept; // the tokens of the last text
+    private int[] termIds = new int[8];
+    private int termCount;
+    private int fullTerm;
+
+    /**
+     * @param dictionary: the dictionary of the terms
+     * @param stopWords:  the words removed from the texts, they go through the token filters too
+     * @param filters:    the token filters, applied in order
+     */
+    Analyzer(TermDictionary dictionary, String[] stopWords, TokenFilter... filters) {
+        this.dictionary = dictionary;
+        this.filters = filters;
+        for (String stopWord : stopWords) {
+            char[] chars = stopWord.toCharArray();
+            filter(chars, 0, chars.length);
+            this.stopWords.intern(chars, 0, chars.length);
+        }
+        this.stopWords.freeze();
+    }
+
+    /**
+     * An analyzer with the default pipeline: lower case, accent folding and the given stop words
+     */
+    static Analyzer standard(TermDictionary dictionary, String[] stopWords) {
+        return new Analyzer(dictionary, stopWords, LOWER_CASE, ACCENT_FOLDING);
+    }
+
+    /**
+     * Analyzes a text, whose terms are then available with "termCount", "term" and "fullTerm" until the next call
+     * @param text:   the given text
+     * @param intern: true to give an id to the terms that are not in the dictionary yet (at index time); false to
+     *                leave them out of the dictionary, their id is then TermDictionary.NOT_FOUND (at query time)
+     */
+    void analyze(String text, boolean intern) {
+        kept.clear();
+        stopped.clear();
+        int length = text.length();
+        int i = 0;
+        while (i < length) {
+            if (isDelimiter(text.charAt(i))) {
+                i++;
+                continue;
+            }
+            int start = kept.startToken();
+            while (i < length && !isDelimiter(text.charAt(i))) {
+                kept.append(text.charAt(i++));
+            }
+            filter(kept.chars, start, kept.length - start);
+            if (stopWords.find(kept.chars, start, kept.length - start) != TermDictionary.NOT_FOUND) {
+                stopped.startToken();
+                stopped.append(kept.chars, start, kept.length - start);
+                stopped.endToken();
+                kept.dropToken();
+            } else {
+                kept.endToken();
+            }
+        }
+        // Some name contains only stop words id: EFJXB name: Aux type: Township 47.3333333,-76.2666667
+        tokens = kept.count > 0 ? kept : stopped;
+        termCount = tokens.count;
+        if (termIds.length < termCount) {
+            termIds = new int[Math.max(termCount, 2 * termIds.length)];
+        }
+        for (int t = 0; t < termCount; t++) {
+            int start = tokens.start(t);
+            termIds[t] = lookup(tokens.chars, start, tokens.ends[t] - start, intern);
+        }
+        fullTerm = termCount == 0 ? TermDictionary.NOT_FOUND : lookup(tokens.chars, 0, tokens.length, intern);
+    }
+
+    /**
+     * The number of terms of the last text
+     */
+    int termCount() {
+        return termCount;
+    }
+
+    /**
+     * The id of the i-th term of the last text
+     */
+    int term(int i) {
+        return termIds[i];
+    }
+
+    /**
+     * The ids of the terms of the last text, in a new array
+     */
+    int[] terms() {
+        return Arrays.copyOf(termIds, termCount);
+    }
+
+    /**
+     * The id of the terms of the last text joined by a space, TermDictionary.NOT_FOUND if the text has no term
+     */
+    int fullTerm() {
+        return fullTerm;
+    }
+
+    /**
+     * The terms of the last text joined by a space, the text of its full term, in a new String
+     */
+    String fullText() {
+        return new String(tokens.chars, 0, tokens.length);
+    }
+
+    private int lookup(char[] chars, int from, int length, boolean intern) {
+        return intern ? dictionary.intern(chars, from, length) : dictionary.find(chars, from, length);
+    }
+
+    /**
+     * Returns the char mapped by the token filters, the way the chars of the terms are
+     */
+    char normalize(char c) {
+        for (TokenFilter filter : filters) {
+            c = filter.filter(c);
+        }
+        return c;
+    }
+
+    /**
+     * Returns the text with each char mapped by the token filters, without cutting it into tokens, in a new String
+     */
+    String normalize(String text) {
+        char[] chars = text.toCharArray();
+        filter(chars, 0, chars.length);
+        return new String(chars);
+    }
+
+    private void filter(char[] chars, int from, int length) {
+        for (TokenFilter filter : filters) {
+            for (int i = from; i < from + length; i++) {
+                chars[i] = filter.filter(chars[i]);
+            }
+        }
+    }
+
+    /**
+     * This method decides if a char c is a delimiter
+     */
+    private static boolean isDelimiter(char c) {
+        return c == ' ' || c == ';' || c == ',' || c == '(' || c == ')' || c == '|';
+    }
+
+    /**
+     * The tokens of a text, written one after the other in a char buffer and separated by a space
+     */
+    private static class Tokens {
+        char[] chars = new char[64];
+        int length;
+        int[] ends = new int[8];
+        int count;
+
+        void clear() {
+            length = 0;
+            count = 0;
+        }
+
+        /**
+         * Starts a new token, returns the position of its first char
+         */
+        int startToken() {
+            if (count > 0) {
+                append(' ');
+            }
+            return length;
+        }
+
+        void endToken() {
+            if (count == ends.length) {
+                ends = Arrays.copyOf(ends, count * 2);
+            }
+            ends[count++] = length;
+        }
+
+        /**
+         * Drops the token started last
+         */
+        void dropToken() {
+            length = count > 0 ? ends[count - 1] : 0;
+        }
+
+        int start(int token) {
+            return token == 0 ? 0 : ends[token - 1] + 1;
+        }
+
+        void append(char c) {
+            if (length == chars.length) {
+                chars = Arrays.copyOf(chars, length * 2);
+            }
+            chars[length++] = c;
+        }
+
+        void append(char[] from, int offset, int count) {
+            if (length + count > chars.length) {
+                chars = Arrays.copyOf(chars, Math.max(length + count, chars.length * 2));
+            }
+            System.arraycopy(from, offset, chars, length, count);
+            length += count;
+        }
+    }
+}
@@ -1,16 +1,36 @@
 import java.util.ArrayList;
 import java.util.List;
 
+/**
+ * A B+ tree whose leaves are linked to their siblings in both directions. A range scan descends the tree once to the
+ * first leaf of the range, then a RangeCursor follows the sibling links and streams the values
+ */
 public class BPlusTree<K extends Comparable<K>, V> {
     private Node<K, V> root;
     private final int maxKeySize;
+    private final Disk<V> disk;
 
+    /**
+     * Creates a tree whose values are kept in an in-memory Disk
+     */
     public BPlusTree(int maxKeySize) {
+        this(maxKeySize, new MemoryDisk<V>());
+    }
+
+    /**
+     * Creates a tree whose values are stored in the given Disk, for example a PagedDisk backed by a file
+     */
+    public BPlusTree(int maxKeySize, Disk<V> disk) {
         if (maxKeySize < 1) {
             throw new IllegalArgumentException("max key size must be at least 1; got " + maxKeySize);
         }
         this.root = new LeafNode<>();
         this.maxKeySize = maxKeySize;
+        this.disk = disk;
+    }
+
+    Disk<V> getDisk() {
+        return disk;
     }
 
     /**
@@ -21,7 +41,8 @@ public class BPlusTree<K extends Comparable<K>, V> {
      * @param v
      */
     public void add(K k, V v) {
-        SplitResult<K, V> result = root.addKeyValue(k, v, maxKeySize);
+        final int filePosition = disk.writeToDisk(v); // write the adding value to disk
+        SplitResult<K, V> result = root.addKeyValue(k, filePosition, maxKeySize);
         if (result != null) {
             InternalNode<K, V> newNode = new InternalNode<>(new ArrayList<K>(), newList(root));
             newNode.addNewNodeAndSplitIfNeeded(result.newKey, result.newNode, maxKeySize);
@@ -29,6 +50,87 @@ public class BPlusTree<K extends Comparable<K>, V> {
         }
     }
 
+    /**
+     * Builds the tree bottom-up from entries sorted by key, which is much faster than adding them one by one and
+     * gives a denser and shallower tree. The leaves are filled up to "fillFactor" of their capacity and linked in a
+     * single pass, then each level of internal nodes is built on top of the previous one. The tree must be empty.
+     *
+     * @param sortedEntries the entries, sorted by key
+     * @param fillFactor    the fraction of each node to fill, between 0 (exclusive) and 1 (inclusive); leaving some
+     *                      room lets later insertions avoid splitting right away
+     */
+    public void bulkLoad(List<Entry<K, V>> sortedEntries, double fillFactor) {
+        if (!(fillFactor > 0.0 && fillFactor <= 1.0)) {
+            throw new IllegalArgumentException("fill factor must be in (0, 1]; got " + fillFactor);
+        }
+        if (!root.keys.isEmpty()) {
+            throw new IllegalStateException("bulk loading requires an empty tree");
+        }
+        // write the values to disk and group the file positions of equal keys
+        List<K> keys = new ArrayList<>();
+        List<List<Integer>> filePointers = new ArrayList<>();
+        for (Entry<K, V> entry : sortedEntries) {
+            final int filePosition = disk.writeToDisk(entry.value);
+            if (!keys.isEmpty()) {
+                int cmp = entry.key.compareTo(keys.get(keys.size() - 1));
+                if (cmp < 0) {
+                    throw new IllegalArgumentException("entries must be sorted by key; got " + entry.key
+                            + " after " + keys.get(keys.size() - 1));
+                }
+                if (cmp == 0) {
+                    filePointers.get(filePointers.size() - 1).add(filePosition);
+                    continue;
+                }
+            }
+            keys.add(entry.key);
+            filePointers.add(newList(filePosition));
+        }
+        if (keys.isEmpty()) {
+            return;
+        }
+
+        // the leaves, the keys are spread evenly so the last leaf is not left almost empty
+        int leafCount = divideRoundingUp(keys.size(), Math.max(1, (int) (maxKeySize * fillFactor)));
+        List<Node<K, V>> level = new ArrayList<>(leafCount);
+        List<K> firstKeys = new ArrayList<>(leafCount); // the smallest key under each node of the level
+        LeafNode<K, V> previous = null;
+        for (int i = 0, from = 0; i < leafCount; i++) {
+            int to = (int) ((long) keys.size() * (i + 1) / leafCount);
+            LeafNode<K, V> leaf = new LeafNode<>(new ArrayList<>(keys.subList(from, to)),
+                    new ArrayList<>(filePointers.subList(from, to)));
+            leaf.previous = previous;
+            if (previous != null) {
+                previous.next = leaf;
+            }
+            previous = leaf;
+            level.add(leaf);
+            firstKeys.add(keys.get(from));
+            from = to;
+        }
+
+        // the internal levels, each node separates its children by the smallest key under each child
+        int fanout = Math.max(2, (int) ((maxKeySize + 1) * fillFactor));
+        while (level.size() > 1) {
+            int nodeCount = divideRoundingUp(level.size(), fanout);
+            List<Node<K, V>> upperLevel = new ArrayList<>(nodeCount);
+            List<K> upperFirstKeys = new ArrayList<>(nodeCount);
+            for (int i = 0, from = 0; i < nodeCount; i++) {
+                int to = (int) ((long) level.size() * (i + 1) / nodeCount);
+                upperLevel.add(new InternalNode<>(new ArrayList<>(firstKeys.subList(from + 1, to)),
+                        new ArrayList<>(level.subList(from, to))));
+                upperFirstKeys.add(firstKeys.get(from));
+                from = to;
+            }
+            level = upperLevel;
+            firstKeys = upperFirstKeys;
+        }
+        root = level.get(0);
+    }
+
+    private static int divideRoundingUp(int a, int b) {
+        return (a + b - 1) / b;
+    }
+
     /**
      * Find elements of the given key. This is used to query places AT a coordinate
      *
@@ -36,7 +138,7 @@ public class BPlusTree<K extends Comparable<K>, V> {
      * @return
      */
     public List<V> find(K k) {
-        return root.find(k);
+        return root.find(k, disk);
     }
 
     /**
@@ -47,7 +149,42 @@ public class BPlusTree<K extends Comparable<K>, V> {
      * @return
      */
     public List<V> findRange(K lower, K upper) {
-        return root.findRange(lower, upper);
+        List<V> results = new ArrayList<>();
+        RangeCursor<K, V> cursor = range(lower, upper);
+        while (cursor.next()) {
+            results.add(cursor.value());
+        }
+        return results;
+    }
+
+    /**
+     * Returns a cursor over the values whose keys are in the range "lower - upper" (both inclusive), in increasing
+     * order of keys
+     */
+    public RangeCursor<K, V> range(K lower, K upper) {
+        LeafNode<K, V> leaf = findLeaf(lower);
+        return new RangeCursor<>(disk, leaf, leaf.lowerBound(lower), lower, upper, true);
+    }
+
+    /**
+     * Returns a cursor over the values whose keys are in the range "lower - upper" (both inclusive), in decreasing
+     * order of keys
+     */
+    public RangeCursor<K, V> descendingRange(K lower, K upper) {
+        LeafNode<K, V> leaf = findLeaf(upper);
+        return new RangeCursor<>(disk, leaf, leaf.lowerBound(upper), lower, upper, false);
+    }
+
+    /**
+     * Descend the tree to the leaf which the key "k" belongs to
+     */
+    private LeafNode<K, V> findLeaf(K k) {
+        Node<K, V> node = root;
+        while (node instanceof InternalNode) {
+            InternalNode<K, V> internal = (InternalNode<K, V>) node;
+            node = internal.children.get(internal.findBranch(k));
+        }
+        return (LeafNode<K, V>) node;
     }
 
     private static <E> List<E> split(List<E> input, int retainingSize) {
@@ -59,6 +196,24 @@ public class BPlusTree<K extends Comparable<K>, V> {
         return newList;
     }
 
+    /**
+     * A pair of key and value, used to bulk load the tree. Entries are ordered by key
+     */
+    static class Entry<K extends Comparable<K>, V> implements Comparable<Entry<K, V>> {
+        final K key;
+        final V value;
+
+        Entry(K key, V value) {
+            this.key = key;
+            this.value = value;
+        }
+
+        @Override
+        public int compareTo(Entry<K, V> that) {
+            return key.compareTo(that.key);
+        }
+    }
+
     static class SplitResult<K extends Comparable<K>, V> {
         final Node<K, V> newNode;
         final K newKey;
@@ -76,23 +231,43 @@ public class BPlusTree<K extends Comparable<K>, V> {
             this.keys = keys;
         }
 
-        abstract SplitResult<K, V> addKeyValue(K k, V v, int maxKeySize);
+        abstract SplitResult<K, V> addKeyValue(K k, int filePosition, int maxKeySize);
 
-        abstract List<V> find(K k);
-
-        abstract List<V> findRange(K lower, K upper);
+        abstract List<V> find(K k, Disk<V> disk);
 
         /**
-         * With a given key "k", this method will return the branch which this key belongs to
+         * With a given key "k", this method will return the branch which this key belongs to: the index of the first
+         * key greater than "k", found by binary search
          */
         int findBranch(K k) {
-            int i;
-            for (i = 0; i < keys.size(); i++) {
-                if (k.compareTo(keys.get(i)) < 0) {
-                    break;
+            int low = 0;
+            int high = keys.size();
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (k.compareTo(keys.get(mid)) < 0) {
+                    high = mid;
+                } else {
+                    low = mid + 1;
+                }
+            }
+            return low;
+        }
+
+        /**
+         * With a given key "k", this method will return the index of the first key greater than or equal to "k"
+         */
+        int lowerBound(K k) {
+            int low = 0;
+            int high = keys.size();
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (keys.get(mid).compareTo(k) < 0) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
                 }
             }
-            return i;
+            return low;
         }
     }
 
@@ -108,41 +283,12 @@ public class BPlusTree<K extends Comparable<K>, V> {
          * Find the key "k" in the internal node
          */
         @Override
-        List<V> find(K k) {
+        List<V> find(K k, Disk<V> disk) {
             Node<K, V> child = children.get(findBranch(k));//find the child which the key "k" belong to
-            return child.find(k);//find key "k" on the child, the method "find" used depends on what class the child is of
+            //find key "k" on the child, the method "find" used depends on what class the child is of
+            return child.find(k, disk);
         }
 
-        /**
-         * Find the list of keys in range of "lower - upper"
-         */
-        @Override
-        List<V> findRange(K lower, K upper) {
-            List<V> results = new ArrayList<>();
-            //find the fromIndex in the internal node
-            int fromIndex;
-            for (fromIndex = 0; fromIndex < keys.size(); fromIndex++) {
-                int cmp = lower.compareTo(keys.get(fromIndex));
-                if (cmp < 0) {
-                    break;
-                } else if (cmp == 0) {
-                    fromIndex++;
-                    break;
-                }
-            }
-            //consider the node's children from the fromIndex, if their keys are in range then add them
-            int toIndex;
-            for (toIndex = fromIndex; toIndex < keys.size(); toIndex++) {
-                Node<K, V> childNode = children.get(toIndex);
-                results.addAll(childNode.findRange(lower, upper));
-                if (keys.get(toIndex).compareTo(upper) > 0) {
-                    return results;
-                }
-            }
-            Node<K, V> childNode = children.get(toIndex);
-            results.addAll(childNode.findRange(lower, upper));
-            return results;
-        }
         /**
          * Insert a new key, new node to an internal node. If node is overflow, then split and returns a new node
          */
@@ -163,12 +309,12 @@ public class BPlusTree<K extends Comparable<K>, V> {
         }
 
         /**
-         * Add a pair "key k, value v" into an internal node
+         * Add a pair "key k, file position of the value" into an internal node
          */
         @Override
-        SplitResult<K, V> addKeyValue(K k, V v, int maxKeySize) {
+        SplitResult<K, V> addKeyValue(K k, int filePosition, int maxKeySize) {
             int branch = findBranch(k);
-            SplitResult<K, V> result = children.get(branch).addKeyValue(k, v, maxKeySize);
+            SplitResult<K, V> result = children.get(branch).addKeyValue(k, filePosition, maxKeySize);
             if (result == null) {
                 return null;
             }
@@ -178,6 +324,8 @@ public class BPlusTree<K extends Comparable<K>, V> {
 
     static class LeafNode<K extends Comparable<K>, V> extends Node<K, V> {
         private final List<List<Integer>> filePointers;
+        private LeafNode<K, V> previous;
+        private LeafNode<K, V> next;
 
         LeafNode() {
             this(new ArrayList<K>(), new ArrayList<List<Integer>>());
@@ -192,7 +340,7 @@ public class BPlusTree<K extends Comparable<K>, V> {
          * Find the key "k" in the leaf node
          */
         @Override
-        List<V> find(K k) {
+        List<V> find(K k, Disk<V> disk) {
             int left = 0;
             int right = keys.size() - 1;
             while (left <= right) {
@@ -203,51 +351,29 @@ public class BPlusTree<K extends Comparable<K>, V> {
                 } else if (cmp > 0) {
                     left = mid + 1;
                 } else {
-                    return readValuesFromDisk(filePointers.get(mid));
+                    return readValuesFromDisk(filePointers.get(mid), disk);
                 }
             }
             return new ArrayList<>();
         }
 
-        /**
-         * Give the range "lower - upper", this method finds all keys in the leaf node within this range
-         */
-        @Override
-        List<V> findRange(K lower, K upper) {
-            List<V> results = new ArrayList<>();
-            int fromIndex;
-            for (fromIndex = 0; fromIndex < keys.size(); fromIndex++) {
-                if (lower.compareTo(keys.get(fromIndex)) <= 0) {
-                    break;
-                }
-            }
-            for (int i = fromIndex; i < keys.size(); i++) {
-                if (keys.get(i).compareTo(upper) <= 0) {
-                    results.addAll(readValuesFromDisk(filePointers.get(i)));
-                } else {
-                    break;
-                }
-            }
-            return results;
-        }
-
         /**
          * The method takes and returns all keys (from the "Disk") associated with the given filePositions
          */
-        private List<V> readValuesFromDisk(List<Integer> filePositions) {
+        private List<V> readValuesFromDisk(List<Integer> filePositions, Disk<V> disk) {
             List<V> result = new ArrayList<>(filePositions.size());
             for (Integer pos : filePositions) {
-                result.add((V) Disk.readFromDisk(pos));
+                result.add(disk.readFromDisk(pos));
             }
             return result;
         }
 
         /**
-         * Insert a new key,value to a leaf node. If the leaf node is overflow, then split and returns a new node
+         * Insert a new key, file position of the value to a leaf node. If the leaf node is overflow, then split and
+         * returns a new node
          */
         @Override
-        SplitResult<K, V> addKeyValue(K k, V v, int maxKeySize) {
-            final int filePosition = Disk.writeToDisk(v); // write the adding value to disk
+        SplitResult<K, V> addKeyValue(K k, int filePosition, int maxKeySize) {
             int branch = 0;
             for (; branch < keys.size(); branch++) {
                 int cmp = k.compareTo(keys.get(branch));
@@ -272,10 +398,93 @@ public class BPlusTree<K extends Comparable<K>, V> {
             List<K> rightKeys = split(keys, leftSize);
             List<List<Integer>> rightFilePointers = split(filePointers, leftSize);
             final LeafNode<K, V> newLeaf = new LeafNode<>(rightKeys, rightFilePointers);
+            // link the new leaf between this leaf and its old next sibling
+            newLeaf.previous = this;
+            newLeaf.next = next;
+            if (next != null) {
+                next.previous = newLeaf;
+            }
+            next = newLeaf;
             return new SplitResult<>(newLeaf, rightKeys.get(0));
         }
     }
 
+    /**
+     * A RangeCursor streams the values of a range of keys by following the links between the leaves, so no
+     * intermediate list is built and the caller can stop at any time:
+     * while (cursor.next()) { cursor.key() ... cursor.value() ... }
+     */
+    static class RangeCursor<K extends Comparable<K>, V> {
+        private final Disk<V> disk;
+        private final K lower;
+        private final K upper;
+        private final boolean ascending;
+        private LeafNode<K, V> leaf;
+        private int keyIndex;
+        private int pointerIndex = -1;
+
+        RangeCursor(Disk<V> disk, LeafNode<K, V> leaf, int lowerBound, K lower, K upper, boolean ascending) {
+            this.disk = disk;
+            this.lower = lower;
+            this.upper = upper;
+            this.ascending = ascending;
+            this.leaf = leaf;
+            if (ascending) {
+                this.keyIndex = lowerBound;
+            } else {
+                // start from the last key which is not greater than "upper"
+                this.keyIndex = lowerBound < leaf.keys.size() && leaf.keys.get(lowerBound).compareTo(upper) == 0
+                        ? lowerBound : lowerBound - 1;
+            }
+        }
+
+        /**
+         * Move to the next value of the range
+         * @return false if there is no more value in the range
+         */
+        boolean next() {
+            if (leaf == null) {
+                return false;
+            }
+            if (pointerIndex >= 0) {
+                if (++pointerIndex < leaf.filePointers.get(keyIndex).size()) {
+                    return true;
+                }
+                // all values of the current key were returned, move to the following key
+                keyIndex += ascending ? 1 : -1;
+            }
+            pointerIndex = 0;
+            // follow the sibling links when the following key is in another leaf
+            while (keyIndex < 0 || keyIndex >= leaf.keys.size()) {
+                leaf = ascending ? leaf.next : leaf.previous;
+                if (leaf == null) {
+                    return false;
+                }
+                keyIndex = ascending ? 0 : leaf.keys.size() - 1;
+            }
+            K key = leaf.keys.get(keyIndex);
+            if (ascending ? key.compareTo(upper) > 0 : key.compareTo(lower) < 0) {
+                leaf = null;
+                return false;
+            }
+            return true;
+        }
+
+        /**
+         * @return the key of the current value
+         */
+        K key() {
+            return leaf.keys.get(keyIndex);
+        }
+
+        /**
+         * @return the current value, read from the "Disk"
+         */
+        V value() {
+            return disk.readFromDisk(leaf.filePointers.get(keyIndex).get(pointerIndex));
+        }
+    }
+
     private static <E> List<E> newList(E e) {
         List<E> list = new ArrayList<>();
         list.add(e);
@@ -284,22 +493,17 @@ public class BPlusTree<K extends Comparable<K>, V> {
 
 
     /**
-     * Values of the leaf nodes of a B+ Tree are stored in the disk. This class simulates a disk
+     * Values of the leaf nodes of a B+ Tree are stored in the disk, the leaf nodes only keep their file positions.
+     * Each tree has its own disk. Once no value is written any more, several threads may read the disk at once
      */
-    static class Disk {
-        private final static List<Object> elements = new ArrayList<>(50000);
-
+    abstract static class Disk<V> {
         /**
          * Write the value e to the disk and return the file pointer at the beginning of the object
          *
          * @param e the value to write
          * @return the file position of the written object
          */
-        static int writeToDisk(Object e) {
-            final int pos = elements.size();
-            elements.add(e);
-            return pos;
-        }
+        abstract int writeToDisk(V e);
 
         /**
          * Read the element on disk at the given file position
@@ -307,8 +511,36 @@ public class BPlusTree<K extends Comparable<K>, V> {
          * @param filePosition the file position to read
          * @return the value read from disk at the given file position
          */
-        static Object readFromDisk(int filePosition) {
+        abstract V readFromDisk(int filePosition);
+
+        /**
+         * @return a human-readable description of the disk and its counters
+         */
+        abstract String stats();
+    }
+
+    /**
+     * This class simulates a disk in memory. Its values are read without locking: readers only need the writes to
+     * happen before them, as the writes of a tree being built happen before the tree is searched
+     */
+    static class MemoryDisk<V> extends Disk<V> {
+        private final List<V> elements = new ArrayList<>();
+
+        @Override
+        int writeToDisk(V e) {
+            final int pos = elements.size();
+            elements.add(e);
+            return pos;
+        }
+
+        @Override
+        V readFromDisk(int filePosition) {
             return elements.get(filePosition);
         }
+
+        @Override
+        String stats() {
+            return "in-memory disk: " + elements.size() + " values";
+        }
     }
 }
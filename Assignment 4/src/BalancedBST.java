@@ -1,4 +1,5 @@
 import java.io.PrintStream;
+import java.util.List;
 
 /**
  * A height-balanced binary search tree with AVL implementation
@@ -175,32 +176,70 @@ public class BalancedBST<K extends Comparable<K>, V> {
         return getFromNode(key, root);
     }
 
+    /**
+     * collect the keys and values of the tree in increasing order of keys
+     *
+     * @param keys:   the list receiving the keys
+     * @param values: the list receiving the values
+     */
+    public void collectInOrder(List<K> keys, List<V> values) {
+        collectInOrder(root, keys, values);
+    }
+
+    private void collectInOrder(Node<K, V> node, List<K> keys, List<V> values) {
+        if (node == null) {
+            return;
+        }
+        collectInOrder(node.left, keys, values);
+        keys.add(node.key);
+        values.add(node.value);
+        collectInOrder(node.right, keys, values);
+    }
+
+    /**
+     * Converts a value of the tree into the text printed by "printTree"
+     */
+    interface ValuePrinter<V> {
+        String print(V value);
+    }
+
     public void printTree(PrintStream writer) {
+        printTree(writer, new ValuePrinter<V>() {
+            @Override
+            public String print(V value) {
+                return String.valueOf(value);
+            }
+        });
+    }
+
+    public void printTree(PrintStream writer, ValuePrinter<V> printer) {
         if (root == null) {
             writer.println("Tree is empty");
+            return;
         }
-        writer.println("root node: key=" + root.key + " value=" + root.value);
-        printNode(root, writer);
+        writer.println("root node: key=" + root.key + " value=" + printer.print(root.value));
+        printNode(root, writer, printer);
     }
 
     // traverse pre-order
-    private void printNode(Node<K, V> node, PrintStream writer) {
+    private void printNode(Node<K, V> node, PrintStream writer, ValuePrinter<V> printer) {
         if (node == null) {
             return;
         }
         final Node<K, V> left = node.left;
         if (left != null) {
-            writer.println("left of node (" + node.key +"): key=" + left.key + " value=" + left.value);
+            writer.println("left of node (" + node.key +"): key=" + left.key + " value=" + printer.print(left.value));
         }
         final Node<K, V> right = node.right;
         if (right != null) {
-            writer.println("right of node (" + node.key +"): key=" + right.key + " value=" + right.value);
+            writer.println("right of node (" + node.key +"): key=" + right.key + " value="
+                    + printer.print(right.value));
         }
         if (left != null) {
-            printNode(left, writer);
+            printNode(left, writer, printer);
         }
         if (right != null) {
-            printNode(right, writer);
+            printNode(right, writer, printer);
         }
     }
 }
@@ -0,0 +1,145 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A BufferPool caches the pages of a file in a fixed number of frames allocated off-heap. When every frame is used,
+ * the least recently used page is evicted: it is written back to the file if it was modified, and its frame is
+ * reused for the new page. The pool is not thread-safe, its owner must synchronize the calls.
+ */
+class BufferPool {
+    private final FileChannel channel;
+    private final int pageSize;
+    private final int capacity;
+    private final HashMap<Integer, Frame> frames;
+    private final Frame lru = new Frame(-1, null); // sentinel of the list of frames, most recently used first
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long pageWrites;
+
+    /**
+     * @param channel:  the file holding the pages
+     * @param pageSize: the size of a page in bytes
+     * @param capacity: the maximum number of pages held in memory
+     */
+    BufferPool(FileChannel channel, int pageSize, int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("buffer pool needs at least 1 page; got " + capacity);
+        }
+        this.channel = channel;
+        this.pageSize = pageSize;
+        this.capacity = capacity;
+        this.frames = new HashMap<>(capacity);
+        lru.previous = lru;
+        lru.next = lru;
+    }
+
+    /**
+     * Returns the buffer of the given page, reading it from the file if it is not in the pool. The buffer is only
+     * valid until the next call to the pool, and must be accessed with absolute get/put methods
+     * @param pageNumber: the page to access
+     * @param modify:     true if the caller is going to modify the page, so it is written back on eviction
+     */
+    ByteBuffer page(int pageNumber, boolean modify) throws IOException {
+        Frame frame = frames.get(pageNumber);
+        if (frame != null) {
+            hits++;
+            unlink(frame);
+        } else {
+            misses++;
+            frame = frameForNewPage(pageNumber);
+            readPage(frame);
+            frames.put(pageNumber, frame);
+        }
+        linkFirst(frame);
+        frame.dirty |= modify;
+        return frame.buffer;
+    }
+
+    /**
+     * Write every modified page back to the file
+     */
+    void flush() throws IOException {
+        for (Frame frame = lru.next; frame != lru; frame = frame.next) {
+            writeBack(frame);
+        }
+    }
+
+    String stats() {
+        return "pages=" + frames.size() + "/" + capacity + " hits=" + hits + " misses=" + misses
+                + " evictions=" + evictions + " page-writes=" + pageWrites;
+    }
+
+    private Frame frameForNewPage(int pageNumber) throws IOException {
+        if (frames.size() < capacity) {
+            return new Frame(pageNumber, ByteBuffer.allocateDirect(pageSize));
+        }
+        // evict the least recently used page and reuse its frame
+        Frame victim = lru.previous;
+        unlink(victim);
+        writeBack(victim);
+        frames.remove(victim.pageNumber);
+        evictions++;
+        victim.pageNumber = pageNumber;
+        return victim;
+    }
+
+    private void readPage(Frame frame) throws IOException {
+        ByteBuffer buffer = frame.buffer;
+        buffer.clear();
+        long position = (long) frame.pageNumber * pageSize;
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                break;
+            }
+        }
+        // a page after the end of the file is read as zeros
+        while (buffer.hasRemaining()) {
+            buffer.put((byte) 0);
+        }
+        buffer.clear();
+    }
+
+    private void writeBack(Frame frame) throws IOException {
+        if (!frame.dirty) {
+            return;
+        }
+        ByteBuffer buffer = frame.buffer.duplicate();
+        buffer.clear();
+        long position = (long) frame.pageNumber * pageSize;
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, position + buffer.position());
+        }
+        frame.dirty = false;
+        pageWrites++;
+    }
+
+    private void unlink(Frame frame) {
+        frame.previous.next = frame.next;
+        frame.next.previous = frame.previous;
+    }
+
+    private void linkFirst(Frame frame) {
+        frame.next = lru.next;
+        frame.previous = lru;
+        lru.next.previous = frame;
+        lru.next = frame;
+    }
+
+    /**
+     * A frame holds one page of the file
+     */
+    private static class Frame {
+        int pageNumber;
+        final ByteBuffer buffer;
+        boolean dirty;
+        Frame previous;
+        Frame next;
+
+        Frame(int pageNumber, ByteBuffer buffer) {
+            this.pageNumber = pageNumber;
+            this.buffer = buffer;
+        }
+    }
+}
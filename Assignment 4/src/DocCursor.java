@@ -0,0 +1,445 @@
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * A DocCursor walks a sorted set of document ordinals. Posting lists, clause results and the combination of them all
+ * expose this interface so a query can be evaluated without building the intermediate lists:
+ * for (int doc = cursor.nextDoc(); doc != NO_MORE_DOCS; doc = cursor.nextDoc()) { ... }
+ */
+abstract class DocCursor {
+    static final int NO_MORE_DOCS = Integer.MAX_VALUE;
+
+    /**
+     * @return the current ordinal, -1 before the first move, NO_MORE_DOCS at the end of the set
+     */
+    abstract int docId();
+
+    /**
+     * Move to the next ordinal of the set
+     * @return the next ordinal, NO_MORE_DOCS if there is none
+     */
+    abstract int nextDoc();
+
+    /**
+     * Move to the first ordinal which is greater than or equal to "target". Must only be called with a target
+     * greater than the current ordinal
+     * @return the ordinal found, NO_MORE_DOCS if there is none
+     */
+    abstract int advance(int target);
+
+    /**
+     * @return an upper bound of the number of ordinals of the set, used to process the smallest sets first
+     */
+    abstract long cost();
+
+    /**
+     * Read the remaining ordinals of the set into an array
+     */
+    int[] toArray() {
+        int[] result = new int[(int) Math.min(cost(), Integer.MAX_VALUE - 8)];
+        int n = 0;
+        for (int doc = nextDoc(); doc != NO_MORE_DOCS; doc = nextDoc()) {
+            if (n == result.length) {
+                result = Arrays.copyOf(result, Math.max(16, n * 2));
+            }
+            result[n++] = doc;
+        }
+        return n == result.length ? result : Arrays.copyOf(result, n);
+    }
+
+    static DocCursor empty() {
+        return new ArrayCursor(new int[0], 0);
+    }
+
+    static DocCursor of(int[] sortedOrdinals) {
+        return new ArrayCursor(sortedOrdinals, sortedOrdinals.length);
+    }
+
+    /**
+     * @return a cursor over ordinals in the given order, which is not the order of the ordinals: the cursor can only
+     * be walked by "nextDoc" and paged, it cannot be intersected or merged with other cursors
+     */
+    static DocCursor ranked(int[] ordinals) {
+        return new RankedCursor(ordinals);
+    }
+
+    /**
+     * @return a cursor over every ordinal from 0 to "count" - 1
+     */
+    static DocCursor all(int count) {
+        return new RangeCursor(count);
+    }
+
+    /**
+     * @return a cursor over the ordinals that exist in all of the given cursors
+     */
+    static DocCursor and(List<DocCursor> cursors) {
+        if (cursors.isEmpty()) {
+            return empty();
+        }
+        if (cursors.size() == 1) {
+            return cursors.get(0);
+        }
+        return new ConjunctionCursor(cursors.toArray(new DocCursor[0]));
+    }
+
+    /**
+     * @return a cursor over the ordinals that exist in at least one of the given cursors
+     */
+    static DocCursor or(List<DocCursor> cursors) {
+        if (cursors.isEmpty()) {
+            return empty();
+        }
+        if (cursors.size() == 1) {
+            return cursors.get(0);
+        }
+        return new DisjunctionCursor(cursors.toArray(new DocCursor[0]));
+    }
+
+    /**
+     * Find the first index in [from, to) whose value is greater than or equal to "target". The search first checks
+     * the next value, which is the common case when both sets have a similar size (a linear merge), then gallops
+     * with steps of 1, 2, 4, ... and finishes with a binary search, so skipping "d" values only costs O(log d)
+     */
+    static int gallop(int[] values, int from, int to, int target) {
+        if (from >= to || values[from] >= target) {
+            return from;
+        }
+        int low = from;
+        int step = 1;
+        int high = from + step;
+        while (high < to && values[high] < target) {
+            low = high;
+            step <<= 1;
+            high = from + step;
+        }
+        if (high > to) {
+            high = to;
+        }
+        // values[low] < target and (high == to or values[high] >= target)
+        low++;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (values[mid] < target) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @return a cursor over the ordinals of "cursor" after skipping the first "offset" of them, stopping after "limit"
+     * of them. The ordinals after the page are never read from "cursor"
+     */
+    static DocCursor page(DocCursor cursor, int offset, int limit) {
+        if (offset < 0 || limit < 0) {
+            throw new IllegalArgumentException("offset and limit must not be negative; got " + offset + " and "
+                    + limit);
+        }
+        if (offset == 0 && limit == Integer.MAX_VALUE) {
+            return cursor;
+        }
+        return new PageCursor(cursor, offset, limit);
+    }
+
+    /**
+     * A cursor over a page of the ordinals of another cursor
+     */
+    static final class PageCursor extends DocCursor {
+        private final DocCursor cursor;
+        private int toSkip;
+        private int remaining;
+        private int doc = -1;
+
+        PageCursor(DocCursor cursor, int offset, int limit) {
+            this.cursor = cursor;
+            this.toSkip = offset;
+            this.remaining = limit;
+        }
+
+        @Override
+        int docId() {
+            return doc;
+        }
+
+        @Override
+        int nextDoc() {
+            if (remaining == 0) {
+                return doc = NO_MORE_DOCS;
+            }
+            int next = cursor.nextDoc();
+            for (; toSkip > 0 && next != NO_MORE_DOCS; toSkip--) {
+                next = cursor.nextDoc();
+            }
+            remaining--;
+            return doc = next;
+        }
+
+        @Override
+        int advance(int target) {
+            // the ordinals before "target" still count in the page, so they are read one by one
+            int next = doc;
+            while (next < target) {
+                next = nextDoc();
+            }
+            return next;
+        }
+
+        @Override
+        long cost() {
+            return Math.min(cursor.cost(), remaining);
+        }
+    }
+
+    /**
+     * A cursor over a sorted array of ordinals
+     */
+    static final class ArrayCursor extends DocCursor {
+        private final int[] ordinals;
+        private final int length;
+        private int index = -1;
+        private int doc = -1;
+
+        ArrayCursor(int[] ordinals, int length) {
+            this.ordinals = ordinals;
+            this.length = length;
+        }
+
+        @Override
+        int docId() {
+            return doc;
+        }
+
+        @Override
+        int nextDoc() {
+            return doc = ++index < length ? ordinals[index] : NO_MORE_DOCS;
+        }
+
+        @Override
+        int advance(int target) {
+            index = gallop(ordinals, index + 1, length, target);
+            return doc = index < length ? ordinals[index] : NO_MORE_DOCS;
+        }
+
+        @Override
+        long cost() {
+            return length;
+        }
+    }
+
+    /**
+     * A cursor over ordinals ranked in another order than theirs, like the documents nearest to a point
+     */
+    static final class RankedCursor extends DocCursor {
+        private final int[] ordinals;
+        private int index = -1;
+        private int doc = -1;
+
+        RankedCursor(int[] ordinals) {
+            this.ordinals = ordinals;
+        }
+
+        @Override
+        int docId() {
+            return doc;
+        }
+
+        @Override
+        int nextDoc() {
+            return doc = ++index < ordinals.length ? ordinals[index] : NO_MORE_DOCS;
+        }
+
+        @Override
+        int advance(int target) {
+            throw new UnsupportedOperationException("ranked ordinals are not sorted, they cannot be advanced");
+        }
+
+        @Override
+        long cost() {
+            return ordinals.length;
+        }
+    }
+
+    /**
+     * A cursor over the ordinals from 0 to a count, which are not stored
+     */
+    static final class RangeCursor extends DocCursor {
+        private final int count;
+        private int doc = -1;
+
+        RangeCursor(int count) {
+            this.count = count;
+        }
+
+        @Override
+        int docId() {
+            return doc;
+        }
+
+        @Override
+        int nextDoc() {
+            return doc = doc + 1 < count ? doc + 1 : NO_MORE_DOCS;
+        }
+
+        @Override
+        int advance(int target) {
+            return doc = target < count ? target : NO_MORE_DOCS;
+        }
+
+        @Override
+        long cost() {
+            return count;
+        }
+    }
+
+    /**
+     * Intersects N cursors at once. The cursors are sorted by cost, the smallest one leads and every other cursor is
+     * only advanced to the ordinal proposed by the leader, so the work is close to proportional to the smallest set
+     * instead of the largest one
+     */
+    static final class ConjunctionCursor extends DocCursor {
+        private final DocCursor[] cursors;
+        private int doc = -1;
+
+        ConjunctionCursor(DocCursor[] cursors) {
+            this.cursors = cursors.clone();
+            Arrays.sort(this.cursors, new Comparator<DocCursor>() {
+                @Override
+                public int compare(DocCursor c1, DocCursor c2) {
+                    return Long.compare(c1.cost(), c2.cost());
+                }
+            });
+        }
+
+        @Override
+        int docId() {
+            return doc;
+        }
+
+        @Override
+        int nextDoc() {
+            return doc = align(cursors[0].nextDoc());
+        }
+
+        @Override
+        int advance(int target) {
+            return doc = align(cursors[0].advance(target));
+        }
+
+        /**
+         * Starting from the ordinal of the leader, advance the other cursors until all of them agree
+         */
+        private int align(int target) {
+            DocCursor lead = cursors[0];
+            while (target != NO_MORE_DOCS) {
+                int i = 1;
+                for (; i < cursors.length; i++) {
+                    DocCursor other = cursors[i];
+                    int found = other.docId() < target ? other.advance(target) : other.docId();
+                    if (found > target) {
+                        target = lead.advance(found);
+                        break;
+                    }
+                }
+                if (i == cursors.length) {
+                    return target;
+                }
+            }
+            return NO_MORE_DOCS;
+        }
+
+        @Override
+        long cost() {
+            return cursors[0].cost();
+        }
+    }
+
+    /**
+     * Unions N cursors at once using a min-heap ordered by the current ordinal of each cursor
+     */
+    static final class DisjunctionCursor extends DocCursor {
+        private final DocCursor[] heap;
+        private int heapSize;
+        private final long cost;
+        private int doc = -1;
+
+        DisjunctionCursor(DocCursor[] cursors) {
+            heap = new DocCursor[cursors.length];
+            long total = 0;
+            for (DocCursor cursor : cursors) {
+                total += cursor.cost();
+                if (cursor.nextDoc() != NO_MORE_DOCS) {
+                    heap[heapSize++] = cursor;
+                }
+            }
+            cost = total;
+            for (int i = heapSize / 2 - 1; i >= 0; i--) {
+                siftDown(i);
+            }
+        }
+
+        @Override
+        int docId() {
+            return doc;
+        }
+
+        @Override
+        int nextDoc() {
+            if (heapSize == 0) {
+                return doc = NO_MORE_DOCS;
+            }
+            // every cursor is positioned after the last returned ordinal, the top of the heap is the next one.
+            // Move every cursor positioned on it, so each ordinal is returned once
+            int current = heap[0].docId();
+            while (heapSize > 0 && heap[0].docId() == current) {
+                if (heap[0].nextDoc() == NO_MORE_DOCS) {
+                    heap[0] = heap[--heapSize];
+                }
+                siftDown(0);
+            }
+            return doc = current;
+        }
+
+        @Override
+        int advance(int target) {
+            while (heapSize > 0 && heap[0].docId() < target) {
+                if (heap[0].advance(target) == NO_MORE_DOCS) {
+                    heap[0] = heap[--heapSize];
+                }
+                siftDown(0);
+            }
+            return nextDoc();
+        }
+
+        @Override
+        long cost() {
+            return cost;
+        }
+
+        private void siftDown(int i) {
+            if (i >= heapSize) {
+                return;
+            }
+            DocCursor node = heap[i];
+            int key = node.docId();
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= heapSize) {
+                    break;
+                }
+                if (child + 1 < heapSize && heap[child + 1].docId() < heap[child].docId()) {
+                    child++;
+                }
+                if (heap[child].docId() >= key) {
+                    break;
+                }
+                heap[i] = heap[child];
+                i = child;
+            }
+            heap[i] = node;
+        }
+    }
+}
@@ -17,20 +17,20 @@ public class Document {
         List<String> tokens = new ArrayList<>();
         boolean escaping = false;
         char[] chars = line.toCharArray();
-        String token = "";
+        StringBuilder token = new StringBuilder();
         for (char c : chars) {
             if (c == '\"') {
                 escaping = !escaping;
             } else {
                 if (!escaping && c == ',') {
-                    tokens.add(token);
-                    token = "";
+                    tokens.add(token.toString());
+                    token.setLength(0);
                 } else {
-                    token += c;
+                    token.append(c);
                 }
             }
         }
-        tokens.add(token);
+        tokens.add(token.toString());
         return new Document(tokens.get(0), tokens.get(1), tokens.get(4), tokens.get(8), tokens.get(9), tokens.get(10));
     }
 
@@ -1,5 +1,15 @@
 import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 public class Driver {
 
@@ -24,33 +34,12 @@ public class Driver {
     }
 
     /**
-     * This method read data from the record file, put them under the format of Document objects, put documents in the
-     * list, sort it and return it
+     * This method reads the documents of the record file and passes each of them to "handler" as soon as it is read
+     * @return the number of documents read
      */
-    private static List<Document> readDocumentsFromRecordFile(String fileName) throws IOException {
-        List<Document> documents = new ArrayList<>();
-        try (FileInputStream in = new FileInputStream(fileName)) {
-            Scanner scanner = new Scanner(in);
-            scanner.nextLine(); // skip the header
-            while (scanner.hasNextLine()) {
-                String line = scanner.nextLine();
-                try {
-                    Document doc = Document.parseCVSLine(line);
-                    documents.add(doc);
-                } catch (Exception e) {
-                    throw new IllegalArgumentException(line + " is not a valid record", e);
-                }
-            }
-        }
-        // Sort the documents by id before building the tree so we can have the minimum-height BST,
-        // according to the instruction from professor Desai
-        Collections.sort(documents, new Comparator<Document>() {
-            @Override
-            public int compare(Document d1, Document d2) {
-                return d1.id.compareTo(d2.id);
-            }
-        });
-        return documents;
+    private static int readDocumentsFromRecordFile(String fileName, RecordFileReader.RecordHandler handler)
+            throws IOException {
+        return RecordFileReader.read(Paths.get(fileName), handler);
     }
 
     /**
@@ -62,65 +51,200 @@ public class Driver {
      */
     private static void runCommands(SearchIndex searchIndex, List<String> commands, PrintStream logStream) {
         for (String command : commands) {
-            try {
-                if (command.isEmpty()) {
-                    continue;
-                }
-                if (command.startsWith("PRINT ")) {
-                    logStream.println("==> " + command);
-                    String indexName = command.substring("PRINT ".length());
-                    searchIndex.printIndex(logStream, indexName);
-                } else if (command.startsWith("QUERY ")) {
-                    logStream.println("==> " + command);
-                    String query = command.substring("QUERY ".length());
-                    List<Document> result = searchIndex.searchQuery(new Query(query));
-                    if (result.isEmpty()) {
-                        logStream.println("No match\n");
-                    } else {
-                        logStream.println(result.size() + " matches");
-                        for (Document doc : result) {
-                            logStream.println("Geographic ID: " + doc.id);
-                            logStream.println("Geographic Name: " + doc.name);
-                            logStream.println("Geographic Region: " + doc.region);
-                            logStream.println("Geographic Type: " + doc.type);
-                            logStream.println("Geographic Latitude: " + doc.latitude);
-                            logStream.println("Geographic Longitude: " + doc.longitude);
-                            logStream.println();
+            runCommand(searchIndex, command, logStream);
+        }
+    }
+
+    /**
+     * This method runs the commands on "threads" threads at once against the frozen "searchIndex", each command
+     * logging its results into its own buffer, and copies the buffers to the "logStream" in the order of the commands,
+     * so the log is the same as with "runCommands". At most COMMANDS_AHEAD_PER_THREAD commands per thread are started
+     * ahead of the first command not logged yet, which bounds the buffers held in memory
+     */
+    private static void runCommands(final SearchIndex searchIndex, List<String> commands, PrintStream logStream,
+                                    int threads) throws InterruptedException, ExecutionException {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            Deque<Future<ByteArrayOutputStream>> running = new ArrayDeque<>();
+            int next = 0;
+            while (next < commands.size() || !running.isEmpty()) {
+                while (next < commands.size() && running.size() < threads * COMMANDS_AHEAD_PER_THREAD) {
+                    final String command = commands.get(next++);
+                    running.add(pool.submit(new Callable<ByteArrayOutputStream>() {
+                        @Override
+                        public ByteArrayOutputStream call() {
+                            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+                            PrintStream out = new PrintStream(buffer);
+                            runCommand(searchIndex, command, out);
+                            out.flush();
+                            return buffer;
                         }
-                    }
-                    logStream.println();
+                    }));
+                }
+                running.poll().get().writeTo(logStream);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * This method runs a single command and logs its results to the "logStream"
+     */
+    private static void runCommand(SearchIndex searchIndex, String command, PrintStream logStream) {
+        try {
+            if (command.isEmpty()) {
+                return;
+            }
+            if (command.startsWith("PRINT ")) {
+                logStream.println("==> " + command);
+                String indexName = command.substring("PRINT ".length());
+                searchIndex.printIndex(logStream, indexName);
+            } else if (command.startsWith("QUERY ")) {
+                logStream.println("==> " + command);
+                String query = command.substring("QUERY ".length());
+                List<Document> result = searchIndex.searchQuery(new Query(query));
+                if (result.isEmpty()) {
+                    logStream.println("No match\n");
                 } else {
-                    logStream.println("command must start with QUERY or PRINT; got " + command);
+                    logStream.println(result.size() + " matches");
+                    for (Document doc : result) {
+                        logStream.println("Geographic ID: " + doc.id);
+                        logStream.println("Geographic Name: " + doc.name);
+                        logStream.println("Geographic Region: " + doc.region);
+                        logStream.println("Geographic Type: " + doc.type);
+                        logStream.println("Geographic Latitude: " + doc.latitude);
+                        logStream.println("Geographic Longitude: " + doc.longitude);
+                        logStream.println();
+                    }
                 }
-            } catch (Exception e) {
-                logStream.println("Failed to execute command [" + command + "] reason [" + e.getMessage() + "]");
+                logStream.println();
+            } else if (command.startsWith("EXPLAIN QUERY ") || command.startsWith("PROFILE QUERY ")) {
+                logStream.println("==> " + command);
+                boolean profile = command.startsWith("PROFILE QUERY ");
+                String query = command.substring((profile ? "PROFILE QUERY " : "EXPLAIN QUERY ").length());
+                searchIndex.profileQuery(new Query(query), profile).print(logStream);
+                logStream.println();
+            } else {
+                logStream.println("command must start with QUERY, EXPLAIN QUERY, PROFILE QUERY or PRINT; got "
+                        + command);
             }
+        } catch (Exception e) {
+            logStream.println("Failed to execute command [" + command + "] reason [" + e.getMessage() + "]");
         }
     }
 
+    private static void printUsageAndExit() {
+        System.out.println("Program needs three files in format: Driver <record-file> <script-file> <log-file>"
+                + " [options]");
+        System.out.println("Options:");
+        System.out.println("  -pageStore <directory>  store the values of the B+ trees in page files of the directory");
+        System.out.println("  -bufferPages <n>        number of pages of each B+ tree held in memory (default "
+                + DEFAULT_BUFFER_PAGES + ")");
+        System.out.println("  -buildThreads <n>       number of threads building the indices (default: number of"
+                + " cores)");
+        System.out.println("  -queryCache <n>         number of document ordinals held by the query cache, 0 to"
+                + " disable it (default " + SearchIndex.DEFAULT_QUERY_CACHE_ORDINALS + ")");
+        System.out.println("  -queryThreads <n>       number of threads running the commands of the script"
+                + " (default 1)");
+        System.out.println("  -snapshot <file>        load the index from the snapshot file, or build it from the"
+                + " record file and write the snapshot when the file is missing or older than the record file");
+        System.out.println("  -substringIndex         build trigram indices of the names and regions for the CONTAINS"
+                + " queries (a snapshot keeps the indices it was written with)");
+        System.out.println("Program will be terminated!");
+        System.exit(0);
+    }
+
+    private static final int DEFAULT_BUFFER_PAGES = 256;
+    // number of commands per query thread which may run ahead of the first command whose results are not logged yet
+    private static final int COMMANDS_AHEAD_PER_THREAD = 16;
+
     public static void main(String[] args) throws Exception {
-        if (args.length != 3) {
-            System.out.println("Program needs three files in format: Driver <record-file> <script-file> <log-file>");
-            System.out.println("Program will be terminated!");
-            System.exit(0);
+        if (args.length < 3) {
+            printUsageAndExit();
         }
         String recordFile = args[0];
         String scriptFile = args[1];
         String logFile = args[2];
-        SearchIndex searchIndex = new SearchIndex();
+        Path pageStore = null;
+        int bufferPages = DEFAULT_BUFFER_PAGES;
+        int buildThreads = Runtime.getRuntime().availableProcessors();
+        long queryCacheOrdinals = SearchIndex.DEFAULT_QUERY_CACHE_ORDINALS;
+        Path snapshot = null;
+        int queryThreads = 1;
+        boolean substringIndex = false;
+        for (int i = 3; i < args.length; i++) {
+            if ("-pageStore".equals(args[i]) && i + 1 < args.length) {
+                pageStore = Paths.get(args[++i]);
+            } else if ("-bufferPages".equals(args[i]) && i + 1 < args.length) {
+                bufferPages = Integer.parseInt(args[++i]);
+            } else if ("-buildThreads".equals(args[i]) && i + 1 < args.length) {
+                buildThreads = Integer.parseInt(args[++i]);
+            } else if ("-queryCache".equals(args[i]) && i + 1 < args.length) {
+                queryCacheOrdinals = Long.parseLong(args[++i]);
+            } else if ("-queryThreads".equals(args[i]) && i + 1 < args.length) {
+                queryThreads = Integer.parseInt(args[++i]);
+            } else if ("-snapshot".equals(args[i]) && i + 1 < args.length) {
+                snapshot = Paths.get(args[++i]);
+            } else if ("-substringIndex".equals(args[i])) {
+                substringIndex = true;
+            } else {
+                printUsageAndExit();
+            }
+        }
+        final SearchIndex searchIndex;
+        if (pageStore == null) {
+            searchIndex = new SearchIndex();
+        } else {
+            Files.createDirectories(pageStore);
+            searchIndex = new SearchIndex(pageStore, bufferPages);
+        }
+        searchIndex.setQueryCacheSize(queryCacheOrdinals);
+        if (substringIndex) {
+            searchIndex.enableSubstringIndex();
+        }
 
-        //read documents from the record file
-        List<Document> documents = null;
+        //load the index from an up to date snapshot, or read documents from the record file and put them into the
+        //searchIndex, the coordinates are sorted once to bulk load the B+ trees
+        Path records = Paths.get(recordFile);
+        boolean loadSnapshot = snapshot != null && Files.exists(snapshot) && (!Files.exists(records)
+                || Files.getLastModifiedTime(snapshot).compareTo(Files.getLastModifiedTime(records)) >= 0);
         try {
-            documents = readDocumentsFromRecordFile(recordFile);
-        } catch (FileNotFoundException e) {
+            if (loadSnapshot) {
+                searchIndex.loadSnapshot(snapshot);
+            } else if (buildThreads > 1) {
+                final List<Document> documents = new ArrayList<>();
+                readDocumentsFromRecordFile(recordFile, new RecordFileReader.RecordHandler() {
+                    @Override
+                    public void record(Document doc) {
+                        documents.add(doc);
+                    }
+                });
+                ForkJoinPool pool = new ForkJoinPool(buildThreads);
+                try {
+                    searchIndex.addDocuments(documents, pool);
+                } finally {
+                    pool.shutdown();
+                }
+            } else {
+                readDocumentsFromRecordFile(recordFile, new RecordFileReader.RecordHandler() {
+                    @Override
+                    public void record(Document doc) {
+                        searchIndex.addDocument(doc);
+                    }
+                });
+            }
+        } catch (NoSuchFileException e) {
             System.out.println("Record file [" + recordFile + "] does not exist. Program will be terminated!");
             System.exit(0);
         }
-
-        //put all documents into the searchIndex
-        for (Document doc : documents) {
-            searchIndex.addDocument(doc);
+        if (!loadSnapshot) {
+            searchIndex.freeze();
+            if (snapshot != null) {
+                searchIndex.writeSnapshot(snapshot);
+            }
         }
 
         //read commands from the script file
@@ -134,7 +258,13 @@ public class Driver {
 
         //do the search on the searchIndex for each command
         try (PrintStream logStream = new PrintStream(new FileOutputStream(logFile))) {
-            runCommands(searchIndex, commands, logStream);
+            if (queryThreads > 1) {
+                runCommands(searchIndex, commands, logStream, queryThreads);
+            } else {
+                runCommands(searchIndex, commands, logStream);
+            }
+        } finally {
+            searchIndex.close();
         }
     }
 }
@@ -0,0 +1,128 @@
+import java.io.PrintStream;
+import java.util.List;
+
+/**
+ * A read-only binary search tree mapping keys to int values, stored in arrays in Eytzinger (breadth-first) order:
+ * the root is at index 1 and the children of the node at index i are at 2i and 2i+1. There are no node objects and
+ * no pointers to follow, the first levels of the tree share a few cache lines, and a lookup is a loop without early
+ * exit whose next index is computed from the comparison. The tree is built in O(n) from sorted keys.
+ */
+class EytzingerTree<K extends Comparable<K>> {
+    private final Object[] keys; // index 0 is not used
+    private final int[] values;
+    private final int size;
+
+    /**
+     * @param sortedKeys:   the keys, sorted and without duplicates
+     * @param sortedValues: the value of each key
+     */
+    EytzingerTree(List<K> sortedKeys, int[] sortedValues) {
+        size = sortedKeys.size();
+        if (sortedValues.length != size) {
+            throw new IllegalArgumentException("got " + size + " keys but " + sortedValues.length + " values");
+        }
+        for (int i = 1; i < size; i++) {
+            if (sortedKeys.get(i - 1).compareTo(sortedKeys.get(i)) >= 0) {
+                throw new IllegalArgumentException("keys must be sorted and unique; got " + sortedKeys.get(i)
+                        + " after " + sortedKeys.get(i - 1));
+            }
+        }
+        keys = new Object[size + 1];
+        values = new int[size + 1];
+        fill(1, 0, sortedKeys, sortedValues);
+    }
+
+    /**
+     * Place the sorted keys with an in-order traversal of the implicit tree
+     * @param next: the position of the next key to place in the sorted input
+     * @return the position of the next key to place after this subtree
+     */
+    private int fill(int node, int next, List<K> sortedKeys, int[] sortedValues) {
+        if (node > size) {
+            return next;
+        }
+        next = fill(2 * node, next, sortedKeys, sortedValues);
+        keys[node] = sortedKeys.get(next);
+        values[node] = sortedValues[next];
+        return fill(2 * node + 1, next + 1, sortedKeys, sortedValues);
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * get value associated with key "key"
+     *
+     * @param key: the given key
+     * @return the value associated with the key "key", -1 if the tree does not contain the key
+     */
+    int get(K key) {
+        int i = 1;
+        while (i <= size) {
+            i = 2 * i + (key(i).compareTo(key) < 0 ? 1 : 0);
+        }
+        // the path went right after the last node whose key is smaller than "key", and left once after it; cancel
+        // those moves to get the first node whose key is greater than or equal to "key"
+        i >>>= Integer.numberOfTrailingZeros(~i) + 1;
+        return i != 0 && key(i).compareTo(key) == 0 ? values[i] : -1;
+    }
+
+    /**
+     * Collect the keys and their values in the order of the keys
+     * @param keys:       the list receiving the keys
+     * @param nodeValues: the list receiving the values
+     */
+    void collectInOrder(List<K> keys, List<Integer> nodeValues) {
+        collectInOrder(1, keys, nodeValues);
+    }
+
+    private void collectInOrder(int node, List<K> keys, List<Integer> nodeValues) {
+        if (node > size) {
+            return;
+        }
+        collectInOrder(2 * node, keys, nodeValues);
+        keys.add(key(node));
+        nodeValues.add(values[node]);
+        collectInOrder(2 * node + 1, keys, nodeValues);
+    }
+
+    /**
+     * The key of a node, the array holds the keys given to the constructor
+     */
+    @SuppressWarnings("unchecked")
+    private K key(int node) {
+        return (K) keys[node];
+    }
+
+    /**
+     * Print the tree in the same format as the BalancedBST: the root, then the children of each node in pre-order
+     */
+    void printTree(PrintStream writer, BalancedBST.ValuePrinter<Integer> printer) {
+        if (size == 0) {
+            writer.println("Tree is empty");
+            return;
+        }
+        writer.println("root node: key=" + keys[1] + " value=" + printer.print(values[1]));
+        printNode(1, writer, printer);
+    }
+
+    private void printNode(int node, PrintStream writer, BalancedBST.ValuePrinter<Integer> printer) {
+        int left = 2 * node;
+        int right = left + 1;
+        if (left <= size) {
+            writer.println("left of node (" + keys[node] + "): key=" + keys[left] + " value="
+                    + printer.print(values[left]));
+        }
+        if (right <= size) {
+            writer.println("right of node (" + keys[node] + "): key=" + keys[right] + " value="
+                    + printer.print(values[right]));
+        }
+        if (left <= size) {
+            printNode(left, writer, printer);
+        }
+        if (right <= size) {
+            printNode(right, writer, printer);
+        }
+    }
+}
@@ -1,17 +1,31 @@
 import java.util.ArrayList;
-import java.util.LinkedList;
 import java.util.List;
 
 /**
- * A HashMap implementation using open-chaining to resolve collisions
+ * A HashMap implementation using open-addressing with linear probing to resolve collisions.
+ * Keys and values are kept in two parallel arrays so a lookup only touches a few neighbouring slots,
+ * and the table doubles its capacity when the load factor goes over MAX_LOAD_FACTOR.
  */
 public class HashMap<K, V> {
-    private final int size;
-    private final Object[] hashTable;
+    private static final int MIN_CAPACITY = 8;
+    private static final float MAX_LOAD_FACTOR = 0.6f;
 
-    HashMap(int size) {
-        this.size = Math.max(1, size);
-        this.hashTable = new Object[this.size];
+    private Object[] keys;
+    private Object[] values;
+    private int mask; // capacity - 1, the capacity is always a power of two
+    private int size;
+    private int resizeThreshold;
+
+    HashMap() {
+        this(MIN_CAPACITY);
+    }
+
+    /**
+     * @param expectedSize: the number of keys the map is expected to hold, the table is sized so that it does not
+     *                      need to resize before reaching that number
+     */
+    HashMap(int expectedSize) {
+        allocate(capacityFor(expectedSize));
     }
 
     /**
@@ -20,20 +34,20 @@ public class HashMap<K, V> {
      * @param value: the given value
      */
     public void put(K key, V value) {
-        int index = getIndex(key);
-        List<Entry<K, V>> list = (List<Entry<K, V>>) hashTable[index];
-        if (list == null) {
-            list = new LinkedList<>();
-            hashTable[index] = list;
-        } else {
-            for (Entry<K, V> e : list) {
-                if (e.key.equals(key)) {
-                    e.value = value;
-                    return;
-                }
+        int slot = slotOf(key);
+        while (keys[slot] != null) {
+            if (keys[slot].equals(key)) {
+                values[slot] = value;
+                return;
             }
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = key;
+        values[slot] = value;
+        size++;
+        if (size > resizeThreshold) {
+            resize(keys.length * 2);
         }
-        list.add(new Entry<>(key, value));
     }
 
     /**
@@ -42,57 +56,143 @@ public class HashMap<K, V> {
      * @return the value of the given key if any, return null otherwise
      */
     public V get(K key) {
-        int index = getIndex(key);
-        if (hashTable[index] != null) {
-            List<Entry<K, V>> list = (List<Entry<K, V>>) hashTable[index];
-            for (Entry<K, V> e : list) {
-                if (e.key.equals(key)) {
-                    return e.value;
-                }
-            }
-        }
-        return null;
+        int slot = findSlot(key);
+        return slot < 0 ? null : valueAt(slot);
     }
 
     /**
-     * get the index of the key in the hash table
+     * remove the given key from the map. The following slots of the same probe run are shifted back, so the table
+     * never holds tombstones
      * @param key: the given key
-     * @return the index of the key in the hash table
+     * @return the value that was associated with the key if any, return null otherwise
      */
-    public int getIndex(K key) {
-        int index = key.hashCode() % size;
-        if (index < 0) {
-            index = index + size;
+    public V remove(K key) {
+        int slot = findSlot(key);
+        if (slot < 0) {
+            return null;
         }
-        return index;
+        V old = valueAt(slot);
+        int hole = slot;
+        int next = (hole + 1) & mask;
+        while (keys[next] != null) {
+            int home = slotOf(keys[next]);
+            // the entry at "next" can fill the hole only if its home slot is not between the hole and itself
+            if (((next - home) & mask) >= ((next - hole) & mask)) {
+                keys[hole] = keys[next];
+                values[hole] = values[next];
+                hole = next;
+            }
+            next = (next + 1) & mask;
+        }
+        keys[hole] = null;
+        values[hole] = null;
+        size--;
+        return old;
     }
 
     /**
-     * the inner class Entry, containing a pair "key, value"
+     * @return the number of keys in the map
      */
-    static class Entry<K, V> {
-        final K key;
-        V value; // value can be updated
+    public int size() {
+        return size;
+    }
 
-        public Entry(K key, V value) {
-            this.key = key;
-            this.value = value;
+    /**
+     * Method "nextSlot", iterates the map without allocating an iterator:
+     * for (int slot = map.nextSlot(-1); slot >= 0; slot = map.nextSlot(slot)) { map.keyAt(slot) ... }
+     * The map must not be modified during the iteration.
+     * @param slot: the current slot, -1 to start the iteration
+     * @return the next slot holding a key, return -1 when there is no more key
+     */
+    int nextSlot(int slot) {
+        for (int i = slot + 1; i < keys.length; i++) {
+            if (keys[i] != null) {
+                return i;
+            }
         }
+        return -1;
+    }
+
+    /**
+     * The key and the value of a slot. The arrays only hold keys of type K and values of type V, put by "put", so
+     * these are the only casts of the map
+     */
+    @SuppressWarnings("unchecked")
+    K keyAt(int slot) {
+        return (K) keys[slot];
+    }
+
+    @SuppressWarnings("unchecked")
+    V valueAt(int slot) {
+        return (V) values[slot];
     }
 
     /**
      * Method "getKeys", return keys of the map
      */
     List<K> getKeys() {
-        List<K> keys = new ArrayList<>();
-        for (int i = 0; i < hashTable.length; i++) {
-            if (hashTable[i] != null) {
-                List<Entry<K, V>> list = (List<Entry<K, V>>) hashTable[i];
-                for (Entry<K, V> e : list) {
-                    keys.add(e.key);
+        List<K> result = new ArrayList<>(size);
+        for (int slot = nextSlot(-1); slot >= 0; slot = nextSlot(slot)) {
+            result.add(keyAt(slot));
+        }
+        return result;
+    }
+
+    /**
+     * get the slot holding the given key
+     * @param key: the given key
+     * @return the slot of the key in the hash table, return -1 if the key is not in the map
+     */
+    private int findSlot(K key) {
+        int slot = slotOf(key);
+        while (keys[slot] != null) {
+            if (keys[slot].equals(key)) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * get the home slot of the key in the hash table. The hash code is mixed so keys whose hash codes only differ
+     * in the high bits do not all land in the same run
+     * @param key: the given key
+     * @return the index of the key in the hash table
+     */
+    private int slotOf(Object key) {
+        int h = key.hashCode() * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    private void resize(int newCapacity) {
+        Object[] oldKeys = keys;
+        Object[] oldValues = values;
+        allocate(newCapacity);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != null) {
+                int slot = slotOf(oldKeys[i]);
+                while (keys[slot] != null) {
+                    slot = (slot + 1) & mask;
                 }
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
             }
         }
-        return keys;
+    }
+
+    private void allocate(int capacity) {
+        keys = new Object[capacity];
+        values = new Object[capacity];
+        mask = capacity - 1;
+        resizeThreshold = (int) (capacity * MAX_LOAD_FACTOR);
+    }
+
+    private static int capacityFor(int expectedSize) {
+        int capacity = MIN_CAPACITY;
+        while (capacity * MAX_LOAD_FACTOR < expectedSize && capacity < (1 << 30)) {
+            capacity <<= 1;
+        }
+        return capacity;
     }
 }
@@ -1,44 +1,428 @@
+import java.io.DataOutput;
+import java.io.IOException;
 import java.io.PrintStream;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 
 /**
- * InvertedIndex is a HashMap from term to a list of document ids whose documents contain that term
+ * InvertedIndex maps a term to the posting list of the ordinals of the documents containing that term. Terms are the
+ * ids given by a TermDictionary shared by the indices, so the posting lists are kept in an array indexed by term id.
+ * The index is built with "addTerm", then "freeze" packs every posting list and sorts the terms once. After that a
+ * lookup does not allocate anything but the cursor, and the terms starting with a prefix are found by a binary search
+ * over the sorted terms. Before "freeze", every term is an added term, see below, so a lookup sorts them once and
+ * the next lookups reuse them until a new term is added. The terms close to a misspelt word are found by running a
+ * LevenshteinAutomaton over the sorted terms, whose common prefixes are only read once.
+ * A frozen index still accepts "addTerm": the ordinals are appended to the posting lists, and a term new to the index
+ * is kept aside among the added terms, which are sorted on the first lookup after they change, and merged into the
+ * sorted terms by "compact" (or by "freeze", for an index which is not frozen yet). A lookup searches both, so adding
+ * a term costs nothing but the posting list. The ordinals of deleted documents are only removed by "compact", which
+ * builds a new index.
  */
 public class InvertedIndex {
-    private final HashMap<String, List<String>> map = new HashMap<>(100003);
+    // number of terms up to which the posting lists of the terms of a prefix or of a fuzzy word are merged by a cursor,
+    // above it they are gathered in a bitset, as a cursor merging many lists spends most of its time in its heap
+    private static final int MAX_MERGED_TERMS = 16;
 
-    public void addTerm(String id, String term) {
-        List<String> docIds = map.get(term);
-        if (docIds == null) {
-            docIds = new ArrayList<>();
-            map.put(term, docIds);
+    private final TermDictionary dictionary;
+    private PostingList[] postings = new PostingList[16]; // posting list of each term id, null if the term is not here
+    private int[] sortedTerms = new int[0]; // set by freeze
+    private boolean frozen;
+    // the terms new to the index since it is frozen, or since it is created, in the order they are added, then sorted
+    // by the first lookup after them. The sorted ones are replaced as a whole, so a search reading them under the read
+    // lock of the SearchIndex only races with other searches computing the same array
+    private int[] addedTerms = new int[16];
+    private int addedCount;
+    private volatile int[] sortedAddedTerms = new int[0];
+
+    InvertedIndex(TermDictionary dictionary) {
+        this.dictionary = dictionary;
+    }
+
+    /**
+     * Add a term of the document with the given ordinal. Documents must be added in increasing order of ordinals
+     * @param term: the id of the term in the dictionary
+     */
+    public void addTerm(int ordinal, int term) {
+        if (term >= postings.length) {
+            postings = Arrays.copyOf(postings, Math.max(term + 1, 2 * postings.length));
+        }
+        if (postings[term] == null) {
+            postings[term] = new PostingList();
+            if (addedCount == addedTerms.length) {
+                addedTerms = Arrays.copyOf(addedTerms, 2 * addedCount);
+            }
+            addedTerms[addedCount++] = term;
+        }
+        postings[term].add(ordinal);
+    }
+
+    /**
+     * Returns the terms added since the index is frozen, or all its terms if it is not, sorted. Only the terms added
+     * since the last call are sorted, then merged with the ones sorted before
+     */
+    private int[] sortedAddedTerms() {
+        int[] sorted = sortedAddedTerms;
+        if (sorted.length == addedCount) {
+            return sorted;
+        }
+        sorted = merge(sorted, sortByTerm(Arrays.copyOfRange(addedTerms, sorted.length, addedCount)));
+        sortedAddedTerms = sorted;
+        return sorted;
+    }
+
+    /**
+     * Returns the sorted terms and the added terms merged, in the order of the terms
+     */
+    private int[] allSortedTerms() {
+        return merge(sortedTerms, sortedAddedTerms());
+    }
+
+    /**
+     * Merges two arrays of term ids sorted by term
+     */
+    private int[] merge(int[] first, int[] second) {
+        if (second.length == 0) {
+            return first;
+        }
+        if (first.length == 0) {
+            return second;
+        }
+        int[] merged = new int[first.length + second.length];
+        int i = 0;
+        int j = 0;
+        for (int k = 0; k < merged.length; k++) {
+            if (j == second.length
+                    || i < first.length && dictionary.term(first[i]).compareTo(dictionary.term(second[j])) <= 0) {
+                merged[k] = first[i++];
+            } else {
+                merged[k] = second[j++];
+            }
+        }
+        return merged;
+    }
+
+    /**
+     * Switch the index to its read-only form: pack the posting lists and sort the terms
+     */
+    public void freeze() {
+        if (frozen) {
+            return;
+        }
+        for (PostingList list : postings) {
+            if (list != null) {
+                list.freeze();
+            }
+        }
+        sortedTerms = allSortedTerms();
+        addedTerms = new int[16];
+        addedCount = 0;
+        sortedAddedTerms = new int[0];
+        frozen = true;
+    }
+
+    public boolean isFrozen() {
+        return frozen;
+    }
+
+    /**
+     * Returns a new frozen index holding the posting lists of this frozen index without the deleted ordinals. The
+     * terms left without any document are dropped. This index is not changed, so it can be searched meanwhile
+     * @param deleted: the deleted ordinals
+     */
+    InvertedIndex compact(BitSet deleted) {
+        if (!frozen) {
+            throw new IllegalStateException("only a frozen index can be compacted");
+        }
+        InvertedIndex compacted = new InvertedIndex(dictionary);
+        compacted.postings = new PostingList[postings.length];
+        int[] allTerms = allSortedTerms();
+        int[] terms = new int[allTerms.length];
+        int count = 0;
+        for (int term : allTerms) {
+            PostingList list = postings[term].copy(deleted);
+            if (list != null) {
+                compacted.postings[term] = list;
+                terms[count++] = term;
+            }
+        }
+        compacted.sortedTerms = Arrays.copyOf(terms, count);
+        compacted.frozen = true;
+        return compacted;
+    }
+
+    /**
+     * Write the frozen index to a snapshot: its posting lists by term id, in the order of the terms, the added terms
+     * merged with the sorted ones
+     */
+    void write(DataOutput out) throws IOException {
+        if (!frozen) {
+            throw new IllegalStateException("only a frozen index can be written");
+        }
+        int[] terms = allSortedTerms();
+        out.writeInt(terms.length);
+        for (int term : terms) {
+            out.writeInt(term);
+            postings[term].write(out);
+        }
+    }
+
+    /**
+     * Read the posting lists written by "write" from the current position of a snapshot into this empty index,
+     * which is then frozen
+     */
+    void read(ByteBuffer in) {
+        if (frozen) {
+            throw new IllegalStateException("cannot read a snapshot into a frozen index");
+        }
+        int count = in.getInt();
+        int[] terms = new int[count];
+        for (int i = 0; i < count; i++) {
+            int term = in.getInt();
+            terms[i] = term;
+            if (term >= postings.length) {
+                postings = Arrays.copyOf(postings, Math.max(term + 1, 2 * postings.length));
+            }
+            postings[term] = PostingList.read(in);
         }
-        docIds.add(id);
+        sortedTerms = terms;
+        frozen = true;
     }
 
-    public List<String> queryTerm(String term) {
-        List<String> docIds = map.get(term);
-        if (docIds == null) {
-            return new ArrayList<>();
+    /**
+     * Returns the posting list of the given term, an empty list if the index does not contain the term
+     * @param term: the id of the term, TermDictionary.NOT_FOUND for a term which is not in the dictionary
+     */
+    public PostingList postings(int term) {
+        PostingList list = term >= 0 && term < postings.length ? postings[term] : null;
+        return list == null ? PostingList.EMPTY : list;
+    }
+
+    /**
+     * Returns a cursor over the sorted ordinals of the documents containing the given term
+     */
+    public PostingList.Cursor queryTerm(int term) {
+        return postings(term).cursor();
+    }
+
+    /**
+     * Returns a cursor over the sorted ordinals of the documents containing a term which starts with the given prefix.
+     * The terms starting with the prefix are next to each other in the sorted terms: the first one is found by a
+     * binary search, so the cost depends on the number of matching terms and not on the number of terms of the index
+     * @param prefix: an analyzed text, an empty prefix matches no document
+     */
+    public DocCursor queryPrefix(String prefix) {
+        if (prefix.isEmpty()) {
+            return DocCursor.empty();
+        }
+        int[] terms = sortedTerms;
+        int from = lowerBound(terms, prefix);
+        int to = prefixEnd(terms, from, prefix);
+        int[] added = sortedAddedTerms();
+        int addedFrom = lowerBound(added, prefix);
+        int addedTo = prefixEnd(added, addedFrom, prefix);
+        if (addedFrom == addedTo) {
+            return union(terms, from, to);
+        }
+        int[] matching = new int[to - from + addedTo - addedFrom];
+        System.arraycopy(terms, from, matching, 0, to - from);
+        System.arraycopy(added, addedFrom, matching, to - from, addedTo - addedFrom);
+        return union(matching, 0, matching.length);
+    }
+
+    /**
+     * Returns a cursor over the sorted ordinals of the documents containing a term accepted by the automaton
+     */
+    public DocCursor queryFuzzy(LevenshteinAutomaton automaton) {
+        int[] terms = fuzzyTerms(automaton);
+        return union(terms, 0, terms.length);
+    }
+
+    /**
+     * Returns the ids of the terms of the index accepted by the automaton: the sorted terms first, then the added
+     * terms, each in the order of the terms
+     */
+    int[] fuzzyTerms(LevenshteinAutomaton automaton) {
+        int[] matches = fuzzyTerms(automaton, sortedTerms);
+        int[] addedMatches = fuzzyTerms(automaton, sortedAddedTerms());
+        if (addedMatches.length == 0) {
+            return matches;
+        }
+        int[] all = Arrays.copyOf(matches, matches.length + addedMatches.length);
+        System.arraycopy(addedMatches, 0, all, matches.length, addedMatches.length);
+        return all;
+    }
+
+    /**
+     * Returns the ids of the sorted terms accepted by the automaton, in the order of the terms. The automaton is run
+     * over the sorted terms: the states reached by the prefix a term shares with the previous one are kept, and once
+     * a prefix leads to a state which cannot match, the terms starting with it are skipped by a binary search, so
+     * most of the terms are never read
+     */
+    private int[] fuzzyTerms(LevenshteinAutomaton automaton, int[] terms) {
+        int[] matches = new int[8];
+        int count = 0;
+        int[][] states = new int[16][];
+        states[0] = automaton.start();
+        String previous = "";
+        int reached = 0; // number of chars of the previous term whose states are in "states"
+        int i = 0;
+        while (i < terms.length) {
+            String term = dictionary.term(terms[i]);
+            int depth = Math.min(reached, commonPrefixLength(previous, term));
+            boolean dead = false;
+            while (depth < term.length() && !dead) {
+                if (depth + 1 == states.length) {
+                    states = Arrays.copyOf(states, 2 * states.length);
+                }
+                if (states[depth + 1] == null) {
+                    states[depth + 1] = new int[states[0].length];
+                }
+                automaton.step(states[depth], term.charAt(depth), states[depth + 1]);
+                depth++;
+                dead = !automaton.canMatch(states[depth]);
+            }
+            previous = term;
+            reached = depth;
+            if (dead) {
+                i = prefixEnd(terms, i, term.substring(0, depth));
+                continue;
+            }
+            if (automaton.isMatch(states[depth])) {
+                if (count == matches.length) {
+                    matches = Arrays.copyOf(matches, 2 * count);
+                }
+                matches[count++] = terms[i];
+            }
+            i++;
+        }
+        return Arrays.copyOf(matches, count);
+    }
+
+    private static int commonPrefixLength(String a, String b) {
+        int length = Math.min(a.length(), b.length());
+        int i = 0;
+        while (i < length && a.charAt(i) == b.charAt(i)) {
+            i++;
         }
-        // If a field has duplicate terms, then documentId appears more than once
-        // Using the map to deduplicate it
-        HashMap<String, Boolean> map = new HashMap<>(docIds.size());
-        for (String docId : docIds) {
-            map.put(docId, Boolean.TRUE);
+        return i;
+    }
+
+    /**
+     * Returns a cursor over the sorted ordinals of the documents containing one of "terms[from, to)"
+     */
+    private DocCursor union(int[] terms, int from, int to) {
+        if (to - from <= MAX_MERGED_TERMS) {
+            List<DocCursor> cursors = new ArrayList<>(to - from);
+            for (int i = from; i < to; i++) {
+                cursors.add(queryTerm(terms[i]));
+            }
+            return DocCursor.or(cursors);
+        }
+        BitSet ordinals = new BitSet();
+        for (int i = from; i < to; i++) {
+            PostingList.Cursor cursor = queryTerm(terms[i]);
+            for (int doc = cursor.nextDoc(); doc != DocCursor.NO_MORE_DOCS; doc = cursor.nextDoc()) {
+                ordinals.set(doc);
+            }
+        }
+        return DocCursor.of(ordinals.stream().toArray());
+    }
+
+    /**
+     * Returns the number of terms of the index which start with the given prefix
+     */
+    public int countPrefixTerms(String prefix) {
+        if (prefix.isEmpty()) {
+            return 0;
+        }
+        int[] terms = sortedTerms;
+        int[] added = sortedAddedTerms();
+        int from = lowerBound(terms, prefix);
+        int addedFrom = lowerBound(added, prefix);
+        return prefixEnd(terms, from, prefix) - from + prefixEnd(added, addedFrom, prefix) - addedFrom;
+    }
+
+    /**
+     * Returns the first index of the sorted terms whose term is greater than or equal to "text"
+     */
+    private int lowerBound(int[] terms, String text) {
+        int low = 0;
+        int high = terms.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (dictionary.term(terms[mid]).compareTo(text) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Returns the index following the last sorted term starting with the prefix, from a term starting with it or from
+     * the index where such a term would be. The terms starting with the prefix follow each other, so the end is found
+     * by a binary search
+     */
+    private int prefixEnd(int[] terms, int from, String prefix) {
+        int low = from;
+        int high = terms.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (dictionary.term(terms[mid]).startsWith(prefix)) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
         }
-        return map.getKeys();
+        return low;
     }
 
-    public void printIndex(PrintStream out) {
-        List<String> terms = map.getKeys();
-        Collections.sort(terms);
-        out.println("total terms: " + terms.size());
+    /**
+     * Prints each term with the ids of its documents, "documents" maps a document ordinal to its document
+     */
+    public void printIndex(PrintStream out, List<Document> documents) {
+        int[] terms = allSortedTerms();
+        out.println("total terms: " + terms.length);
         out.println("list of terms are printed in the format: term -> list of document ids containing that term");
-        for (String key : terms) {
-            out.println(key + " -> " + queryTerm(key));
+        StringBuilder line = new StringBuilder();
+        for (int term : terms) {
+            line.setLength(0);
+            line.append(dictionary.term(term)).append(" -> [");
+            PostingList.Cursor cursor = queryTerm(term);
+            for (int doc = cursor.nextDoc(); doc != DocCursor.NO_MORE_DOCS; doc = cursor.nextDoc()) {
+                if (line.charAt(line.length() - 1) != '[') {
+                    line.append(", ");
+                }
+                line.append(documents.get(doc).id);
+            }
+            out.println(line.append(']'));
+        }
+    }
+
+    /**
+     * Returns the given term ids sorted by term
+     */
+    private int[] sortByTerm(int[] ids) {
+        List<Integer> terms = new ArrayList<>(ids.length);
+        for (int term : ids) {
+            terms.add(term);
+        }
+        Collections.sort(terms, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer t1, Integer t2) {
+                return dictionary.term(t1).compareTo(dictionary.term(t2));
+            }
+        });
+        int[] sorted = new int[terms.size()];
+        for (int i = 0; i < sorted.length; i++) {
+            sorted[i] = terms.get(i);
         }
+        return sorted;
     }
 }
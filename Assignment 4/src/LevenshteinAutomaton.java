@@ -0,0 +1,81 @@
+/**
+ * A LevenshteinAutomaton accepts the words within "maxDistance" edits (insertion, deletion or substitution of a char)
+ * of a given word. It is run char by char: its state after a prefix is the row of the edit distance table of the word
+ * against that prefix, the distances above maxDistance being kept as maxDistance + 1, so there is a finite number of
+ * states. A state from which no word can be accepted any more has every distance above maxDistance, so a walk over
+ * sorted terms stops at the first char of a term that cannot lead to a match, and skips every term sharing that
+ * prefix. The states are not determinized in advance: building the DFA of the word would cost more than the few
+ * states a lookup visits.
+ */
+class LevenshteinAutomaton {
+    static final int MAX_DISTANCE = 2;
+
+    private final char[] word;
+    private final int maxDistance;
+
+    /**
+     * @param word:        an analyzed term
+     * @param maxDistance: the number of edits allowed, from 0 to MAX_DISTANCE
+     */
+    LevenshteinAutomaton(String word, int maxDistance) {
+        if (maxDistance < 0 || maxDistance > MAX_DISTANCE) {
+            throw new IllegalArgumentException("the edit distance must be between 0 and " + MAX_DISTANCE + ": "
+                    + maxDistance);
+        }
+        this.word = word.toCharArray();
+        this.maxDistance = maxDistance;
+    }
+
+    String word() {
+        return new String(word);
+    }
+
+    int maxDistance() {
+        return maxDistance;
+    }
+
+    /**
+     * Returns a new array holding the state of the empty prefix
+     */
+    int[] start() {
+        int[] state = new int[word.length + 1];
+        for (int i = 0; i < state.length; i++) {
+            state[i] = Math.min(i, maxDistance + 1);
+        }
+        return state;
+    }
+
+    /**
+     * Writes into "next" the state reached from "state" by reading the char c
+     * @param next: an array of the length of the states, different from "state"
+     */
+    void step(int[] state, char c, int[] next) {
+        int limit = maxDistance + 1;
+        next[0] = Math.min(state[0] + 1, limit);
+        for (int i = 1; i < next.length; i++) {
+            int distance = state[i - 1] + (word[i - 1] == c ? 0 : 1);
+            distance = Math.min(distance, state[i] + 1);
+            distance = Math.min(distance, next[i - 1] + 1);
+            next[i] = Math.min(distance, limit);
+        }
+    }
+
+    /**
+     * Returns true if the prefix which led to the state is within maxDistance edits of the word
+     */
+    boolean isMatch(int[] state) {
+        return state[state.length - 1] <= maxDistance;
+    }
+
+    /**
+     * Returns true if a word starting with the prefix which led to the state can still be accepted
+     */
+    boolean canMatch(int[] state) {
+        for (int distance : state) {
+            if (distance <= maxDistance) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,135 @@
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * MappedDocuments is the list of the documents of a snapshot, read from the mapped file instead of being held in
+ * memory. The section written by "write" holds the 6 fields of each document, each one as its length and its UTF-8
+ * bytes (a removed document is a length of -1), followed by the position of each document in the section, so a
+ * document is decoded only when it is asked for, by ordinal, with absolute reads that let several threads share the
+ * list. The documents added after the snapshot is loaded are held in memory after the mapped ones. A mapped document
+ * can only be replaced by null, which removes it from the list without changing the file.
+ */
+class MappedDocuments extends AbstractList<Document> implements RandomAccess {
+    private final ByteBuffer section;
+    private final int size;
+    private final int positionsStart;
+    private final BitSet removed = new BitSet(); // the mapped documents replaced by null
+    private final List<Document> added = new ArrayList<>();
+
+    /**
+     * Maps the section of the documents starting at the current position of a snapshot, and moves the position past
+     * it
+     */
+    MappedDocuments(ByteBuffer in) {
+        size = in.getInt();
+        int dataLength = in.getInt();
+        section = in.slice(in.position(), dataLength + 4 * size);
+        positionsStart = dataLength;
+        in.position(in.position() + dataLength + 4 * size);
+    }
+
+    /**
+     * Writes the section of the given documents
+     */
+    static void write(DataOutput out, List<Document> documents) throws IOException {
+        int[] positions = new int[documents.size()];
+        byte[][] fields = new byte[6][];
+        int dataLength = 0;
+        for (Document doc : documents) {
+            dataLength += doc == null ? 4 : encode(doc, fields);
+        }
+        out.writeInt(documents.size());
+        out.writeInt(dataLength);
+        int position = 0;
+        for (int ordinal = 0; ordinal < positions.length; ordinal++) {
+            positions[ordinal] = position;
+            Document doc = documents.get(ordinal);
+            if (doc == null) {
+                out.writeInt(-1);
+                position += 4;
+                continue;
+            }
+            position += encode(doc, fields);
+            for (byte[] field : fields) {
+                out.writeInt(field.length);
+                out.write(field);
+            }
+        }
+        for (int p : positions) {
+            out.writeInt(p);
+        }
+    }
+
+    /**
+     * Encodes the fields of a document, returns the length of their section
+     */
+    private static int encode(Document doc, byte[][] fields) {
+        fields[0] = doc.id.getBytes(StandardCharsets.UTF_8);
+        fields[1] = doc.name.getBytes(StandardCharsets.UTF_8);
+        fields[2] = doc.type.getBytes(StandardCharsets.UTF_8);
+        fields[3] = doc.latitude.getBytes(StandardCharsets.UTF_8);
+        fields[4] = doc.longitude.getBytes(StandardCharsets.UTF_8);
+        fields[5] = doc.region.getBytes(StandardCharsets.UTF_8);
+        int length = 0;
+        for (byte[] field : fields) {
+            length += 4 + field.length;
+        }
+        return length;
+    }
+
+    @Override
+    public Document get(int ordinal) {
+        if (ordinal < 0 || ordinal >= size()) {
+            throw new IndexOutOfBoundsException("ordinal " + ordinal + " out of " + size() + " documents");
+        }
+        if (ordinal >= size) {
+            return added.get(ordinal - size);
+        }
+        if (removed.get(ordinal)) {
+            return null;
+        }
+        int position = section.getInt(positionsStart + 4 * ordinal);
+        if (section.getInt(position) < 0) {
+            return null;
+        }
+        String[] fields = new String[6];
+        for (int f = 0; f < fields.length; f++) {
+            int length = section.getInt(position);
+            byte[] bytes = new byte[length];
+            section.get(position + 4, bytes);
+            fields[f] = new String(bytes, StandardCharsets.UTF_8);
+            position += 4 + length;
+        }
+        return new Document(fields[0], fields[1], fields[2], fields[3], fields[4], fields[5]);
+    }
+
+    @Override
+    public int size() {
+        return size + added.size();
+    }
+
+    @Override
+    public boolean add(Document doc) {
+        return added.add(doc);
+    }
+
+    @Override
+    public Document set(int ordinal, Document doc) {
+        if (ordinal >= size) {
+            return added.set(ordinal - size, doc);
+        }
+        if (doc != null) {
+            throw new UnsupportedOperationException("a mapped document can only be replaced by null");
+        }
+        Document old = get(ordinal);
+        removed.set(ordinal);
+        return old;
+    }
+}
@@ -0,0 +1,206 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A Disk storing the values of a B+ tree in a file of fixed-size pages, instead of the heap. Each value is serialized
+ * by a RecordCodec into a fixed-size record, and a record never spans two pages, so the file position of a value
+ * gives its page and its offset in that page. Pages are accessed through a BufferPool which holds at most
+ * "poolPages" pages in memory. Page 0 is a header holding the number of records, so the file can be reopened after
+ * a restart with all its values. This is a values-only page store: the nodes of the tree, with the file positions of
+ * the values, stay in the heap and are not written to the file, so a tree cannot be reopened from it.
+ */
+public class PagedDisk<V> extends BPlusTree.Disk<V> implements Closeable {
+    static final int DEFAULT_PAGE_SIZE = 4096;
+    private static final int MAGIC = 0x50474453;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 20;
+
+    /**
+     * Serializes the values of a PagedDisk into records of a fixed size
+     */
+    interface RecordCodec<V> {
+        int recordSize();
+
+        void write(ByteBuffer page, int offset, V value);
+
+        V read(ByteBuffer page, int offset);
+    }
+
+    static final RecordCodec<Integer> INT_CODEC = new RecordCodec<Integer>() {
+        @Override
+        public int recordSize() {
+            return 4;
+        }
+
+        @Override
+        public void write(ByteBuffer page, int offset, Integer value) {
+            page.putInt(offset, value);
+        }
+
+        @Override
+        public Integer read(ByteBuffer page, int offset) {
+            return page.getInt(offset);
+        }
+    };
+
+    private final Path file;
+    private final FileChannel channel;
+    private final BufferPool pool;
+    private final RecordCodec<V> codec;
+    private final int pageSize;
+    private final int recordsPerPage;
+    private int recordCount;
+
+    private PagedDisk(Path file, FileChannel channel, RecordCodec<V> codec, int pageSize, int poolPages) {
+        this.file = file;
+        this.channel = channel;
+        this.codec = codec;
+        this.pageSize = pageSize;
+        this.recordsPerPage = pageSize / codec.recordSize();
+        this.pool = new BufferPool(channel, pageSize, poolPages);
+    }
+
+    /**
+     * Opens the page file, creating it if needed
+     * @param file:      the page file
+     * @param codec:     serializes the values
+     * @param pageSize:  the size of a page in bytes, must match the size used to create an existing file
+     * @param poolPages: the number of pages the buffer pool holds in memory
+     * @param truncate:  true to drop the values of an existing file
+     */
+    static <V> PagedDisk<V> open(Path file, RecordCodec<V> codec, int pageSize, int poolPages, boolean truncate)
+            throws IOException {
+        if (pageSize < HEADER_SIZE || pageSize < codec.recordSize()) {
+            throw new IllegalArgumentException("page size " + pageSize + " is too small");
+        }
+        FileChannel channel = truncate
+                ? FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)
+                : FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        PagedDisk<V> disk = new PagedDisk<>(file, channel, codec, pageSize, poolPages);
+        try {
+            if (channel.size() > 0) {
+                disk.readHeader(file);
+            } else {
+                disk.writeHeader();
+            }
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+        return disk;
+    }
+
+    @Override
+    synchronized int writeToDisk(V e) {
+        final int pos = recordCount;
+        try {
+            ByteBuffer page = pool.page(pageOf(pos), true);
+            codec.write(page, offsetOf(pos), e);
+        } catch (IOException ex) {
+            throw new UncheckedIOException("failed to write record " + pos, ex);
+        }
+        recordCount++;
+        return pos;
+    }
+
+    @Override
+    synchronized V readFromDisk(int filePosition) {
+        if (filePosition < 0 || filePosition >= recordCount) {
+            throw new IndexOutOfBoundsException("no record at file position " + filePosition);
+        }
+        try {
+            ByteBuffer page = pool.page(pageOf(filePosition), false);
+            return codec.read(page, offsetOf(filePosition));
+        } catch (IOException ex) {
+            throw new UncheckedIOException("failed to read record " + filePosition, ex);
+        }
+    }
+
+    @Override
+    synchronized String stats() {
+        return "paged disk: " + recordCount + " values, page size " + pageSize + ", " + pool.stats();
+    }
+
+    synchronized int size() {
+        return recordCount;
+    }
+
+    /**
+     * Write the modified pages and the header to the file
+     */
+    synchronized void flush() throws IOException {
+        pool.flush();
+        writeHeader();
+        channel.force(false);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (channel.isOpen()) {
+            try {
+                flush();
+            } finally {
+                channel.close();
+            }
+        }
+    }
+
+    /**
+     * Closes the page file without writing its modified pages, then deletes it
+     */
+    synchronized void delete() throws IOException {
+        channel.close();
+        Files.deleteIfExists(file);
+    }
+
+    Path getFile() {
+        return file;
+    }
+
+    // records start at page 1, page 0 is the header
+    private int pageOf(int pos) {
+        return 1 + pos / recordsPerPage;
+    }
+
+    private int offsetOf(int pos) {
+        return (pos % recordsPerPage) * codec.recordSize();
+    }
+
+    private void writeHeader() throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putInt(VERSION).putInt(pageSize).putInt(codec.recordSize()).putInt(recordCount);
+        header.flip();
+        while (header.hasRemaining()) {
+            channel.write(header, header.position());
+        }
+    }
+
+    private void readHeader(Path file) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        while (header.hasRemaining() && channel.read(header, header.position()) >= 0) {
+            // keep reading until the header is complete
+        }
+        header.flip();
+        if (header.remaining() < HEADER_SIZE || header.getInt() != MAGIC) {
+            throw new IOException(file + " is not a page file");
+        }
+        int version = header.getInt();
+        if (version != VERSION) {
+            throw new IOException(file + " has version " + version + "; expected " + VERSION);
+        }
+        int filePageSize = header.getInt();
+        int fileRecordSize = header.getInt();
+        if (filePageSize != pageSize || fileRecordSize != codec.recordSize()) {
+            throw new IOException(file + " has page size " + filePageSize + " and record size " + fileRecordSize
+                    + "; expected " + pageSize + " and " + codec.recordSize());
+        }
+        recordCount = header.getInt();
+    }
+}
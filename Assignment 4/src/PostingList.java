@@ -0,0 +1,255 @@
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * A PostingList is the sorted list of ordinals of the documents containing a term.
+ * Ordinals must be added in increasing order (documents get their ordinal in the order they are added to the
+ * SearchIndex), a repeated ordinal is dropped so a field with duplicate terms is only listed once.
+ * Every BLOCK_SIZE ordinals are packed into a block: each ordinal is stored as the gap from the previous one with a
+ * variable-byte encoding, so the small gaps of a common term take one byte instead of four. The last ordinal of each
+ * block is kept uncompressed so a block can be decoded on its own, and is used as a skip pointer: a cursor advancing
+ * to a target only decodes the block which may contain it.
+ */
+public class PostingList {
+    static final int BLOCK_SIZE = 128;
+    static final PostingList EMPTY = new PostingList();
+
+    private byte[] data = new byte[0];
+    private int dataLength;
+    private int[] blockOffsets = new int[0]; // offset of each block in "data"
+    private int[] blockLastDocs = new int[0]; // last ordinal of each block
+    private int blockCount;
+    private int[] tail = new int[2]; // ordinals not packed into a block yet
+    private int tailSize;
+    private int size;
+    private int lastDoc = -1;
+
+    /**
+     * Add the ordinal of a document containing the term
+     * @param ordinal: the ordinal of the document, must not be smaller than the last added ordinal
+     */
+    void add(int ordinal) {
+        if (ordinal == lastDoc) {
+            return;
+        }
+        if (ordinal < lastDoc) {
+            throw new IllegalArgumentException("ordinals must be added in increasing order; got " + ordinal
+                    + " after " + lastDoc);
+        }
+        if (tailSize == tail.length) {
+            tail = Arrays.copyOf(tail, Math.min(BLOCK_SIZE, Math.max(2, tail.length * 2)));
+        }
+        tail[tailSize++] = ordinal;
+        lastDoc = ordinal;
+        size++;
+        if (tailSize == BLOCK_SIZE) {
+            flushTail();
+        }
+    }
+
+    /**
+     * @return the number of documents in the list
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Pack the remaining ordinals into a last (shorter) block and trim the arrays to their exact size. This is
+     * called once the index is fully built, the list only holds compressed blocks after it
+     */
+    void freeze() {
+        if (tailSize > 0) {
+            flushTail();
+        }
+        tail = new int[0];
+        data = Arrays.copyOf(data, dataLength);
+        blockOffsets = Arrays.copyOf(blockOffsets, blockCount);
+        blockLastDocs = Arrays.copyOf(blockLastDocs, blockCount);
+    }
+
+    /**
+     * Returns a frozen copy of the list without the deleted ordinals, null if no ordinal is left
+     * @param deleted: the deleted ordinals
+     */
+    PostingList copy(BitSet deleted) {
+        PostingList copy = new PostingList();
+        Cursor cursor = cursor();
+        for (int doc = cursor.nextDoc(); doc != DocCursor.NO_MORE_DOCS; doc = cursor.nextDoc()) {
+            if (!deleted.get(doc)) {
+                copy.add(doc);
+            }
+        }
+        if (copy.size == 0) {
+            return null;
+        }
+        copy.freeze();
+        return copy;
+    }
+
+    /**
+     * Write the list to a snapshot. The ordinals added since the list was frozen are packed into the last block of a
+     * copy, so the list itself is not changed
+     */
+    void write(DataOutput out) throws IOException {
+        if (tailSize > 0) {
+            copy(new BitSet()).write(out);
+            return;
+        }
+        out.writeInt(size);
+        out.writeInt(blockCount);
+        SnapshotIO.writeInts(out, blockOffsets, blockCount);
+        SnapshotIO.writeInts(out, blockLastDocs, blockCount);
+        out.writeInt(dataLength);
+        out.write(data, 0, dataLength);
+    }
+
+    /**
+     * Read a list written by "write" from the current position of a snapshot. The list is frozen
+     */
+    static PostingList read(ByteBuffer in) {
+        PostingList list = new PostingList();
+        list.size = in.getInt();
+        list.blockCount = in.getInt();
+        list.blockOffsets = new int[list.blockCount];
+        list.blockLastDocs = new int[list.blockCount];
+        SnapshotIO.readInts(in, list.blockOffsets, list.blockCount);
+        SnapshotIO.readInts(in, list.blockLastDocs, list.blockCount);
+        list.dataLength = in.getInt();
+        list.data = new byte[list.dataLength];
+        in.get(list.data);
+        list.tail = new int[0];
+        list.lastDoc = list.blockCount == 0 ? -1 : list.blockLastDocs[list.blockCount - 1];
+        return list;
+    }
+
+    /**
+     * @return a new cursor positioned before the first ordinal of the list
+     */
+    Cursor cursor() {
+        return new Cursor();
+    }
+
+    /**
+     * Pack the ordinals of the tail into a new block
+     */
+    private void flushTail() {
+        if (blockCount == blockOffsets.length) {
+            int newLength = Math.max(4, blockCount * 2);
+            blockOffsets = Arrays.copyOf(blockOffsets, newLength);
+            blockLastDocs = Arrays.copyOf(blockLastDocs, newLength);
+        }
+        int previous = blockCount == 0 ? 0 : blockLastDocs[blockCount - 1];
+        blockOffsets[blockCount] = dataLength;
+        for (int i = 0; i < tailSize; i++) {
+            writeVInt(tail[i] - previous);
+            previous = tail[i];
+        }
+        blockLastDocs[blockCount] = previous;
+        blockCount++;
+        tailSize = 0;
+    }
+
+    private void writeVInt(int value) {
+        if (data.length - dataLength < 5) {
+            data = Arrays.copyOf(data, Math.max(16, data.length + (data.length >> 1) + 5));
+        }
+        while ((value & ~0x7F) != 0) {
+            data[dataLength++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        data[dataLength++] = (byte) value;
+    }
+
+    /**
+     * Decode the given block into "out"
+     * @return the number of ordinals decoded
+     */
+    private int decodeBlock(int block, int[] out) {
+        int pos = blockOffsets[block];
+        int end = block + 1 < blockCount ? blockOffsets[block + 1] : dataLength;
+        int doc = block == 0 ? 0 : blockLastDocs[block - 1];
+        int n = 0;
+        while (pos < end) {
+            int b = data[pos++];
+            int gap = b & 0x7F;
+            for (int shift = 7; (b & 0x80) != 0; shift += 7) {
+                b = data[pos++];
+                gap |= (b & 0x7F) << shift;
+            }
+            doc += gap;
+            out[n++] = doc;
+        }
+        return n;
+    }
+
+    /**
+     * A Cursor walks the ordinals of the list in increasing order, decoding one block at a time
+     */
+    class Cursor extends DocCursor {
+        private final int[] buffer = new int[BLOCK_SIZE];
+        private int nextBlock; // blockCount stands for the tail
+        private int index;
+        private int limit;
+        private int doc = -1;
+
+        @Override
+        int docId() {
+            return doc;
+        }
+
+        @Override
+        int nextDoc() {
+            if (++index < limit) {
+                return doc = buffer[index];
+            }
+            if (nextBlock < blockCount) {
+                limit = decodeBlock(nextBlock, buffer);
+            } else if (nextBlock == blockCount && tailSize > 0) {
+                limit = readTail();
+            } else {
+                limit = 0;
+                return doc = NO_MORE_DOCS;
+            }
+            nextBlock++;
+            index = 0;
+            return doc = buffer[0];
+        }
+
+        @Override
+        int advance(int target) {
+            if (limit > 0 && buffer[limit - 1] >= target) {
+                // the target is in the decoded block
+                index = gallop(buffer, index + 1, limit, target);
+                return doc = buffer[index];
+            }
+            // use the last ordinal of each block to skip the blocks which end before the target
+            int block = gallop(blockLastDocs, nextBlock, blockCount, target);
+            if (block < blockCount) {
+                limit = decodeBlock(block, buffer);
+            } else if (block == blockCount && tailSize > 0 && tail[tailSize - 1] >= target) {
+                limit = readTail();
+            } else {
+                limit = 0;
+                nextBlock = blockCount + 1;
+                return doc = NO_MORE_DOCS;
+            }
+            nextBlock = block + 1;
+            index = gallop(buffer, 0, limit, target);
+            return doc = buffer[index];
+        }
+
+        @Override
+        long cost() {
+            return size;
+        }
+
+        private int readTail() {
+            System.arraycopy(tail, 0, buffer, 0, tailSize);
+            return tailSize;
+        }
+    }
+}
@@ -1,13 +1,24 @@
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 public class Query {
+    static final int NO_LIMIT = Integer.MAX_VALUE;
+    // a "LIMIT n" or "OFFSET m" at the end of a query, negative numbers included so they are rejected rather than
+    // searched as part of the last clause
+    private static final Pattern PAGE_SUFFIX = Pattern.compile("\\s+(LIMIT|OFFSET)\\s+(-?\\d+)\\s*$");
+
     private final String str;
     private final List<Clause> clauses = new ArrayList<>();
+    private int limit = NO_LIMIT;
+    private int offset = 0;
 
     public Query(String str) {
         this.str = str;
-        String[] clauseStrings = str.split(" AND ");
+        String clausesString = parsePage(str);
+        String[] clauseStrings = clausesString.split(" AND ");
         for (String clauseString : clauseStrings) {
             String[] parts = clauseString.split(":");
             if (parts.length != 2) {
@@ -25,10 +36,87 @@ public class Query {
         }
     }
     
+    /**
+     * Removes "LIMIT n" and "OFFSET m", in any order, from the end of the query and keeps their values
+     * @return the query without them
+     */
+    private String parsePage(String s) {
+        boolean hasLimit = false;
+        boolean hasOffset = false;
+        Matcher matcher = PAGE_SUFFIX.matcher(s);
+        while (matcher.find()) {
+            if (matcher.group(2).startsWith("-")) {
+                throw new IllegalArgumentException(str + " is not a valid query: " + matcher.group(1)
+                        + " must not be negative");
+            }
+            int value;
+            try {
+                value = Integer.parseInt(matcher.group(2));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException(str + " is not a valid query: " + matcher.group(2)
+                        + " is too large");
+            }
+            if ("LIMIT".equals(matcher.group(1))) {
+                if (hasLimit) {
+                    throw new IllegalArgumentException(str + " is not a valid query: LIMIT is given twice");
+                }
+                hasLimit = true;
+                limit = value;
+            } else {
+                if (hasOffset) {
+                    throw new IllegalArgumentException(str + " is not a valid query: OFFSET is given twice");
+                }
+                hasOffset = true;
+                offset = value;
+            }
+            s = s.substring(0, matcher.start());
+            matcher = PAGE_SUFFIX.matcher(s);
+        }
+        return s;
+    }
+
     public List<Clause> getClauses() {
         return clauses;
     }
 
+    /**
+     * The maximum number of documents to return, NO_LIMIT if the query has no LIMIT
+     */
+    public int getLimit() {
+        return limit;
+    }
+
+    /**
+     * The number of matching documents to skip before the first one returned
+     */
+    public int getOffset() {
+        return offset;
+    }
+
+    /**
+     * Returns true if the query only asks for a page of its documents
+     */
+    public boolean isPaged() {
+        return limit != NO_LIMIT || offset != 0;
+    }
+
+    /**
+     * Returns the normalized form of the query: its normalized clauses, sorted and without duplicates, joined by
+     * " AND ". Two queries with the same normalized form find the same documents, LIMIT and OFFSET only select a page
+     * of them
+     */
+    public String normalized() {
+        List<String> normalizedClauses = new ArrayList<>(clauses.size());
+        for (Clause clause : clauses) {
+            String normalizedClause = clause.normalized();
+            if (!normalizedClauses.contains(normalizedClause)) {
+                normalizedClauses.add(normalizedClause);
+            }
+        }
+        Collections.sort(normalizedClauses);
+        return String.join(" AND ", normalizedClauses);
+    }
+
     @Override
     public String toString() {
         return str;
@@ -51,6 +139,38 @@ public class Query {
             return value;
         }
 
+        /**
+         * Returns the normalized form of the clause: the field in lower case, and the value with its runs of spaces
+         * replaced by one space and without spaces around the separators "(", ")", "|", ",". The value of a CONTAINS
+         * clause is kept as it is: its substring is matched with its spaces, so two spacings find different documents
+         */
+        public String normalized() {
+            if (value.startsWith("CONTAINS")) {
+                return field.toLowerCase() + ":" + value;
+            }
+            StringBuilder normalizedValue = new StringBuilder(value.length());
+            boolean space = false;
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (Character.isWhitespace(c)) {
+                    space = true;
+                    continue;
+                }
+                boolean separator = isSeparator(c);
+                if (space && !separator && normalizedValue.length() > 0
+                        && !isSeparator(normalizedValue.charAt(normalizedValue.length() - 1))) {
+                    normalizedValue.append(' ');
+                }
+                normalizedValue.append(c);
+                space = false;
+            }
+            return field.toLowerCase() + ":" + normalizedValue;
+        }
+
+        private static boolean isSeparator(char c) {
+            return c == '(' || c == ')' || c == '|' || c == ',';
+        }
+
         @Override
         public String toString() {
             return field + ":" + value;
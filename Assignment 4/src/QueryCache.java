@@ -0,0 +1,115 @@
+/**
+ * A QueryCache keeps the sorted ordinals found by recent queries and clauses, keyed by their normalized form, so a
+ * repeated query is answered without touching the indices. The cache is bounded by the total number of ordinals it
+ * holds: when a new result does not fit, the least recently used results are evicted. A result larger than the whole
+ * cache is not kept. The owner must clear the cache whenever the indices change.
+ */
+class QueryCache {
+    private final long maxOrdinals;
+    private HashMap<String, Entry> entries = new HashMap<>();
+    private final Entry lru = new Entry(null, null); // sentinel of the list of entries, most recently used first
+    private long ordinals;
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long invalidations;
+
+    /**
+     * @param maxOrdinals: the maximum number of ordinals held by the cache, 0 to disable it
+     */
+    QueryCache(long maxOrdinals) {
+        if (maxOrdinals < 0) {
+            throw new IllegalArgumentException("cache size must not be negative; got " + maxOrdinals);
+        }
+        this.maxOrdinals = maxOrdinals;
+        lru.previous = lru;
+        lru.next = lru;
+    }
+
+    /**
+     * Returns the ordinals cached for the given key, null if they are not in the cache. The array must not be
+     * modified
+     */
+    synchronized int[] get(String key) {
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        unlink(entry);
+        linkFirst(entry);
+        return entry.ordinals;
+    }
+
+    /**
+     * Caches the ordinals found for the given key. The array must not be modified afterwards
+     */
+    synchronized void put(String key, int[] result) {
+        if (maxOrdinals == 0 || result.length > maxOrdinals) {
+            return;
+        }
+        Entry old = entries.remove(key);
+        if (old != null) {
+            unlink(old);
+            ordinals -= old.ordinals.length;
+        }
+        while (ordinals + result.length > maxOrdinals) {
+            Entry victim = lru.previous;
+            unlink(victim);
+            entries.remove(victim.key);
+            ordinals -= victim.ordinals.length;
+            evictions++;
+        }
+        Entry entry = new Entry(key, result);
+        entries.put(key, entry);
+        linkFirst(entry);
+        ordinals += result.length;
+    }
+
+    /**
+     * Drops every cached result, called when the indices change
+     */
+    synchronized void clear() {
+        if (entries.size() == 0) {
+            return;
+        }
+        entries = new HashMap<>();
+        lru.previous = lru;
+        lru.next = lru;
+        ordinals = 0;
+        invalidations++;
+    }
+
+    synchronized String stats() {
+        return "results=" + entries.size() + " ordinals=" + ordinals + "/" + maxOrdinals + " hits=" + hits
+                + " misses=" + misses + " evictions=" + evictions + " invalidations=" + invalidations;
+    }
+
+    private void unlink(Entry entry) {
+        entry.previous.next = entry.next;
+        entry.next.previous = entry.previous;
+    }
+
+    private void linkFirst(Entry entry) {
+        entry.next = lru.next;
+        entry.previous = lru;
+        lru.next.previous = entry;
+        lru.next = entry;
+    }
+
+    /**
+     * The ordinals found for a key
+     */
+    private static class Entry {
+        final String key;
+        final int[] ordinals;
+        Entry previous;
+        Entry next;
+
+        Entry(String key, int[] ordinals) {
+            this.key = key;
+            this.ordinals = ordinals;
+        }
+    }
+}
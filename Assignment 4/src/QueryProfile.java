@@ -0,0 +1,138 @@
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * A QueryProfile describes how the SearchIndex searches a query, for the EXPLAIN and PROFILE commands. For each
+ * clause, in the order the plan handles them, it records the index searched, the sizes of the posting lists it reads,
+ * the number of documents it is expected to find, what the plan does with it and the time spent on it. A profiled
+ * query is also run: the profile then holds the time spent intersecting the clauses and reading the matching
+ * documents, and the bytes allocated by the thread during the whole search.
+ */
+public class QueryProfile {
+    private final Query query;
+    private final boolean run;
+    private final List<Step> steps = new ArrayList<>();
+    private String intersection = "none, the search ends on a clause without documents";
+    private int matches = -1;
+    private long intersectionNanos;
+    private long materializationNanos;
+    private long totalNanos;
+    private long allocatedBytes = -1;
+
+    /**
+     * @param run: true if the query is run (PROFILE), false if it is only planned (EXPLAIN)
+     */
+    QueryProfile(Query query, boolean run) {
+        this.query = query;
+        this.run = run;
+    }
+
+    /**
+     * Records the search of a clause
+     * @param clause:   the text of the clause
+     * @param index:    the index searched, with the posting lists it reads if any
+     * @param estimate: the number of documents the clause is expected to find
+     * @param plan:     what the plan does with the clause
+     * @param nanos:    the time spent searching the clause
+     */
+    void clause(String clause, String index, long estimate, String plan, long nanos) {
+        steps.add(new Step(clause, index, estimate, plan, nanos));
+    }
+
+    /**
+     * Records how the cursors of the clauses are intersected
+     */
+    void intersection(String description) {
+        intersection = description;
+    }
+
+    /**
+     * Records the run of the query, once it is planned
+     * @param matches:              the number of documents found
+     * @param intersectionNanos:    the time spent intersecting the clauses
+     * @param materializationNanos: the time spent reading the documents of their ordinals
+     * @param totalNanos:           the time of the whole search
+     * @param allocatedBytes:       the bytes allocated by the thread during the whole search, -1 if unknown
+     */
+    void ran(int matches, long intersectionNanos, long materializationNanos, long totalNanos, long allocatedBytes) {
+        this.matches = matches;
+        this.intersectionNanos = intersectionNanos;
+        this.materializationNanos = materializationNanos;
+        this.totalNanos = totalNanos;
+        this.allocatedBytes = allocatedBytes;
+    }
+
+    /**
+     * Returns the number of bytes allocated so far by the current thread, -1 if the JVM does not count them
+     */
+    static long allocatedBytes() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+            if (threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled()) {
+                return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Prints the profile, one line per clause followed by the intersection and, for a query which was run, its
+     * timings
+     */
+    public void print(PrintStream out) {
+        for (int i = 0; i < steps.size(); i++) {
+            Step step = steps.get(i);
+            out.println("clause " + (i + 1) + ": " + step.clause);
+            out.println("    index: " + step.index);
+            out.println("    estimate: " + documents(step.estimate) + ", " + step.plan
+                    + (run ? ", " + millis(step.nanos) : ""));
+        }
+        out.println("intersection: " + intersection);
+        if (query.isPaged()) {
+            out.println("page: offset " + query.getOffset() + ", limit "
+                    + (query.getLimit() == Query.NO_LIMIT ? "none" : String.valueOf(query.getLimit())));
+        }
+        if (run) {
+            out.println("matches: " + matches);
+            out.println("time: intersection " + millis(intersectionNanos) + ", materialization "
+                    + millis(materializationNanos) + ", total " + millis(totalNanos));
+            out.println("allocated: " + (allocatedBytes < 0 ? "unknown" : allocatedBytes + " bytes"));
+        }
+    }
+
+    static String documents(long count) {
+        return count == 1 ? "1 document" : count + " documents";
+    }
+
+    static String terms(long count) {
+        return count == 1 ? "1 term" : count + " terms";
+    }
+
+    private static String millis(long nanos) {
+        return String.format(Locale.ROOT, "%.3f ms", nanos / 1e6);
+    }
+
+    /**
+     * The search of a clause
+     */
+    private static class Step {
+        final String clause;
+        final String index;
+        final long estimate;
+        final String plan;
+        final long nanos;
+
+        Step(String clause, String index, long estimate, String plan, long nanos) {
+            this.clause = clause;
+            this.index = index;
+            this.estimate = estimate;
+            this.plan = plan;
+            this.nanos = nanos;
+        }
+    }
+}
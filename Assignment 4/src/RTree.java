@@ -0,0 +1,765 @@
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * An R-tree over the coordinates of the documents, packed with the Sort-Tile-Recursive (STR) algorithm.
+ * Points are added with "add", then "build" packs them bottom-up: the points are sorted by longitude, cut into
+ * vertical slices, each slice is sorted by latitude and cut into leaves of NODE_CAPACITY points. Each upper level is
+ * packed the same way from the centers of the nodes below it. A box query only descends into the nodes whose
+ * bounding box intersects the box, so it only touches the points near the box. A nearest neighbour query opens the
+ * nodes best first, by the distance from the point to their bounding box, so it only touches the nodes nearer than
+ * the documents it returns. A radius query prunes the nodes outside the bounding box of its circle, then the nodes
+ * farther than its radius, and takes the nodes inside the circle whole.
+ * Points and nodes are kept in flat arrays: the points of a leaf, and the children of a node, are contiguous.
+ * The points added after the tree is packed are kept after the packed points and checked one by one by every search,
+ * until there are more than 1/UNPACKED_SHARE of the packed points and the tree is packed again.
+ */
+class RTree {
+    static final int NODE_CAPACITY = 16;
+    private static final int UNPACKED_SHARE = 8;
+    // the mean radius of the Earth, for the haversine distance
+    static final double EARTH_RADIUS_KM = 6371.0088;
+
+    /**
+     * Selects the documents a nearest neighbour query may return
+     */
+    interface OrdinalFilter {
+        boolean accept(int ordinal);
+    }
+
+    // the points, in the order of the leaves once built
+    private double[] latitudes = new double[16];
+    private double[] longitudes = new double[16];
+    private int[] ordinals = new int[16];
+    private int size;
+    private int packedSize; // the points "0 - packedSize" are in the leaves, the next ones were added after "build"
+
+    // the nodes, level by level from the leaves to the root. The children of a leaf are points, the children of
+    // an internal node are nodes
+    private double[] minLatitudes;
+    private double[] maxLatitudes;
+    private double[] minLongitudes;
+    private double[] maxLongitudes;
+    private int[] childFrom;
+    private int[] childTo;
+    private int leafCount;
+    private int root = -1;
+    private volatile boolean built = true;
+
+    /**
+     * Add the point of the document with the given ordinal. The tree is packed on the next "build" or query if it was
+     * never packed, or if too many points were added since it was
+     */
+    synchronized void add(double latitude, double longitude, int ordinal) {
+        if (size == ordinals.length) {
+            int newLength = size * 2;
+            latitudes = Arrays.copyOf(latitudes, newLength);
+            longitudes = Arrays.copyOf(longitudes, newLength);
+            ordinals = Arrays.copyOf(ordinals, newLength);
+        }
+        latitudes[size] = latitude;
+        longitudes[size] = longitude;
+        ordinals[size] = ordinal;
+        size++;
+        if (root < 0 || size - packedSize > packedSize / UNPACKED_SHARE) {
+            built = false;
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Pack the points into leaves and build the upper levels
+     */
+    synchronized void build() {
+        if (built) {
+            return;
+        }
+        root = -1;
+        leafCount = 0;
+        if (size > 0) {
+            int[] order = strOrder(latitudes, longitudes, size);
+            latitudes = permute(latitudes, order, size);
+            longitudes = permute(longitudes, order, size);
+            ordinals = permute(ordinals, order, size);
+
+            int leaves = divideRoundingUp(size, NODE_CAPACITY);
+            int capacity = leaves;
+            for (int count = leaves; count > 1; count = divideRoundingUp(count, NODE_CAPACITY)) {
+                capacity += divideRoundingUp(count, NODE_CAPACITY);
+            }
+            minLatitudes = new double[capacity];
+            maxLatitudes = new double[capacity];
+            minLongitudes = new double[capacity];
+            maxLongitudes = new double[capacity];
+            childFrom = new int[capacity];
+            childTo = new int[capacity];
+
+            int nodeCount = 0;
+            for (int from = 0; from < size; from += NODE_CAPACITY) {
+                int to = Math.min(size, from + NODE_CAPACITY);
+                setNode(nodeCount++, from, to, latitudes, latitudes, longitudes, longitudes);
+            }
+            leafCount = nodeCount;
+
+            int levelFrom = 0;
+            int levelTo = nodeCount;
+            while (levelTo - levelFrom > 1) {
+                int count = levelTo - levelFrom;
+                double[] centerLatitudes = new double[count];
+                double[] centerLongitudes = new double[count];
+                for (int i = 0; i < count; i++) {
+                    centerLatitudes[i] = (minLatitudes[levelFrom + i] + maxLatitudes[levelFrom + i]) / 2;
+                    centerLongitudes[i] = (minLongitudes[levelFrom + i] + maxLongitudes[levelFrom + i]) / 2;
+                }
+                permuteLevel(levelFrom, strOrder(centerLatitudes, centerLongitudes, count));
+                for (int from = levelFrom; from < levelTo; from += NODE_CAPACITY) {
+                    int to = Math.min(levelTo, from + NODE_CAPACITY);
+                    setNode(nodeCount++, from, to, minLatitudes, maxLatitudes, minLongitudes, maxLongitudes);
+                }
+                levelFrom = levelTo;
+                levelTo = nodeCount;
+            }
+            root = levelFrom;
+        }
+        packedSize = size;
+        built = true;
+    }
+
+    /**
+     * Returns a new packed tree holding the points of this tree without the points of the deleted ordinals. This tree
+     * is not changed, so it can be searched meanwhile
+     * @param deleted: the deleted ordinals
+     */
+    synchronized RTree compact(BitSet deleted) {
+        RTree compacted = new RTree();
+        for (int p = 0; p < size; p++) {
+            if (!deleted.get(ordinals[p])) {
+                compacted.add(latitudes[p], longitudes[p], ordinals[p]);
+            }
+        }
+        compacted.build();
+        return compacted;
+    }
+
+    /**
+     * Write the tree to a snapshot, with the points added since it was packed
+     */
+    synchronized void write(DataOutput out) throws IOException {
+        build();
+        int nodeCount = root + 1;
+        out.writeInt(size);
+        out.writeInt(packedSize);
+        out.writeInt(leafCount);
+        out.writeInt(nodeCount);
+        SnapshotIO.writeDoubles(out, latitudes, size);
+        SnapshotIO.writeDoubles(out, longitudes, size);
+        SnapshotIO.writeInts(out, ordinals, size);
+        SnapshotIO.writeDoubles(out, minLatitudes, nodeCount);
+        SnapshotIO.writeDoubles(out, maxLatitudes, nodeCount);
+        SnapshotIO.writeDoubles(out, minLongitudes, nodeCount);
+        SnapshotIO.writeDoubles(out, maxLongitudes, nodeCount);
+        SnapshotIO.writeInts(out, childFrom, nodeCount);
+        SnapshotIO.writeInts(out, childTo, nodeCount);
+    }
+
+    /**
+     * Read a tree written by "write" from the current position of a snapshot into this empty tree. The tree is
+     * packed as it was written, without being built again
+     */
+    synchronized void read(ByteBuffer in) {
+        if (size > 0) {
+            throw new IllegalStateException("cannot read a snapshot into a tree which is not empty");
+        }
+        size = in.getInt();
+        packedSize = in.getInt();
+        leafCount = in.getInt();
+        int nodeCount = in.getInt();
+        latitudes = new double[Math.max(16, size)];
+        longitudes = new double[Math.max(16, size)];
+        ordinals = new int[Math.max(16, size)];
+        SnapshotIO.readDoubles(in, latitudes, size);
+        SnapshotIO.readDoubles(in, longitudes, size);
+        SnapshotIO.readInts(in, ordinals, size);
+        minLatitudes = new double[nodeCount];
+        maxLatitudes = new double[nodeCount];
+        minLongitudes = new double[nodeCount];
+        maxLongitudes = new double[nodeCount];
+        childFrom = new int[nodeCount];
+        childTo = new int[nodeCount];
+        SnapshotIO.readDoubles(in, minLatitudes, nodeCount);
+        SnapshotIO.readDoubles(in, maxLatitudes, nodeCount);
+        SnapshotIO.readDoubles(in, minLongitudes, nodeCount);
+        SnapshotIO.readDoubles(in, maxLongitudes, nodeCount);
+        SnapshotIO.readInts(in, childFrom, nodeCount);
+        SnapshotIO.readInts(in, childTo, nodeCount);
+        root = nodeCount - 1;
+        built = true;
+    }
+
+    /**
+     * Find the documents whose point is in the given box (bounds included)
+     * @return the sorted ordinals of the documents
+     */
+    int[] search(double minLatitude, double maxLatitude, double minLongitude, double maxLongitude) {
+        if (!built) {
+            build();
+        }
+        if (root < 0) {
+            return new int[0];
+        }
+        int[] result = new int[16];
+        int n = 0;
+        for (int p = packedSize; p < size; p++) {
+            double latitude = latitudes[p];
+            double longitude = longitudes[p];
+            if (latitude >= minLatitude && latitude <= maxLatitude
+                    && longitude >= minLongitude && longitude <= maxLongitude) {
+                if (n == result.length) {
+                    result = Arrays.copyOf(result, n * 2);
+                }
+                result[n++] = ordinals[p];
+            }
+        }
+        int[] stack = new int[64];
+        int top = 0;
+        stack[top++] = root;
+        while (top > 0) {
+            int node = stack[--top];
+            if (minLatitudes[node] > maxLatitude || maxLatitudes[node] < minLatitude
+                    || minLongitudes[node] > maxLongitude || maxLongitudes[node] < minLongitude) {
+                continue;
+            }
+            if (node < leafCount) {
+                for (int p = childFrom[node]; p < childTo[node]; p++) {
+                    double latitude = latitudes[p];
+                    double longitude = longitudes[p];
+                    if (latitude >= minLatitude && latitude <= maxLatitude
+                            && longitude >= minLongitude && longitude <= maxLongitude) {
+                        if (n == result.length) {
+                            result = Arrays.copyOf(result, n * 2);
+                        }
+                        result[n++] = ordinals[p];
+                    }
+                }
+            } else {
+                for (int child = childFrom[node]; child < childTo[node]; child++) {
+                    if (top == stack.length) {
+                        stack = Arrays.copyOf(stack, top * 2);
+                    }
+                    stack[top++] = child;
+                }
+            }
+        }
+        Arrays.sort(result, 0, n);
+        return Arrays.copyOf(result, n);
+    }
+
+    /**
+     * Find the "k" documents accepted by the filter whose points are the nearest to the given point, by haversine
+     * distance. The search is best first: the nodes and the points wait in a priority queue ordered by their distance
+     * to the point, the distance of a node being the one of the nearest point of its bounding box, which none of its
+     * points is nearer than. A point taken out of the queue is then nearer than everything left in it, so the search
+     * stops at the k-th one, after opening only the nodes nearer than it. The queue is ordered by the haversine of
+     * the distances, which grows with the distance and saves computing the distances themselves
+     * @return the ordinals of the documents, the nearest first
+     */
+    int[] nearest(double latitude, double longitude, int k, OrdinalFilter filter) {
+        if (!built) {
+            build();
+        }
+        if (root < 0 || k <= 0) {
+            return new int[0];
+        }
+        Origin origin = new Origin(latitude, longitude);
+        // a node is queued as its index, a point as -(its index + 1)
+        DistanceQueue queue = new DistanceQueue();
+        for (int p = packedSize; p < size; p++) {
+            if (filter.accept(ordinals[p])) {
+                queue.add(origin.haversine(latitudes[p], longitudes[p]), -(p + 1));
+            }
+        }
+        queue.add(haversineToNode(origin, root), root);
+        int[] result = new int[Math.min(k, 16)];
+        int n = 0;
+        while (n < k && !queue.isEmpty()) {
+            int item = queue.poll();
+            if (item < 0) {
+                if (n == result.length) {
+                    result = Arrays.copyOf(result, Math.min(k, n * 2));
+                }
+                result[n++] = ordinals[-(item + 1)];
+            } else if (item < leafCount) {
+                for (int p = childFrom[item]; p < childTo[item]; p++) {
+                    if (filter.accept(ordinals[p])) {
+                        queue.add(origin.haversine(latitudes[p], longitudes[p]), -(p + 1));
+                    }
+                }
+            } else {
+                for (int child = childFrom[item]; child < childTo[item]; child++) {
+                    queue.add(haversineToNode(origin, child), child);
+                }
+            }
+        }
+        return n == result.length ? result : Arrays.copyOf(result, n);
+    }
+
+    /**
+     * Find the documents whose point is inside the circle (bounds included). A node is skipped if its bounding box
+     * is outside the bounding box of the circle, or if its nearest point is farther than the radius; it is taken
+     * whole, without checking its points, if its farthest corner is inside the circle. The points of the nodes the
+     * circle crosses are checked against its bounding box, then against the haversine of its radius
+     * @return the sorted ordinals of the documents
+     */
+    int[] search(Circle circle) {
+        if (!built) {
+            build();
+        }
+        if (root < 0) {
+            return new int[0];
+        }
+        int[] result = new int[16];
+        int n = 0;
+        for (int p = packedSize; p < size; p++) {
+            if (circle.contains(latitudes[p], longitudes[p])) {
+                if (n == result.length) {
+                    result = Arrays.copyOf(result, n * 2);
+                }
+                result[n++] = ordinals[p];
+            }
+        }
+        // a node inside the circle is pushed as -(its index + 1)
+        int[] stack = new int[64];
+        int top = 0;
+        stack[top++] = root;
+        while (top > 0) {
+            int item = stack[--top];
+            boolean inside = item < 0;
+            int node = inside ? -(item + 1) : item;
+            if (!inside) {
+                if (minLatitudes[node] > circle.maxLatitude || maxLatitudes[node] < circle.minLatitude
+                        || minLongitudes[node] > circle.maxLongitude || maxLongitudes[node] < circle.minLongitude
+                        || haversineToNode(circle.center, node) > circle.maxHaversine) {
+                    continue;
+                }
+                inside = coversNode(circle, node);
+            }
+            if (node < leafCount) {
+                if (n + NODE_CAPACITY > result.length) {
+                    result = Arrays.copyOf(result, Math.max(n + NODE_CAPACITY, n * 2));
+                }
+                for (int p = childFrom[node]; p < childTo[node]; p++) {
+                    if (inside || circle.contains(latitudes[p], longitudes[p])) {
+                        result[n++] = ordinals[p];
+                    }
+                }
+            } else {
+                for (int child = childFrom[node]; child < childTo[node]; child++) {
+                    if (top == stack.length) {
+                        stack = Arrays.copyOf(stack, top * 2);
+                    }
+                    stack[top++] = inside ? -(child + 1) : child;
+                }
+            }
+        }
+        Arrays.sort(result, 0, n);
+        return Arrays.copyOf(result, n);
+    }
+
+    /**
+     * Returns true if the whole bounding box of a node is inside the circle. Along a parallel, the distance to the
+     * center grows with the difference of longitudes up to the opposite meridian, and along a meridian less than 90
+     * degrees away from the center it only grows on both sides of its nearest point, so the farthest point of a box
+     * whose sides are such meridians, and which does not span the opposite meridian, is one of its corners. A node
+     * crossing the bounding box of the circle cannot be inside it, which saves computing its corners
+     */
+    private boolean coversNode(Circle circle, int node) {
+        if (minLatitudes[node] < circle.minLatitude || maxLatitudes[node] > circle.maxLatitude
+                || minLongitudes[node] < circle.minLongitude || maxLongitudes[node] > circle.maxLongitude) {
+            return false;
+        }
+        Origin center = circle.center;
+        double opposite = center.longitude > 0 ? center.longitude - 180 : center.longitude + 180;
+        if (opposite > minLongitudes[node] && opposite < maxLongitudes[node]
+                || longitudeDifference(center.longitude, minLongitudes[node]) > 90
+                || longitudeDifference(center.longitude, maxLongitudes[node]) > 90) {
+            return false;
+        }
+        return center.haversine(minLatitudes[node], minLongitudes[node]) <= circle.maxHaversine
+                && center.haversine(minLatitudes[node], maxLongitudes[node]) <= circle.maxHaversine
+                && center.haversine(maxLatitudes[node], minLongitudes[node]) <= circle.maxHaversine
+                && center.haversine(maxLatitudes[node], maxLongitudes[node]) <= circle.maxHaversine;
+    }
+
+    /**
+     * The difference between two longitudes, from 0 to 180 degrees the shorter way around the globe
+     */
+    private static double longitudeDifference(double longitude1, double longitude2) {
+        double difference = Math.abs(longitude1 - longitude2);
+        return difference > 180 ? 360 - difference : difference;
+    }
+
+    /**
+     * The haversine distance in km between two points given in degrees
+     */
+    static double distanceKm(double latitude1, double longitude1, double latitude2, double longitude2) {
+        return new Origin(latitude1, longitude1).distanceKm(latitude2, longitude2);
+    }
+
+    /**
+     * The haversine of the distance from the origin to the nearest point of the bounding box of a node, 0 if the
+     * origin is inside. Moving a point of the box towards the longitude of the origin brings it nearer, so the
+     * nearest point of the box is on the meridian of the origin when the box spans it, on one of the two sides of the
+     * box otherwise
+     */
+    private double haversineToNode(Origin origin, int node) {
+        if (origin.longitude >= minLongitudes[node] && origin.longitude <= maxLongitudes[node]) {
+            double nearestLatitude = Math.max(minLatitudes[node], Math.min(maxLatitudes[node], origin.latitude));
+            double sinLatitude = Math.sin(Math.toRadians(nearestLatitude - origin.latitude) / 2);
+            return sinLatitude * sinLatitude;
+        }
+        double sideLongitude = origin.longitude < minLongitudes[node] ? minLongitudes[node] : maxLongitudes[node];
+        double otherSideLongitude = sideLongitude == minLongitudes[node] ? maxLongitudes[node] : minLongitudes[node];
+        // the side facing the origin is the nearer one, unless the box reaches the other side of the globe
+        double haversine = haversineToSide(origin, sideLongitude, node);
+        return Math.abs(otherSideLongitude - origin.longitude) > 180
+                ? Math.min(haversine, haversineToSide(origin, otherSideLongitude, node)) : haversine;
+    }
+
+    /**
+     * The haversine of the distance from the origin to the nearest point of the side of a node at the given
+     * longitude. Along a meridian, the distance to the origin is the smallest at the latitude whose tangent is the
+     * tangent of the latitude of the origin divided by the cosine of the difference of longitudes, and grows on both
+     * sides of it, so the nearest point of the side is that latitude kept between the latitudes of the node
+     */
+    private double haversineToSide(Origin origin, double sideLongitude, int node) {
+        double cosLongitude = Math.cos(Math.toRadians(sideLongitude - origin.longitude));
+        if (cosLongitude <= 0) {
+            // the meridian is on the other side of the globe, the nearest point is at one end of the side
+            return Math.min(origin.haversine(minLatitudes[node], sideLongitude),
+                    origin.haversine(maxLatitudes[node], sideLongitude));
+        }
+        double nearestLatitude = Math.toDegrees(Math.atan(origin.tanLatitude / cosLongitude));
+        nearestLatitude = Math.max(minLatitudes[node], Math.min(maxLatitudes[node], nearestLatitude));
+        return origin.haversine(nearestLatitude, sideLongitude);
+    }
+
+    /**
+     * The points within "km" kilometres of a center, by haversine distance, with the bounding box of the circle. The
+     * circle spans 1 / EARTH_RADIUS_KM radian of latitude per kilometre on both sides of the center; the span of
+     * longitude is the widest at the latitude where the circle touches the meridians, and covers every longitude when
+     * the circle reaches a pole or crosses the 180th meridian. A point is checked against the bounding box first, so
+     * only the points inside it cost the sines and cosine of the haversine, which is compared to the haversine of the
+     * radius: the distances themselves are never computed
+     */
+    static final class Circle {
+        final double minLatitude;
+        final double maxLatitude;
+        final double minLongitude;
+        final double maxLongitude;
+        private final Origin center;
+        private final double maxHaversine;
+
+        /**
+         * @param latitude:  the latitude of the center, in degrees
+         * @param longitude: the longitude of the center, in degrees
+         * @param km:        the radius, a positive number of kilometres
+         */
+        Circle(double latitude, double longitude, double km) {
+            if (!(km > 0)) {
+                throw new IllegalArgumentException("the radius must be a positive number of km; got " + km);
+            }
+            center = new Origin(latitude, longitude);
+            double angle = Math.min(Math.PI, km / EARTH_RADIUS_KM);
+            double sinHalfAngle = Math.sin(angle / 2);
+            maxHaversine = sinHalfAngle * sinHalfAngle;
+            double span = Math.toDegrees(angle);
+            if (latitude - span <= -90 || latitude + span >= 90) {
+                minLatitude = Math.max(-90, latitude - span);
+                maxLatitude = Math.min(90, latitude + span);
+                minLongitude = -180;
+                maxLongitude = 180;
+                return;
+            }
+            minLatitude = latitude - span;
+            maxLatitude = latitude + span;
+            double longitudeSpan = Math.toDegrees(Math.asin(Math.min(1, Math.sin(angle) / center.cosLatitude)));
+            if (longitude - longitudeSpan < -180 || longitude + longitudeSpan > 180) {
+                minLongitude = -180;
+                maxLongitude = 180;
+            } else {
+                minLongitude = longitude - longitudeSpan;
+                maxLongitude = longitude + longitudeSpan;
+            }
+        }
+
+        boolean contains(double latitude, double longitude) {
+            return latitude >= minLatitude && latitude <= maxLatitude
+                    && longitude >= minLongitude && longitude <= maxLongitude
+                    && center.haversine(latitude, longitude) <= maxHaversine;
+        }
+    }
+
+    /**
+     * The point distances are measured from, with the values of its latitude the haversine formula needs
+     */
+    private static final class Origin {
+        final double latitude;
+        final double longitude;
+        final double cosLatitude;
+        final double tanLatitude;
+
+        Origin(double latitude, double longitude) {
+            this.latitude = latitude;
+            this.longitude = longitude;
+            cosLatitude = Math.cos(Math.toRadians(latitude));
+            tanLatitude = Math.tan(Math.toRadians(latitude));
+        }
+
+        /**
+         * The haversine of the central angle between the origin and the point, from 0 to 1, which grows with the
+         * distance between them
+         */
+        double haversine(double latitude, double longitude) {
+            double sinLatitude = Math.sin(Math.toRadians(latitude - this.latitude) / 2);
+            double sinLongitude = Math.sin(Math.toRadians(longitude - this.longitude) / 2);
+            return sinLatitude * sinLatitude
+                    + cosLatitude * Math.cos(Math.toRadians(latitude)) * sinLongitude * sinLongitude;
+        }
+
+        double distanceKm(double latitude, double longitude) {
+            return 2 * EARTH_RADIUS_KM * Math.asin(Math.min(1, Math.sqrt(haversine(latitude, longitude))));
+        }
+    }
+
+    /**
+     * A binary min-heap of items by distance
+     */
+    private static class DistanceQueue {
+        private double[] distances = new double[64];
+        private int[] items = new int[64];
+        private int size;
+
+        boolean isEmpty() {
+            return size == 0;
+        }
+
+        void add(double distance, int item) {
+            if (size == items.length) {
+                distances = Arrays.copyOf(distances, size * 2);
+                items = Arrays.copyOf(items, size * 2);
+            }
+            int i = size++;
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (distances[parent] <= distance) {
+                    break;
+                }
+                distances[i] = distances[parent];
+                items[i] = items[parent];
+                i = parent;
+            }
+            distances[i] = distance;
+            items[i] = item;
+        }
+
+        /**
+         * Removes the item with the smallest distance and returns it
+         */
+        int poll() {
+            int first = items[0];
+            size--;
+            double distance = distances[size];
+            int item = items[size];
+            int i = 0;
+            while (2 * i + 1 < size) {
+                int child = 2 * i + 1;
+                if (child + 1 < size && distances[child + 1] < distances[child]) {
+                    child++;
+                }
+                if (distance <= distances[child]) {
+                    break;
+                }
+                distances[i] = distances[child];
+                items[i] = items[child];
+                i = child;
+            }
+            distances[i] = distance;
+            items[i] = item;
+            return first;
+        }
+    }
+
+    /**
+     * Estimate the number of documents whose point is in the given box, assuming the points are spread evenly over
+     * the bounding box of the tree. Only the root is read, so the estimate is much cheaper than the search
+     */
+    long estimate(double minLatitude, double maxLatitude, double minLongitude, double maxLongitude) {
+        if (!built) {
+            build();
+        }
+        if (root < 0) {
+            return 0;
+        }
+        double latitudeShare = overlap(minLatitude, maxLatitude, minLatitudes[root], maxLatitudes[root]);
+        double longitudeShare = overlap(minLongitude, maxLongitude, minLongitudes[root], maxLongitudes[root]);
+        return (long) Math.ceil(size * latitudeShare * longitudeShare);
+    }
+
+    /**
+     * The share of the range "nodeMin - nodeMax" covered by the range "min - max"
+     */
+    private static double overlap(double min, double max, double nodeMin, double nodeMax) {
+        double from = Math.max(min, nodeMin);
+        double to = Math.min(max, nodeMax);
+        if (from > to) {
+            return 0;
+        }
+        return nodeMax > nodeMin ? (to - from) / (nodeMax - nodeMin) : 1;
+    }
+
+    /**
+     * Set the bounds and the children "from - to" of a node, from the bounds of its children
+     */
+    private void setNode(int node, int from, int to, double[] childMinLatitudes, double[] childMaxLatitudes,
+                         double[] childMinLongitudes, double[] childMaxLongitudes) {
+        double minLatitude = Double.POSITIVE_INFINITY;
+        double maxLatitude = Double.NEGATIVE_INFINITY;
+        double minLongitude = Double.POSITIVE_INFINITY;
+        double maxLongitude = Double.NEGATIVE_INFINITY;
+        for (int i = from; i < to; i++) {
+            minLatitude = Math.min(minLatitude, childMinLatitudes[i]);
+            maxLatitude = Math.max(maxLatitude, childMaxLatitudes[i]);
+            minLongitude = Math.min(minLongitude, childMinLongitudes[i]);
+            maxLongitude = Math.max(maxLongitude, childMaxLongitudes[i]);
+        }
+        minLatitudes[node] = minLatitude;
+        maxLatitudes[node] = maxLatitude;
+        minLongitudes[node] = minLongitude;
+        maxLongitudes[node] = maxLongitude;
+        childFrom[node] = from;
+        childTo[node] = to;
+    }
+
+    /**
+     * Reorder the nodes of a level starting at "levelFrom"
+     */
+    private void permuteLevel(int levelFrom, int[] order) {
+        int count = order.length;
+        double[] minLat = new double[count];
+        double[] maxLat = new double[count];
+        double[] minLon = new double[count];
+        double[] maxLon = new double[count];
+        int[] from = new int[count];
+        int[] to = new int[count];
+        for (int i = 0; i < count; i++) {
+            int node = levelFrom + order[i];
+            minLat[i] = minLatitudes[node];
+            maxLat[i] = maxLatitudes[node];
+            minLon[i] = minLongitudes[node];
+            maxLon[i] = maxLongitudes[node];
+            from[i] = childFrom[node];
+            to[i] = childTo[node];
+        }
+        System.arraycopy(minLat, 0, minLatitudes, levelFrom, count);
+        System.arraycopy(maxLat, 0, maxLatitudes, levelFrom, count);
+        System.arraycopy(minLon, 0, minLongitudes, levelFrom, count);
+        System.arraycopy(maxLon, 0, maxLongitudes, levelFrom, count);
+        System.arraycopy(from, 0, childFrom, levelFrom, count);
+        System.arraycopy(to, 0, childTo, levelFrom, count);
+    }
+
+    /**
+     * The Sort-Tile-Recursive order of "n" items: sorted by longitude, cut into slices of about sqrt(n / capacity)
+     * groups, and each slice sorted by latitude
+     * @return the indices of the items in STR order
+     */
+    private static int[] strOrder(double[] latitudes, double[] longitudes, int n) {
+        int[] order = new int[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = i;
+        }
+        sortByKey(order, 0, n, longitudes);
+        int groups = divideRoundingUp(n, NODE_CAPACITY);
+        int slices = (int) Math.ceil(Math.sqrt(groups));
+        int sliceSize = divideRoundingUp(groups, slices) * NODE_CAPACITY;
+        for (int from = 0; from < n; from += sliceSize) {
+            sortByKey(order, from, Math.min(n, from + sliceSize), latitudes);
+        }
+        return order;
+    }
+
+    /**
+     * Sort the indices "from - to" of "order" by their key, with a quicksort finishing with an insertion sort
+     */
+    private static void sortByKey(int[] order, int from, int to, double[] keys) {
+        while (to - from > 16) {
+            int mid = (from + to) >>> 1;
+            double pivot = median(keys[order[from]], keys[order[mid]], keys[order[to - 1]]);
+            int i = from;
+            int j = to - 1;
+            while (i <= j) {
+                while (keys[order[i]] < pivot) {
+                    i++;
+                }
+                while (keys[order[j]] > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    int tmp = order[i];
+                    order[i] = order[j];
+                    order[j] = tmp;
+                    i++;
+                    j--;
+                }
+            }
+            // recurse into the smaller part, loop on the larger one
+            if (j - from < to - i) {
+                sortByKey(order, from, j + 1, keys);
+                from = i;
+            } else {
+                sortByKey(order, i, to, keys);
+                to = j + 1;
+            }
+        }
+        for (int i = from + 1; i < to; i++) {
+            int item = order[i];
+            double key = keys[item];
+            int j = i - 1;
+            while (j >= from && keys[order[j]] > key) {
+                order[j + 1] = order[j];
+                j--;
+            }
+            order[j + 1] = item;
+        }
+    }
+
+    private static double median(double a, double b, double c) {
+        return Math.max(Math.min(a, b), Math.min(Math.max(a, b), c));
+    }
+
+    private static double[] permute(double[] values, int[] order, int n) {
+        double[] result = new double[Math.max(16, values.length)];
+        for (int i = 0; i < n; i++) {
+            result[i] = values[order[i]];
+        }
+        return result;
+    }
+
+    private static int[] permute(int[] values, int[] order, int n) {
+        int[] result = new int[Math.max(16, values.length)];
+        for (int i = 0; i < n; i++) {
+            result[i] = values[order[i]];
+        }
+        return result;
+    }
+
+    private static int divideRoundingUp(int a, int b) {
+        return (a + b - 1) / b;
+    }
+}
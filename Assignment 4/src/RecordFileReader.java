@@ -0,0 +1,168 @@
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * RecordFileReader reads the documents of a record file by memory-mapping it, instead of reading it line by line into
+ * Strings. The file is mapped in windows of at most WINDOW_SIZE bytes, and each record is tokenized at the byte level:
+ * a pass over the bytes of a line finds the commas outside quotes, and only the 6 columns of a Document are decoded
+ * from UTF-8 into Strings. Each document is handed to a RecordHandler as soon as it is read, so the file is never
+ * held in memory as a list of lines.
+ * Like Document.parseCVSLine, a quote switches between quoted and unquoted text and is dropped, and a line is a
+ * record even if it ends inside quotes.
+ */
+class RecordFileReader {
+    private static final int WINDOW_SIZE = 64 << 20;
+
+    // the columns of the record file used by a Document
+    private static final int ID = 0;
+    private static final int NAME = 1;
+    private static final int TYPE = 4;
+    private static final int LATITUDE = 8;
+    private static final int LONGITUDE = 9;
+    private static final int REGION = 10;
+    private static final int COLUMNS = 11;
+
+    /**
+     * Receives the documents of the record file, in the order of the file
+     */
+    interface RecordHandler {
+        void record(Document doc);
+    }
+
+    private final int[] columnStarts = new int[COLUMNS];
+    private final int[] columnEnds = new int[COLUMNS];
+    private byte[] scratch = new byte[256];
+    private MappedByteBuffer window;
+    private boolean lastWindow;
+    private int count;
+
+    private RecordFileReader() {
+    }
+
+    /**
+     * Reads every record of the file after the header line
+     * @param file:    the record file, encoded in UTF-8
+     * @param handler: receives the documents
+     * @return the number of documents read
+     */
+    static int read(Path file, RecordHandler handler) throws IOException {
+        return new RecordFileReader().readFile(file, handler);
+    }
+
+    private int readFile(Path file, RecordHandler handler) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long fileSize = channel.size();
+            long windowStart = 0;
+            boolean header = true;
+            while (windowStart < fileSize) {
+                int length = (int) Math.min(WINDOW_SIZE, fileSize - windowStart);
+                lastWindow = windowStart + length == fileSize;
+                window = channel.map(FileChannel.MapMode.READ_ONLY, windowStart, length);
+                // read the lines that end in this window, the incomplete last line is read again in the next window
+                int lineStart = 0;
+                while (lineStart < length) {
+                    int lineEnd = header ? endOfLine(lineStart, length) : readRecord(lineStart, length, handler);
+                    if (lineEnd < 0) {
+                        break;
+                    }
+                    header = false;
+                    lineStart = lineEnd + 1;
+                }
+                if (lineStart == 0 && !lastWindow) {
+                    throw new IOException(file + " has a line longer than " + WINDOW_SIZE + " bytes");
+                }
+                windowStart += Math.min(lineStart, length);
+            }
+        } finally {
+            window = null;
+        }
+        return count;
+    }
+
+    /**
+     * @return the position of the '\n' ending the line starting at "from", "limit" if the line ends with the file,
+     * -1 if the line continues in the next window
+     */
+    private int endOfLine(int from, int limit) {
+        for (int p = from; p < limit; p++) {
+            if (window.get(p) == '\n') {
+                return p;
+            }
+        }
+        return lastWindow ? limit : -1;
+    }
+
+    /**
+     * Reads the record of the line starting at "from" and passes its document to the handler. Empty lines are skipped
+     * @return the position of the '\n' ending the line, "limit" if the line ends with the file, -1 if the line
+     * continues in the next window, in which case the record is not read
+     */
+    private int readRecord(int from, int limit, RecordHandler handler) {
+        int column = 0;
+        boolean quoted = false;
+        columnStarts[0] = from;
+        int p = from;
+        for (; p < limit; p++) {
+            byte b = window.get(p);
+            if (b == '\n') {
+                break;
+            }
+            if (b == '"') {
+                quoted = !quoted;
+            } else if (b == ',' && !quoted && column < COLUMNS) {
+                columnEnds[column] = p;
+                column++;
+                if (column < COLUMNS) {
+                    columnStarts[column] = p + 1;
+                }
+            }
+        }
+        int lineEnd = p;
+        if (lineEnd == limit && !lastWindow) {
+            return -1;
+        }
+        int end = lineEnd > from && window.get(lineEnd - 1) == '\r' ? lineEnd - 1 : lineEnd;
+        if (end == from) {
+            return lineEnd;
+        }
+        if (column < COLUMNS) {
+            columnEnds[column] = end;
+        }
+        if (column + 1 < COLUMNS) {
+            throw new IllegalArgumentException(decode(from, end) + " is not a valid record");
+        }
+        count++;
+        handler.record(new Document(column(ID), column(NAME), column(TYPE), column(LATITUDE), column(LONGITUDE),
+                column(REGION)));
+        return lineEnd;
+    }
+
+    /**
+     * Decodes a column of the current record, without its quotes
+     */
+    private String column(int column) {
+        int from = columnStarts[column];
+        int to = columnEnds[column];
+        if (scratch.length < to - from) {
+            scratch = new byte[Math.max(to - from, 2 * scratch.length)];
+        }
+        int length = 0;
+        for (int p = from; p < to; p++) {
+            byte b = window.get(p);
+            if (b != '"') {
+                scratch[length++] = b;
+            }
+        }
+        return new String(scratch, 0, length, StandardCharsets.UTF_8);
+    }
+
+    private String decode(int from, int to) {
+        byte[] bytes = new byte[to - from];
+        window.get(from, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -1,217 +1,1689 @@
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Locale;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * A SearchIndex is an in-memory that includes:
  * - Inverted index for name
  * - Inverted index for region
  * - Inverted index for type
- * - AVLTree for id
- * - B+Tree for locations(latitude, longitude)
+ * - optionally, a trigram index for name and one for region, used to search substrings of words (CONTAINS)
+ * - AVLTree for id, replaced by a read-only Eytzinger tree once the index is frozen
+ * - B+Tree for coordinates, used to search places AT a coordinate
+ * - R-tree for locations(latitude, longitude), used to search places WITHIN two coordinates, within a RADIUS of a
+ * coordinate, or NEAR one
+ * Every document gets a dense ordinal (0, 1, 2, ...) in the order it is added. The indices store ordinals instead of
+ * ids, and "documents" maps an ordinal back to its document.
+ * Several threads may search and print the index at once, under its read lock: the structures built on first use are
+ * built under the monitor of the index, each thread analyzes its queries with its own Analyzer, and the query cache is
+ * synchronized. Adding, updating and deleting documents take the write lock.
+ * A deleted document, or the old version of an updated document, keeps its ordinal: the ordinal is marked in the
+ * "deleted" bitset, filtered out of every search, until "compact" removes the deleted ordinals from the indices.
  */
-public class SearchIndex {
+public class SearchIndex implements Closeable {
     static String[] STOP_WORDS = {"a", "aux", "des", "du", "of", "la", "sur", "de", "the", "à"};
+    // the B+ trees are bulk loaded with some room left in each node for later insertions
+    private static final double BULK_LOAD_FILL_FACTOR = 0.9;
+    // the default number of ordinals held by the query cache
+    static final long DEFAULT_QUERY_CACHE_ORDINALS = 1 << 20;
+    // number of documents below which an analysis task of the parallel build is not split any more
+    private static final int ANALYZE_SPLIT_THRESHOLD = 1024;
+    // number of edits allowed by a FUZZY query which does not give one
+    private static final int DEFAULT_FUZZY_DISTANCE = 1;
+    // a compaction is started in the background once the documents deleted since the last one reach this share of
+    // the documents
+    private static final double COMPACTION_DELETED_SHARE = 0.1;
+    // the page files of the B+ Tree of a paged index, each compaction builds its tree in the one not in use
+    private static final String[] COORDINATE_PAGE_FILES = {"coordinate.pages", "coordinate.compacted.pages"};
+    // the rebuilds of a compaction done under the read lock before one is done under the write lock
+    static final int MAX_COMPACTION_ATTEMPTS = 3;
+    // the first bytes of a snapshot file, and the version of its format
+    private static final int SNAPSHOT_MAGIC = 0x53494458; // "SIDX"
+    private static final int SNAPSHOT_VERSION = 3;
 
-    final BalancedBST<String, Document> byId = new BalancedBST<>();
-    final InvertedIndex wordedNameIndex = new InvertedIndex();
-    final InvertedIndex fullNameIndex = new InvertedIndex();
-    final InvertedIndex wordedRegionIndex = new InvertedIndex();
-    final InvertedIndex fullRegionIndex = new InvertedIndex();
-    final InvertedIndex wordedTypeIndex = new InvertedIndex();
-    final InvertedIndex fullTypeIndex = new InvertedIndex();
-    final BPlusTree<Double, String> byLatitude = new BPlusTree<>(16);
-    final BPlusTree<Double, String> byLongitude = new BPlusTree<>(16);
-    final BPlusTree<Coordinate, String> byCoordinate = new BPlusTree<>(16);
+    List<Document> documents = new ArrayList<>(); // the documents of the snapshot file once a snapshot is loaded
+    BalancedBST<String, Integer> byId = new BalancedBST<>();
+    EytzingerTree<String> frozenById; // built from byId by freeze, or from a loaded snapshot
+    // the terms of all inverted indices, analyzed by the same pipeline at index time and at query time
+    final TermDictionary terms = new TermDictionary();
+    private final ThreadLocal<Analyzer> analyzers = new ThreadLocal<Analyzer>() {
+        @Override
+        protected Analyzer initialValue() {
+            return Analyzer.standard(terms, STOP_WORDS);
+        }
+    };
+    InvertedIndex wordedNameIndex = new InvertedIndex(terms);
+    InvertedIndex fullNameIndex = new InvertedIndex(terms);
+    InvertedIndex wordedRegionIndex = new InvertedIndex(terms);
+    InvertedIndex fullRegionIndex = new InvertedIndex(terms);
+    InvertedIndex wordedTypeIndex = new InvertedIndex(terms);
+    InvertedIndex fullTypeIndex = new InvertedIndex(terms);
+    // the trigrams of the names and regions, null unless "enableSubstringIndex" was called
+    private final TermDictionary trigrams = new TermDictionary();
+    TrigramIndex trigramNameIndex;
+    TrigramIndex trigramRegionIndex;
+    BPlusTree<Coordinate, Integer> byCoordinate;
+    RTree byLocation = new RTree();
+    // the coordinates added while the B+ Tree is empty, bulk loaded into it at once; null once loaded
+    private List<BPlusTree.Entry<Coordinate, Integer>> pendingCoordinates = new ArrayList<>();
+    // the sections of a loaded snapshot which are only read on first use, null once read: the ids with their ordinals
+    // for the Eytzinger tree, and the ordinals sorted by coordinate for the B+ Tree
+    private ByteBuffer snapshotIds;
+    private int[] snapshotCoordinateOrder;
+    private final List<PagedDisk<Integer>> pagedDisks = new ArrayList<>();
+    private int bufferPoolPages; // the pages of each paged disk kept in memory
+    // the coordinate of each document by ordinal, used to check a WITHIN or RADIUS clause on a few candidates
+    private double[] latitudes = new double[16];
+    private double[] longitudes = new double[16];
+    private volatile QueryCache cache = new QueryCache(DEFAULT_QUERY_CACHE_ORDINALS);
+    private boolean frozen;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private int modCount; // number of documents added, a result iterator fails if a document is added meanwhile
+    // the ordinals of the deleted documents, and the ordinal of each id added once the index is frozen, which takes
+    // precedence over the Eytzinger tree until the next compaction
+    private final BitSet deleted = new BitSet();
+    private int deletedSinceCompaction; // number of deleted ordinals still held by the indices
+    private HashMap<String, Integer> addedIds = new HashMap<>();
+    private final Object compactionLock = new Object(); // held by the compaction, so only one runs at a time
+    private final AtomicBoolean compactionScheduled = new AtomicBoolean();
+    private volatile Thread backgroundCompaction;
+    // run by a compaction once its structures are rebuilt, before it takes the write lock to swap them in, so a test
+    // can change the index during the rebuild
+    volatile Runnable beforeCompactionSwap;
+
+    /**
+     * Creates an index whose B+ Trees keep their values in memory
+     */
+    public SearchIndex() {
+        byCoordinate = new BPlusTree<>(16);
+    }
+
+    /**
+     * Creates an index whose B+ Trees store their values in page files of the given directory, each tree holding at
+     * most "bufferPoolPages" pages in memory. Only the values are paged, the nodes stay in the heap, so the index
+     * cannot be reopened from the page files: they are truncated and rewritten from scratch
+     */
+    public SearchIndex(Path pageDirectory, int bufferPoolPages) throws IOException {
+        this.bufferPoolPages = bufferPoolPages;
+        try {
+            PagedDisk<Integer> disk = openPagedDisk(pageDirectory.resolve(COORDINATE_PAGE_FILES[0]));
+            pagedDisks.add(disk);
+            byCoordinate = new BPlusTree<>(16, disk);
+        } catch (IOException | RuntimeException e) {
+            close();
+            throw e;
+        }
+    }
+
+    private PagedDisk<Integer> openPagedDisk(Path file) throws IOException {
+        return PagedDisk.open(file, PagedDisk.INT_CODEC, PagedDisk.DEFAULT_PAGE_SIZE, bufferPoolPages, true);
+    }
+
+    /**
+     * Opens the page file of the B+ Tree built by a compaction: the one of the two coordinate page files which the
+     * current tree does not use, so the searches go on reading the current one during the rebuild
+     */
+    private PagedDisk<Integer> openCompactedPagedDisk(PagedDisk<Integer> current) {
+        Path file = current.getFile();
+        String other = file.getFileName().toString().equals(COORDINATE_PAGE_FILES[0])
+                ? COORDINATE_PAGE_FILES[1] : COORDINATE_PAGE_FILES[0];
+        try {
+            return openPagedDisk(file.resolveSibling(other));
+        } catch (IOException e) {
+            throw new UncheckedIOException("failed to open a page file for the compaction", e);
+        }
+    }
+
+    private static void deletePagedDisk(PagedDisk<Integer> disk) {
+        try {
+            disk.delete();
+        } catch (IOException e) {
+            throw new UncheckedIOException("failed to delete " + disk.getFile(), e);
+        }
+    }
+
+    /**
+     * Replaces the query cache by an empty one holding at most "maxOrdinals" ordinals, 0 to disable the cache
+     */
+    public void setQueryCacheSize(long maxOrdinals) {
+        cache = new QueryCache(maxOrdinals);
+    }
+
+    /**
+     * Builds a trigram index of the names and one of the regions along with the other indices, so a CONTAINS clause
+     * on those fields only verifies the documents having every trigram of its substring instead of every document.
+     * Must be called on an empty index; a loaded snapshot has the trigram indices only if it was written with them
+     */
+    public void enableSubstringIndex() {
+        lock.writeLock().lock();
+        try {
+            if (!documents.isEmpty() || frozen) {
+                throw new IllegalStateException("the substring index can only be enabled on an empty index");
+            }
+            trigramNameIndex = new TrigramIndex(trigrams);
+            trigramRegionIndex = new TrigramIndex(trigrams);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Waits for the background compaction, if any, then closes the page files of the B+ Trees, if any
+     */
+    @Override
+    public void close() throws IOException {
+        Thread compaction = backgroundCompaction;
+        if (compaction != null) {
+            try {
+                compaction.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        IOException failure = null;
+        for (PagedDisk<Integer> disk : pagedDisks) {
+            try {
+                disk.close();
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
 
     /**
      * This method adds a given document to 1 BST (used for the search by id), 6 inverted indices(2 used for the
-     * search by name, 2 used for the search by region, 2 used for the search by type), 3 B+ Trees (used for the
-     * search by latitude, search by longitude, search by coordinates)
+     * search by name, 2 used for the search by region, 2 used for the search by type), 1 B+ Tree (used for the
+     * search by coordinates) and 1 R-tree (used for the search within two coordinates), and when the substring index
+     * is enabled to 2 trigram indices (used for the search of substrings of names and regions).
+     * The documents added to an empty index are not inserted into the B+ Tree one key at a time: their coordinates
+     * are kept aside, then sorted once and bulk loaded by "freeze" or by the first search AT a coordinate. A document
+     * added to a frozen index is appended to its structures, its id takes precedence over the Eytzinger tree
      */
     public void addDocument(Document doc) {
-        byId.add(doc.id, doc);
-        addTerms(fullNameIndex, wordedNameIndex, doc.id, doc.name);
-        addTerms(fullRegionIndex, wordedRegionIndex, doc.id, doc.region);
-        addTerms(fullTypeIndex, wordedTypeIndex, doc.id, doc.type);
-        // coordinate
-        Coordinate coordinate = new Coordinate(parseLatitude(doc.latitude), parseLongitude(doc.longitude));
-        byLatitude.add(coordinate.latitude, doc.id);
-        byLongitude.add(coordinate.longitude, doc.id);
-        byCoordinate.add(coordinate, doc.id);
+        lock.writeLock().lock();
+        try {
+            AnalyzedDocument analyzed = new AnalyzedDocument(doc, analyzers.get());
+            final int ordinal = addToBstAndInvertedIndices(doc, analyzed);
+            synchronized (this) {
+                if (frozen) {
+                    loadPendingCoordinates();
+                }
+                if (pendingCoordinates != null) {
+                    pendingCoordinates.add(new BPlusTree.Entry<>(analyzed.coordinate, ordinal));
+                } else {
+                    byCoordinate.add(analyzed.coordinate, ordinal);
+                }
+            }
+            byLocation.add(analyzed.coordinate.latitude, analyzed.coordinate.longitude, ordinal);
+        } finally {
+            lock.writeLock().unlock();
+        }
     }
 
     /**
-     * This method does the search for a given query, return a list of relevant documents
+     * This method adds a list of documents
      */
-    public List<Document> searchQuery(Query query) {
-        List<Query.Clause> clauses = query.getClauses();
-        //find intersection of all IDs matched with given clauses in a query
-        List<String> ids = searchOneClause(clauses.get(0));
-        for (int i = 1; i < clauses.size(); i++) {
-            List<String> other = searchOneClause(clauses.get(i));
-            ids = intersect(ids, other);
+    public void addDocuments(List<Document> docs) {
+        for (Document doc : docs) {
+            addDocument(doc);
         }
-        //find documents associated with the found IDs
-        List<Document> docs = new ArrayList<>();
-        for (String id : ids) {
-            Document doc = byId.get(id);
-            if (doc != null) {
-                docs.add(doc);
+    }
+
+    /**
+     * Bulk loads the coordinates kept aside by "addDocument" into the B+ Tree, then the B+ Tree is updated directly
+     */
+    private synchronized void loadPendingCoordinates() {
+        if (snapshotCoordinateOrder != null) {
+            pendingCoordinates = new ArrayList<>(snapshotCoordinateOrder.length);
+            for (int ordinal : snapshotCoordinateOrder) {
+                pendingCoordinates.add(new BPlusTree.Entry<>(new Coordinate(latitudes[ordinal], longitudes[ordinal]),
+                        ordinal));
             }
+            snapshotCoordinateOrder = null; // already sorted, so sorting it below is a single pass
+        }
+        if (pendingCoordinates != null) {
+            Collections.sort(pendingCoordinates);
+            byCoordinate.bulkLoad(pendingCoordinates, BULK_LOAD_FILL_FACTOR);
+            pendingCoordinates = null;
         }
-        return docs;
     }
 
     /**
-     * This method prints the indices
+     * This method adds a list of documents to an empty index using the threads of "pool". The documents are first
+     * split into ranges which are tokenized and parsed in parallel. Then each index is built by its own task: the
+     * tasks run concurrently, and each of them adds every document in the order of ordinals to a single index, so the
+     * indices need no locking and the posting lists stay sorted. When the index is not empty, the documents are
+     * added one by one like "addDocuments(docs)"
      */
-    public void printIndex(PrintStream out, String index) {
-        if ("name".equals(index)) {
-            out.println("PRINTING inverted index of the names of places");
-            wordedNameIndex.printIndex(out);
-        } else if ("region".equals(index)) {
-            out.println("PRINTING inverted index of the region names of places");
-            wordedRegionIndex.printIndex(out);
-        } else if ("type".equals(index)) {
-            out.println("PRINTING inverted index of the type of places");
-            fullTypeIndex.printIndex(out);
-        } else if ("id".equals(index)) {
-            out.println("PRINTING Balanced binary search tree of ids");
-            byId.printTree(out);
+    public void addDocuments(final List<Document> docs, ForkJoinPool pool) {
+        lock.writeLock().lock();
+        try {
+            if (!documents.isEmpty() || frozen) {
+                addDocuments(docs);
+                return;
+            }
+            final AnalyzedDocument[] analyzed = new AnalyzedDocument[docs.size()];
+            pendingCoordinates = null; // the B+ Tree is bulk loaded by its builder
+            cache.clear();
+            pool.invoke(new AnalyzeTask(docs, analyzed, 0, docs.size()));
+            documents.addAll(docs); // the ordinal of a document is its position in "docs"
+            for (int ordinal = analyzed.length - 1; ordinal >= 0; ordinal--) {
+                setCoordinate(ordinal, analyzed[ordinal].coordinate);
+            }
+
+            List<ForkJoinTask<?>> builders = new ArrayList<>();
+            builders.add(pool.submit(new Runnable() {
+                @Override
+                public void run() {
+                    for (int ordinal = 0; ordinal < analyzed.length; ordinal++) {
+                        byId.add(docs.get(ordinal).id, ordinal);
+                    }
+                }
+            }));
+            for (final Field field : Field.values()) {
+                builders.add(pool.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        InvertedIndex fullIndex = fullIndex(field);
+                        for (int ordinal = 0; ordinal < analyzed.length; ordinal++) {
+                            int fullTerm = analyzed[ordinal].fullTerm(field);
+                            if (fullTerm != TermDictionary.NOT_FOUND) {
+                                fullIndex.addTerm(ordinal, fullTerm);
+                            }
+                        }
+                    }
+                }));
+                builders.add(pool.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        InvertedIndex wordedIndex = wordedIndex(field);
+                        for (int ordinal = 0; ordinal < analyzed.length; ordinal++) {
+                            for (int term : analyzed[ordinal].terms(field)) {
+                                wordedIndex.addTerm(ordinal, term);
+                            }
+                        }
+                    }
+                }));
+                if (trigramIndex(field) != null) {
+                    builders.add(pool.submit(new Runnable() {
+                        @Override
+                        public void run() {
+                            TrigramIndex trigramIndex = trigramIndex(field);
+                            Analyzer analyzer = analyzers.get();
+                            for (int ordinal = 0; ordinal < analyzed.length; ordinal++) {
+                                trigramIndex.add(ordinal, analyzer.normalize(fieldText(docs.get(ordinal), field)));
+                            }
+                        }
+                    }));
+                }
+            }
+            builders.add(pool.submit(new Runnable() {
+                @Override
+                public void run() {
+                    List<BPlusTree.Entry<Coordinate, Integer>> coordinates = new ArrayList<>(analyzed.length);
+                    for (int ordinal = 0; ordinal < analyzed.length; ordinal++) {
+                        coordinates.add(new BPlusTree.Entry<>(analyzed[ordinal].coordinate, ordinal));
+                    }
+                    Collections.sort(coordinates);
+                    byCoordinate.bulkLoad(coordinates, BULK_LOAD_FILL_FACTOR);
+                }
+            }));
+            builders.add(pool.submit(new Runnable() {
+                @Override
+                public void run() {
+                    for (int ordinal = 0; ordinal < analyzed.length; ordinal++) {
+                        Coordinate coordinate = analyzed[ordinal].coordinate;
+                        byLocation.add(coordinate.latitude, coordinate.longitude, ordinal);
+                    }
+                    byLocation.build();
+                }
+            }));
+            // wait for every builder before reporting a failure, so no task is still writing to the index
+            RuntimeException failure = null;
+            for (ForkJoinTask<?> builder : builders) {
+                try {
+                    builder.join();
+                } catch (RuntimeException e) {
+                    if (failure == null) {
+                        failure = e;
+                    }
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * This method gives the document its ordinal, then adds it to the BST and the 6 inverted indices
+     * @return the ordinal of the document
+     */
+    private int addToBstAndInvertedIndices(Document doc, AnalyzedDocument analyzed) {
+        cache.clear();
+        modCount++;
+        final int ordinal = documents.size();
+        documents.add(doc);
+        setCoordinate(ordinal, analyzed.coordinate);
+        if (frozen) {
+            addedIds.put(doc.id, ordinal);
         } else {
-            throw new IllegalArgumentException("PRINT must be used with id or name or region or type");
+            byId.add(doc.id, ordinal);
+        }
+        Analyzer analyzer = analyzers.get();
+        for (Field field : Field.values()) {
+            addTerms(fullIndex(field), wordedIndex(field), ordinal, analyzed, field);
+            if (trigramIndex(field) != null) {
+                trigramIndex(field).add(ordinal, analyzer.normalize(fieldText(doc, field)));
+            }
+        }
+        return ordinal;
+    }
+
+    private void setCoordinate(int ordinal, Coordinate coordinate) {
+        if (ordinal >= latitudes.length) {
+            int length = Math.max(ordinal + 1, 2 * latitudes.length);
+            latitudes = Arrays.copyOf(latitudes, length);
+            longitudes = Arrays.copyOf(longitudes, length);
+        }
+        latitudes[ordinal] = coordinate.latitude;
+        longitudes[ordinal] = coordinate.longitude;
+    }
+
+    /**
+     * The text fields of a document, each one has a full and a worded inverted index
+     */
+    private enum Field {
+        NAME, REGION, TYPE
+    }
+
+    private InvertedIndex fullIndex(Field field) {
+        switch (field) {
+            case NAME:
+                return fullNameIndex;
+            case REGION:
+                return fullRegionIndex;
+            default:
+                return fullTypeIndex;
+        }
+    }
+
+    private InvertedIndex wordedIndex(Field field) {
+        switch (field) {
+            case NAME:
+                return wordedNameIndex;
+            case REGION:
+                return wordedRegionIndex;
+            default:
+                return wordedTypeIndex;
+        }
+    }
+
+    /**
+     * Returns the trigram index of the field, null if the field has none
+     */
+    private TrigramIndex trigramIndex(Field field) {
+        switch (field) {
+            case NAME:
+                return trigramNameIndex;
+            case REGION:
+                return trigramRegionIndex;
+            default:
+                return null;
+        }
+    }
+
+    private static String fieldText(Document doc, Field field) {
+        switch (field) {
+            case NAME:
+                return doc.name;
+            case REGION:
+                return doc.region;
+            default:
+                return doc.type;
+        }
+    }
+
+    /**
+     * The terms and the coordinate of a document, computed before the document is added to the indices
+     */
+    private static class AnalyzedDocument {
+        final int[][] terms; // the term ids of each field, for the worded indices
+        final int[] fullTerms; // the id of the joined terms of each field, for the full indices; NOT_FOUND if none
+        final Coordinate coordinate;
+
+        AnalyzedDocument(Document doc, Analyzer analyzer) {
+            coordinate = new Coordinate(parseLatitude(doc.latitude), parseLongitude(doc.longitude));
+            String[] texts = {doc.name, doc.region, doc.type};
+            terms = new int[texts.length][];
+            fullTerms = new int[texts.length];
+            for (int i = 0; i < texts.length; i++) {
+                analyzer.analyze(texts[i], true);
+                terms[i] = analyzer.terms();
+                fullTerms[i] = analyzer.fullTerm();
+            }
+        }
+
+        int[] terms(Field field) {
+            return terms[field.ordinal()];
+        }
+
+        int fullTerm(Field field) {
+            return fullTerms[field.ordinal()];
         }
     }
 
     /**
-     * This method decides if a string s is a stop word
+     * Analyzes the documents "from - to" of a list, splitting the range in two until it is small enough
      */
-    private static boolean isStopWord(String s) {
-        for (String w : STOP_WORDS) {
-            if (w.equals(s)) {
+    private class AnalyzeTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final List<Document> docs;
+        private final AnalyzedDocument[] analyzed;
+        private final int from;
+        private final int to;
+
+        AnalyzeTask(List<Document> docs, AnalyzedDocument[] analyzed, int from, int to) {
+            this.docs = docs;
+            this.analyzed = analyzed;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= ANALYZE_SPLIT_THRESHOLD) {
+                Analyzer analyzer = analyzers.get();
+                for (int i = from; i < to; i++) {
+                    analyzed[i] = new AnalyzedDocument(docs.get(i), analyzer);
+                }
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new AnalyzeTask(docs, analyzed, from, mid), new AnalyzeTask(docs, analyzed, mid, to));
+        }
+    }
+
+    /**
+     * This method is called once all documents are added. It switches the inverted indices to their read-only form,
+     * so the posting lists are packed and the terms sorted once instead of on every query or print, replaces the
+     * AVLTree of ids by an Eytzinger tree, bulk loads the B+ Tree and packs the R-tree
+     */
+    public void freeze() {
+        lock.writeLock().lock();
+        try {
+            if (frozen) {
+                return;
+            }
+            List<String> ids = new ArrayList<>(documents.size());
+            List<Integer> ordinals = new ArrayList<>(documents.size());
+            byId.collectInOrder(ids, ordinals);
+            int[] sortedOrdinals = new int[ordinals.size()];
+            for (int i = 0; i < sortedOrdinals.length; i++) {
+                sortedOrdinals[i] = ordinals.get(i);
+            }
+            frozenById = new EytzingerTree<>(ids, sortedOrdinals);
+            byId = null; // the AVLTree is only needed while documents are added
+            loadPendingCoordinates();
+            byLocation.build();
+            fullNameIndex.freeze();
+            wordedNameIndex.freeze();
+            fullRegionIndex.freeze();
+            wordedRegionIndex.freeze();
+            fullTypeIndex.freeze();
+            wordedTypeIndex.freeze();
+            terms.freeze();
+            if (trigramNameIndex != null) {
+                trigramNameIndex.freeze();
+                trigramRegionIndex.freeze();
+            }
+            trigrams.freeze();
+            frozen = true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * This method deletes the document with the given id. Its ordinal is only marked as deleted, so every search
+     * skips it at once, and the indices keep it until the next compaction. Once the documents deleted since the last
+     * compaction reach COMPACTION_DELETED_SHARE of the live documents of a frozen index, a compaction is started in
+     * the background
+     * @param id: the id of the document
+     * @return true if the document was deleted, false if there is no such document
+     */
+    public boolean deleteDocument(String id) {
+        boolean compactionDue;
+        lock.writeLock().lock();
+        try {
+            if (!markDeleted(id)) {
+                return false;
+            }
+            compactionDue = isCompactionDue();
+        } finally {
+            lock.writeLock().unlock();
+        }
+        if (compactionDue) {
+            compactInBackground();
+        }
+        return true;
+    }
+
+    /**
+     * This method replaces the document having the id of the given document by it, or adds it if there is no such
+     * document. The old version is deleted like by "deleteDocument" and the new one is added with a new ordinal, both
+     * under the write lock, so a search finds either version but never both
+     * @param doc: the new version of the document
+     * @return true if a document was replaced, false if the document was added
+     */
+    public boolean updateDocument(Document doc) {
+        boolean replaced;
+        boolean compactionDue;
+        lock.writeLock().lock();
+        try {
+            replaced = markDeleted(doc.id);
+            addDocument(doc);
+            compactionDue = replaced && isCompactionDue();
+        } finally {
+            lock.writeLock().unlock();
+        }
+        if (compactionDue) {
+            compactInBackground();
+        }
+        return replaced;
+    }
+
+    /**
+     * Marks the document with the given id as deleted, the write lock must be held
+     * @return false if there is no such document
+     */
+    private boolean markDeleted(String id) {
+        int ordinal = ordinalOf(id);
+        if (ordinal < 0) {
+            return false;
+        }
+        deleted.set(ordinal);
+        deletedSinceCompaction++;
+        return true;
+    }
+
+    private boolean isCompactionDue() {
+        // "documents" keeps a slot for every ordinal ever given, the compacted ones included
+        int liveDocuments = documents.size() - deleted.cardinality();
+        return frozen && deletedSinceCompaction >= COMPACTION_DELETED_SHARE * liveDocuments;
+    }
+
+    /**
+     * Starts "compact" on a background thread, unless a compaction is already started
+     */
+    public void compactInBackground() {
+        if (!compactionScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    compact();
+                } finally {
+                    compactionScheduled.set(false);
+                }
+            }
+        }, "index-compaction");
+        thread.setDaemon(true);
+        backgroundCompaction = thread;
+        thread.start();
+    }
+
+    /**
+     * This method removes the deleted ordinals from the indices of a frozen index. The inverted indices, the
+     * Eytzinger tree of ids, the B+ Tree and the R-tree are rebuilt without them under the read lock, so the searches
+     * go on meanwhile, then the new structures replace the old ones under the write lock. The old structures are not
+     * changed, so an iterator over a search started before goes on with them. The deleted documents are dropped from
+     * "documents", their ordinals stay deleted and are not given again. When a document is added during the rebuild,
+     * the rebuild starts over, and after MAX_COMPACTION_ATTEMPTS such rebuilds the last one holds the write lock, so
+     * the additions wait for it
+     */
+    public void compact() {
+        synchronized (compactionLock) {
+            for (int attempt = 0; attempt < MAX_COMPACTION_ATTEMPTS; attempt++) {
+                if (tryCompact()) {
+                    return;
+                }
+                // a document was added meanwhile
+            }
+            lock.writeLock().lock();
+            try {
+                tryCompact();
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * @return false if a document was added while the structures were rebuilt, in which case nothing is replaced
+     */
+    private boolean tryCompact() {
+        int startModCount;
+        BitSet removed;
+        InvertedIndex[] indices = new InvertedIndex[2 * Field.values().length];
+        TrigramIndex[] trigramIndices = new TrigramIndex[Field.values().length];
+        EytzingerTree<String> ids;
+        int[] coordinateOrder = null;
+        BPlusTree<Coordinate, Integer> coordinates = null;
+        PagedDisk<Integer> compactedDisk = null; // the page file of "coordinates", deleted unless it is swapped in
+        RTree locations;
+        try {
+            lock.readLock().lock();
+            try {
+                if (!frozen) {
+                    throw new IllegalStateException("only a frozen index can be compacted");
+                }
+                if (deletedSinceCompaction == 0) {
+                    return true;
+                }
+                startModCount = modCount;
+                removed = (BitSet) deleted.clone();
+                int i = 0;
+                for (Field field : Field.values()) {
+                    indices[i++] = fullIndex(field).compact(removed);
+                    indices[i++] = wordedIndex(field).compact(removed);
+                    if (trigramIndex(field) != null) {
+                        trigramIndices[field.ordinal()] = trigramIndex(field).compact(removed);
+                    }
+                }
+                List<String> liveIds = new ArrayList<>(documents.size());
+                List<Integer> liveOrdinals = new ArrayList<>(documents.size());
+                collectLiveIds(removed, liveIds, liveOrdinals);
+                ids = new EytzingerTree<>(liveIds, toArray(liveOrdinals));
+                synchronized (this) {
+                    if (snapshotCoordinateOrder != null) {
+                        // the B+ Tree of a loaded snapshot is not built yet, only its section is filtered
+                        coordinateOrder = liveOrdinalsByCoordinate(removed);
+                    } else {
+                        loadPendingCoordinates();
+                        List<BPlusTree.Entry<Coordinate, Integer>> entries = new ArrayList<>();
+                        for (int ordinal : liveOrdinalsByCoordinate(removed)) {
+                            entries.add(new BPlusTree.Entry<>(new Coordinate(latitudes[ordinal],
+                                    longitudes[ordinal]), ordinal));
+                        }
+                        BPlusTree.Disk<Integer> disk = byCoordinate.getDisk();
+                        if (disk instanceof PagedDisk) {
+                            // a page file is append-only, so the new tree gets a fresh one instead of growing it
+                            compactedDisk = openCompactedPagedDisk((PagedDisk<Integer>) disk);
+                            coordinates = new BPlusTree<>(16, compactedDisk);
+                        } else {
+                            coordinates = new BPlusTree<>(16);
+                        }
+                        coordinates.bulkLoad(entries, BULK_LOAD_FILL_FACTOR);
+                    }
+                }
+                locations = byLocation.compact(removed);
+            } finally {
+                lock.readLock().unlock();
+            }
+            Runnable hook = beforeCompactionSwap;
+            if (hook != null) {
+                hook.run();
+            }
+            lock.writeLock().lock();
+            try {
+                if (modCount != startModCount) {
+                    return false;
+                }
+                fullNameIndex = indices[0];
+                wordedNameIndex = indices[1];
+                fullRegionIndex = indices[2];
+                wordedRegionIndex = indices[3];
+                fullTypeIndex = indices[4];
+                wordedTypeIndex = indices[5];
+                trigramNameIndex = trigramIndices[Field.NAME.ordinal()];
+                trigramRegionIndex = trigramIndices[Field.REGION.ordinal()];
+                PagedDisk<Integer> retiredDisk = null;
+                synchronized (this) {
+                    frozenById = ids;
+                    if (coordinateOrder != null) {
+                        snapshotCoordinateOrder = coordinateOrder;
+                    } else {
+                        if (compactedDisk != null) {
+                            retiredDisk = (PagedDisk<Integer>) byCoordinate.getDisk();
+                            pagedDisks.set(pagedDisks.indexOf(retiredDisk), compactedDisk);
+                            compactedDisk = null;
+                        }
+                        byCoordinate = coordinates;
+                    }
+                }
+                byLocation = locations;
+                addedIds = new HashMap<>();
+                for (int ordinal = removed.nextSetBit(0); ordinal >= 0; ordinal = removed.nextSetBit(ordinal + 1)) {
+                    documents.set(ordinal, null);
+                }
+                // the documents deleted during the rebuild are still in the new structures
+                deletedSinceCompaction = deleted.cardinality() - removed.cardinality();
+                cache.clear();
+                if (retiredDisk != null) {
+                    // the searches read the B+ Tree under the read lock, so none reads the old page file any more
+                    deletePagedDisk(retiredDisk);
+                }
                 return true;
+            } finally {
+                lock.writeLock().unlock();
+            }
+        } finally {
+            if (compactedDisk != null) {
+                deletePagedDisk(compactedDisk);
             }
         }
-        return false;
     }
 
+    /**
+     * Collects the ids of the documents which are not deleted, in the order of ids, with their ordinals: the ids of
+     * the Eytzinger tree merged with the ids added since the index is frozen, which take precedence
+     */
+    private void collectLiveIds(BitSet removed, List<String> ids, List<Integer> ordinals) {
+        loadSnapshotIds();
+        List<String> treeIds = new ArrayList<>(documents.size());
+        List<Integer> treeOrdinals = new ArrayList<>(documents.size());
+        frozenById.collectInOrder(treeIds, treeOrdinals);
+        List<String> added = addedIds.getKeys();
+        Collections.sort(added);
+        int a = 0;
+        for (int t = 0; t <= treeIds.size(); t++) {
+            String treeId = t < treeIds.size() ? treeIds.get(t) : null;
+            boolean replaced = false;
+            while (a < added.size() && (treeId == null || added.get(a).compareTo(treeId) <= 0)) {
+                String id = added.get(a++);
+                int ordinal = addedIds.get(id);
+                if (!removed.get(ordinal)) {
+                    ids.add(id);
+                    ordinals.add(ordinal);
+                }
+                replaced |= id.equals(treeId);
+            }
+            if (treeId != null && !replaced && !removed.get(treeOrdinals.get(t))) {
+                ids.add(treeId);
+                ordinals.add(treeOrdinals.get(t));
+            }
+        }
+    }
 
     /**
-     * This method decides if a char c is a delimiter
+     * Returns the ordinals which are not deleted, sorted by coordinate
      */
-    private static boolean isDelimiter(char c) {
-        return c == ' ' || c == ';' || c == ',' || c == '(' || c == ')' || c == '|';
+    private synchronized int[] liveOrdinalsByCoordinate(BitSet removed) {
+        if (snapshotCoordinateOrder != null) {
+            int[] ordinals = new int[snapshotCoordinateOrder.length];
+            int count = 0;
+            for (int ordinal : snapshotCoordinateOrder) {
+                if (!removed.get(ordinal)) {
+                    ordinals[count++] = ordinal;
+                }
+            }
+            return Arrays.copyOf(ordinals, count);
+        }
+        List<Integer> ordinals = new ArrayList<>(documents.size());
+        for (int ordinal = 0; ordinal < documents.size(); ordinal++) {
+            if (!removed.get(ordinal)) {
+                ordinals.add(ordinal);
+            }
+        }
+        Collections.sort(ordinals, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer o1, Integer o2) {
+                int cmp = Double.compare(latitudes[o1], latitudes[o2]);
+                return cmp != 0 ? cmp : Double.compare(longitudes[o1], longitudes[o2]);
+            }
+        });
+        return toArray(ordinals);
+    }
+
+    private static int[] toArray(List<Integer> values) {
+        int[] array = new int[values.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = values.get(i);
+        }
+        return array;
     }
 
     /**
-     * This method tokenizes a string s
+     * This method writes the frozen index to a snapshot file, which "loadSnapshot" reads back instead of indexing the
+     * documents again. The file is a versioned header followed by a section for each structure, in this order: the
+     * deleted ordinals, the documents, the ids sorted with the ordinal of each id, the coordinates by ordinal, the
+     * ordinals sorted by coordinate, the term dictionary, the 6 inverted indices, the R-tree and, if the index has
+     * them, the trigram dictionary with the 2 trigram indices. The ids and the ordinals sorted by coordinate are only
+     * those of the documents which are not deleted. The file is written next to its destination and then moved over
+     * it, so a snapshot being written never replaces a good one
      */
-    private static List<String> tokenize(String s) {
-        List<String> words = new ArrayList<>();
-        String word = "";
-        char[] chars = s.toLowerCase().toCharArray();
-        for (char c : chars) {
-            if (isDelimiter(c)) {
-                words.add(word);
-                word = "";
-            } else {
-                word += c;
+    public void writeSnapshot(Path file) throws IOException {
+        lock.readLock().lock();
+        try {
+            if (!frozen) {
+                throw new IllegalStateException("only a frozen index can be written to a snapshot");
+            }
+            Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary),
+                    1 << 16))) {
+                int size = documents.size();
+                out.writeInt(SNAPSHOT_MAGIC);
+                out.writeInt(SNAPSHOT_VERSION);
+                long[] deletedWords = deleted.toLongArray();
+                out.writeInt(deletedWords.length);
+                SnapshotIO.writeLongs(out, deletedWords, deletedWords.length);
+                out.writeInt(deletedSinceCompaction);
+                MappedDocuments.write(out, documents);
+                List<String> ids = new ArrayList<>(size);
+                List<Integer> idOrdinals = new ArrayList<>(size);
+                collectLiveIds(deleted, ids, idOrdinals);
+                byte[][] encodedIds = new byte[ids.size()][];
+                int idsLength = 0;
+                for (int i = 0; i < encodedIds.length; i++) {
+                    encodedIds[i] = ids.get(i).getBytes(StandardCharsets.UTF_8);
+                    idsLength += 8 + encodedIds[i].length;
+                }
+                out.writeInt(encodedIds.length);
+                out.writeInt(idsLength);
+                for (int i = 0; i < encodedIds.length; i++) {
+                    out.writeInt(encodedIds[i].length);
+                    out.write(encodedIds[i]);
+                    out.writeInt(idOrdinals.get(i));
+                }
+                SnapshotIO.writeDoubles(out, latitudes, size);
+                SnapshotIO.writeDoubles(out, longitudes, size);
+                int[] byCoordinateOrder = liveOrdinalsByCoordinate(deleted);
+                out.writeInt(byCoordinateOrder.length);
+                SnapshotIO.writeInts(out, byCoordinateOrder, byCoordinateOrder.length);
+                terms.write(out);
+                for (Field field : Field.values()) {
+                    fullIndex(field).write(out);
+                    wordedIndex(field).write(out);
+                }
+                byLocation.write(out);
+                out.writeBoolean(trigramNameIndex != null);
+                if (trigramNameIndex != null) {
+                    trigrams.write(out);
+                    trigramNameIndex.write(out);
+                    trigramRegionIndex.write(out);
+                }
             }
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            lock.readLock().unlock();
         }
-        words.add(word);
-        List<String> stopWords = new ArrayList<>();
-        List<String> tokens = new ArrayList<>();
-        for (String w : words) {
-            if (!w.isEmpty()) {
-                if (isStopWord(w)) {
-                    stopWords.add(w);
+    }
+
+    /**
+     * This method loads a snapshot file written by "writeSnapshot" into this empty index, which is then frozen. The
+     * file is memory-mapped: the documents are read from the mapping when they are asked for, the term dictionary,
+     * the inverted indices and the R-tree are read from it at once, without analyzing a document or sorting anything,
+     * and the Eytzinger tree of ids and the B+ Tree are built from their sections by the first query using them
+     */
+    public void loadSnapshot(Path file) throws IOException {
+        lock.writeLock().lock();
+        try {
+            if (!documents.isEmpty() || frozen) {
+                throw new IllegalStateException("a snapshot can only be loaded into an empty index");
+            }
+            ByteBuffer in;
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                if (channel.size() > Integer.MAX_VALUE) {
+                    throw new IOException(file + " is too large for a snapshot");
+                }
+                in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
+            try {
+                if (in.remaining() < 8 || in.getInt() != SNAPSHOT_MAGIC) {
+                    throw new IOException(file + " is not a snapshot");
+                }
+                int version = in.getInt();
+                if (version != SNAPSHOT_VERSION) {
+                    throw new IOException(file + " is a snapshot of version " + version + ", expected "
+                            + SNAPSHOT_VERSION);
+                }
+                long[] deletedWords = new long[in.getInt()];
+                SnapshotIO.readLongs(in, deletedWords, deletedWords.length);
+                int deletedInIndices = in.getInt();
+                MappedDocuments mapped = new MappedDocuments(in);
+                int size = mapped.size();
+                in.getInt();
+                int idsLength = in.getInt();
+                ByteBuffer ids = in.slice(in.position() - 8, 8 + idsLength);
+                in.position(in.position() + idsLength);
+                latitudes = new double[size];
+                longitudes = new double[size];
+                SnapshotIO.readDoubles(in, latitudes, size);
+                SnapshotIO.readDoubles(in, longitudes, size);
+                int[] byCoordinateOrder = new int[in.getInt()];
+                SnapshotIO.readInts(in, byCoordinateOrder, byCoordinateOrder.length);
+                terms.read(in);
+                for (Field field : Field.values()) {
+                    fullIndex(field).read(in);
+                    wordedIndex(field).read(in);
+                }
+                byLocation.read(in);
+                if (in.get() != 0) {
+                    trigrams.read(in);
+                    trigramNameIndex = new TrigramIndex(trigrams);
+                    trigramRegionIndex = new TrigramIndex(trigrams);
+                    trigramNameIndex.read(in);
+                    trigramRegionIndex.read(in);
                 } else {
-                    tokens.add(w);
+                    trigramNameIndex = null;
+                    trigramRegionIndex = null;
                 }
+                // the Eytzinger tree and the B+ Tree are built from their sections when they are first used
+                synchronized (this) {
+                    byId = null;
+                    snapshotIds = ids;
+                    pendingCoordinates = null;
+                    snapshotCoordinateOrder = byCoordinateOrder;
+                }
+                documents = mapped;
+                deleted.or(BitSet.valueOf(deletedWords));
+                deletedSinceCompaction = deletedInIndices;
+            } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+                throw new IOException(file + " is a truncated snapshot", e);
             }
+            cache.clear();
+            frozen = true;
+        } finally {
+            lock.writeLock().unlock();
         }
-        // Some name contains only stop words id: EFJXB name: Aux type: Township 47.3333333,-76.2666667
-        if (tokens.isEmpty()) {
-            return stopWords;
-        } else {
-            return tokens;
+    }
+
+    /**
+     * Builds the Eytzinger tree of ids from the section of the loaded snapshot, if it is not built yet
+     */
+    private synchronized void loadSnapshotIds() {
+        if (snapshotIds == null) {
+            return;
         }
+        ByteBuffer in = snapshotIds;
+        int count = in.getInt();
+        in.getInt();
+        List<String> ids = new ArrayList<>(count);
+        int[] ordinals = new int[count];
+        byte[] bytes = new byte[64];
+        for (int i = 0; i < count; i++) {
+            int length = in.getInt();
+            if (bytes.length < length) {
+                bytes = new byte[Math.max(length, 2 * bytes.length)];
+            }
+            in.get(bytes, 0, length);
+            ids.add(new String(bytes, 0, length, StandardCharsets.UTF_8));
+            ordinals[i] = in.getInt();
+        }
+        frozenById = new EytzingerTree<>(ids, ordinals);
+        snapshotIds = null;
     }
 
     /**
-     * This method joins the "terms" in a list
+     * This method does the search for a given query, return a list of relevant documents, only the requested page if
+     * the query has a LIMIT or an OFFSET
      */
-    private static String joinStrings(List<String> terms) {
-        String s = "";
-        for (int i = 0; i < terms.size(); i++) {
-            if (i > 0) {
-                s += " ";
+    public List<Document> searchQuery(Query query) {
+        lock.readLock().lock();
+        try {
+            List<Document> docs = new ArrayList<>();
+            for (ResultIterator it = new ResultIterator(query); it.hasNextDocument(); ) {
+                docs.add(it.nextDocument());
+            }
+            return docs;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * This method does the search for a given query, returns an iterator over the relevant documents in the order of
+     * their ordinals, or the nearest first for a query with a NEAR clause. The documents are found while iterating: the
+     * clauses of a query with a LIMIT or an OFFSET are only intersected until the end of the page, so the cost of a
+     * page depends on its size and not on the number of documents matching the query. The documents of a query without
+     * a page, and of a query whose documents are in the query cache, are all found first. Each step of the iterator
+     * takes the read lock. The iterator fails with a ConcurrentModificationException if a document is added to the
+     * index meanwhile; a document deleted meanwhile is skipped, even once a compaction has dropped it, so the page may
+     * then hold fewer documents
+     */
+    public Iterator<Document> searchIterator(Query query) {
+        lock.readLock().lock();
+        try {
+            return new ResultIterator(query);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * The documents matching a query, found by moving a cursor over their ordinals. The deleted ordinals are skipped
+     * before the page is cut, so a page holds the requested number of documents. The cursor reads the live deleted
+     * ordinals, and the next ordinal, found one step ahead, is checked again when it is reached, so a document deleted
+     * during the iteration is skipped too. A compaction keeps the ordinals of the documents it drops deleted, so none
+     * of them is ever returned
+     */
+    private class ResultIterator implements Iterator<Document> {
+        private final DocCursor cursor;
+        private final int expectedModCount = modCount;
+        private int next;
+
+        ResultIterator(Query query) {
+            cursor = DocCursor.page(new LiveDocsCursor(searchOrdinals(query)), query.getOffset(), query.getLimit());
+            next = cursor.nextDoc();
+        }
+
+        @Override
+        public boolean hasNext() {
+            lock.readLock().lock();
+            try {
+                return hasNextDocument();
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        @Override
+        public Document next() {
+            lock.readLock().lock();
+            try {
+                return nextDocument();
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        /**
+         * Skips the next ordinal while it is deleted, the read lock must be held
+         */
+        boolean hasNextDocument() {
+            while (next != DocCursor.NO_MORE_DOCS && deleted.get(next)) {
+                next = cursor.nextDoc();
+            }
+            return next != DocCursor.NO_MORE_DOCS;
+        }
+
+        /**
+         * Moves to the next document, the read lock must be held
+         */
+        Document nextDocument() {
+            if (!hasNextDocument()) {
+                throw new NoSuchElementException();
+            }
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException("a document was added to the index during the search");
+            }
+            Document doc = documents.get(next);
+            next = cursor.nextDoc();
+            return doc;
+        }
+    }
+
+    /**
+     * Skips the deleted ordinals of a cursor
+     */
+    private class LiveDocsCursor extends DocCursor {
+        private final DocCursor candidates;
+        private int doc = -1;
+
+        LiveDocsCursor(DocCursor candidates) {
+            this.candidates = candidates;
+        }
+
+        @Override
+        int docId() {
+            return doc;
+        }
+
+        @Override
+        int nextDoc() {
+            return doc = firstLive(candidates.nextDoc());
+        }
+
+        @Override
+        int advance(int target) {
+            return doc = firstLive(candidates.advance(target));
+        }
+
+        @Override
+        long cost() {
+            return candidates.cost();
+        }
+
+        private int firstLive(int candidate) {
+            while (candidate != NO_MORE_DOCS && deleted.get(candidate)) {
+                candidate = candidates.nextDoc();
             }
-            s += terms.get(i);
+            return candidate;
         }
-        return s;
     }
 
     /**
-     * Intersects two lists of document ids and returns a result consisting of ids that exist in both of them
-     * list1: (1, 2, 3, 11, 20), list2: (3, 5, 7, 20) => result: (3, 20)
+     * This method does the search for a given query, returns a sequential stream over the relevant documents, see
+     * "searchIterator"
      */
-    private static List<String> intersect(List<String> first, List<String> second) {
-        // Use a map to avoid O(N^2)
-        HashMap<String, Integer> map = new HashMap<>(first.size());//the map used here is our own implementation
-        for (String id : first) {
-            map.put(id, 1);
+    public Stream<Document> searchStream(Query query) {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(searchIterator(query),
+                Spliterator.ORDERED | Spliterator.DISTINCT | Spliterator.NONNULL), false);
+    }
+
+    /**
+     * Returns a cursor over all the ordinals matching the clauses of the query. The ordinals found for a query
+     * without a page, and for the clauses searched on the R-tree, are kept in the query cache
+     */
+    private DocCursor searchOrdinals(Query query) {
+        QueryCache cache = this.cache;
+        Query.Clause near = nearClause(query.getClauses());
+        if (near != null) {
+            // the documents are ranked by distance, and the k nearest change when one of them is deleted, so they are
+            // not cached
+            return DocCursor.ranked(searchNearest(near, query.getClauses(), cache, null, true));
+        }
+        String key = query.normalized();
+        int[] ordinals = cache.get(key);
+        if (ordinals != null) {
+            return DocCursor.of(ordinals);
         }
-        List<String> result = new ArrayList<>();
-        for (String id : second) {
-            if (map.get(id) != null) {
-                result.add(id);
+        DocCursor cursor = searchClauses(query.getClauses(), cache, null);
+        if (query.isPaged()) {
+            return cursor;
+        }
+        ordinals = cursor.toArray();
+        cache.put(key, ordinals);
+        return DocCursor.of(ordinals);
+    }
+
+    /**
+     * This method plans a query like "searchQuery" and describes the plan, for the EXPLAIN and PROFILE commands. The
+     * query cache is bypassed, so the plan is the one of a query which is not cached
+     * @param run: false to only plan the query: the clauses are not intersected and no document is read, only the
+     *             R-tree searches chosen by the plan are run; true to run the query as well and time each step
+     */
+    public QueryProfile profileQuery(Query query, boolean run) {
+        lock.readLock().lock();
+        try {
+            QueryProfile profile = new QueryProfile(query, run);
+            long allocatedBefore = QueryProfile.allocatedBytes();
+            long start = System.nanoTime();
+            Query.Clause near = nearClause(query.getClauses());
+            DocCursor cursor = near != null
+                    ? DocCursor.ranked(searchNearest(near, query.getClauses(), new QueryCache(0), profile, run))
+                    : searchClauses(query.getClauses(), new QueryCache(0), profile);
+            if (!run) {
+                return profile;
+            }
+            if (!deleted.isEmpty()) {
+                cursor = new LiveDocsCursor(cursor);
+            }
+            long intersectionStart = System.nanoTime();
+            int[] ordinals = DocCursor.page(cursor, query.getOffset(), query.getLimit()).toArray();
+            long materializationStart = System.nanoTime();
+            List<Document> docs = new ArrayList<>(ordinals.length);
+            for (int ordinal : ordinals) {
+                docs.add(documents.get(ordinal));
+            }
+            long end = System.nanoTime();
+            long allocatedAfter = QueryProfile.allocatedBytes();
+            profile.ran(docs.size(), materializationStart - intersectionStart, end - materializationStart,
+                    end - start, allocatedBefore < 0 ? -1 : allocatedAfter - allocatedBefore);
+            return profile;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * This method prints the indices
+     */
+    public void printIndex(PrintStream out, String index) {
+        lock.readLock().lock();
+        try {
+            if ("name".equals(index)) {
+                out.println("PRINTING inverted index of the names of places");
+                wordedNameIndex.printIndex(out, documents);
+            } else if ("region".equals(index)) {
+                out.println("PRINTING inverted index of the region names of places");
+                wordedRegionIndex.printIndex(out, documents);
+            } else if ("type".equals(index)) {
+                out.println("PRINTING inverted index of the type of places");
+                fullTypeIndex.printIndex(out, documents);
+            } else if ("cache".equals(index)) {
+                out.println("PRINTING the query cache");
+                out.println("query cache: " + cache.stats());
+            } else if ("storage".equals(index)) {
+                out.println("PRINTING the storage of the B+ trees");
+                loadPendingCoordinates();
+                out.println("byCoordinate: " + byCoordinate.getDisk().stats());
+            } else if ("id".equals(index)) {
+                out.println("PRINTING Balanced binary search tree of ids");
+                BalancedBST.ValuePrinter<Integer> printer = new BalancedBST.ValuePrinter<Integer>() {
+                    @Override
+                    public String print(Integer ordinal) {
+                        return documents.get(ordinal).toString();
+                    }
+                };
+                loadSnapshotIds();
+                if (frozenById != null) {
+                    frozenById.printTree(out, printer);
+                } else {
+                    byId.printTree(out, printer);
+                }
+            } else {
+                throw new IllegalArgumentException("PRINT must be used with id or name or region or type or storage or "
+                        + "cache");
             }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Sorts the ordinals found in a B+ tree
+     */
+    private static int[] sortedOrdinals(List<Integer> ordinals) {
+        int[] result = new int[ordinals.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = ordinals.get(i);
         }
+        Arrays.sort(result);
         return result;
     }
 
     /**
-     * Unions two lists of document ids and returns a result consisting of ids that exist in either of them
-     * list1: (1, 2, 3, 11, 20), list2: (3, 5, 7, 20) => result: (1, 2, 3, 11, 20, 5, 7)
+     * This method plans and runs the search of the clauses of a query:
+     * - the clauses on the id, the inverted indices and the B+ Tree become cursors, which only read the sizes of the
+     * posting lists until they are iterated. A clause which has no document ends the search right away
+     * - the WITHIN and RADIUS clauses are estimated from the share of the R-tree covered by their box, or by their
+     * circle. Such a clause estimated to find fewer documents than the most selective cursor is searched on the R-tree
+     * and becomes a cursor too; otherwise it is not searched at all, and the coordinates of the candidates found by
+     * the cursors are checked against its box or circle instead
+     * - the cursors are intersected at once, led by the one with the fewest documents, so each of the other cursors
+     * only skips to the candidates of the leader
+     * @param profile: records the plan for EXPLAIN and PROFILE, null when the query is not profiled
+     * @return a cursor over the ordinals of the documents matching all the clauses
+     */
+    private DocCursor searchClauses(List<Query.Clause> clauses, QueryCache cache, QueryProfile profile) {
+        List<DocCursor> cursors = new ArrayList<>(clauses.size());
+        List<Box> boxes = new ArrayList<>();
+        for (Query.Clause clause : clauses) {
+            if (isAreaClause(clause)) {
+                boxes.add(parseArea(clause.getValue().trim()));
+                continue;
+            }
+            long start = profile != null ? System.nanoTime() : 0;
+            DocCursor cursor = searchOneClause(clause);
+            if (profile != null) {
+                profile.clause(clause.getField() + ": " + clause.getValue(), describeIndex(clause), cursor.cost(),
+                        cursor.cost() == 0 ? "no document, the search ends here" : "cursor",
+                        System.nanoTime() - start);
+            }
+            if (cursor.cost() == 0) {
+                return DocCursor.empty();
+            }
+            cursors.add(cursor);
+        }
+        List<Box> filters = new ArrayList<>(boxes.size());
+        if (!boxes.isEmpty()) {
+            long leadCost = Long.MAX_VALUE;
+            for (DocCursor cursor : cursors) {
+                leadCost = Math.min(leadCost, cursor.cost());
+            }
+            for (Box box : boxes) {
+                box.estimate = box.estimate(byLocation);
+            }
+            Collections.sort(boxes);
+            for (Box box : boxes) {
+                if (box.estimate < leadCost) {
+                    long start = profile != null ? System.nanoTime() : 0;
+                    int[] found = searchWithin(cache, box);
+                    if (profile != null) {
+                        profile.clause(box.key(), box.index(), box.estimate, "searched on the R-tree, "
+                                + found.length + " found" + (found.length == 0 ? ", the search ends here" : ""),
+                                System.nanoTime() - start);
+                    }
+                    if (found.length == 0) {
+                        return DocCursor.empty();
+                    }
+                    cursors.add(DocCursor.of(found));
+                    leadCost = Math.min(leadCost, found.length);
+                } else {
+                    if (profile != null) {
+                        profile.clause(box.key(), "coordinates by ordinal", box.estimate,
+                                "not searched, the coordinates of the candidates are checked against the "
+                                        + box.shape(), 0);
+                    }
+                    filters.add(box);
+                }
+            }
+        }
+        if (profile != null) {
+            profile.intersection(describeIntersection(cursors, filters.size()));
+        }
+        DocCursor candidates = DocCursor.and(cursors);
+        return filters.isEmpty() ? candidates : new WithinFilterCursor(candidates, filters);
+    }
+
+    /**
+     * Returns the NEAR clause of the clauses, null if there is none
+     */
+    private static Query.Clause nearClause(List<Query.Clause> clauses) {
+        Query.Clause near = null;
+        for (Query.Clause clause : clauses) {
+            if ("location".equals(clause.getField()) && clause.getValue().trim().startsWith("NEAR")) {
+                if (near != null) {
+                    throw new IllegalArgumentException("a query can only have one NEAR clause");
+                }
+                near = clause;
+            }
+        }
+        return near;
+    }
+
+    /**
+     * This method searches the k documents nearest to the point of a NEAR(latitude,longitude | k) clause among the
+     * documents matching the other clauses, returns their ordinals, the nearest first. The other clauses are searched
+     * into a bitset, which filters the points of the best-first search on the R-tree with the deleted ordinals, so
+     * the search goes on until it finds k documents matching every clause, or runs out of points
+     * @param profile: records the clauses if not null
+     * @param run:     false to only plan the search, which then finds nothing
      */
-    private static List<String> union(List<String> first, List<String> second) {
-        // Use a map to avoid O(N^2)
-        HashMap<String, Integer> map = new HashMap<>(first.size() + second.size()); //the map used here is our own implementation
-        for (String id : first) {
-            map.put(id, 1);
+    private int[] searchNearest(Query.Clause near, List<Query.Clause> clauses, QueryCache cache, QueryProfile profile,
+                                boolean run) {
+        String[] parts = trimQueryOperator(near.getValue().trim()).split("\\|");
+        if (parts.length != 2) {
+            throw new IllegalArgumentException("NEAR must be given a coordinate and a number of documents; got "
+                    + near.getValue());
+        }
+        Coordinate point = parseCoordinate(parts[0]);
+        int k;
+        try {
+            k = Integer.parseInt(parts[1].trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("invalid number of documents [" + parts[1].trim() + "]");
+        }
+        if (k < 1) {
+            throw new IllegalArgumentException("the number of documents of NEAR must be positive; got " + k);
+        }
+        List<Query.Clause> others = new ArrayList<>(clauses);
+        others.remove(near);
+        DocCursor matching = others.isEmpty() ? null : searchClauses(others, cache, profile);
+        String plan = others.isEmpty() ? "the " + QueryProfile.documents(k) + " nearest"
+                : "the " + QueryProfile.documents(k) + " nearest among those of the other clauses";
+        String intersection = others.isEmpty() ? "none, the documents are ranked by distance"
+                : "none, the other clauses filter the points of the R-tree, the documents are ranked by distance";
+        if (!run) {
+            if (profile != null) {
+                profile.clause(near.getField() + ": " + near.getValue(), "R-tree byLocation, best first by haversine "
+                        + "distance", k, plan, 0);
+                profile.intersection(intersection);
+            }
+            return new int[0];
+        }
+        long start = profile != null ? System.nanoTime() : 0;
+        final BitSet accepted = matching == null ? null : new BitSet();
+        if (matching != null) {
+            for (int doc = matching.nextDoc(); doc != DocCursor.NO_MORE_DOCS; doc = matching.nextDoc()) {
+                accepted.set(doc);
+            }
         }
-        for (String id : second) {
-            map.put(id, 1);
+        int[] nearest = byLocation.nearest(point.latitude, point.longitude, k, new RTree.OrdinalFilter() {
+            @Override
+            public boolean accept(int ordinal) {
+                return !deleted.get(ordinal) && (accepted == null || accepted.get(ordinal));
+            }
+        });
+        if (profile != null) {
+            profile.clause(near.getField() + ": " + near.getValue(), "R-tree byLocation, best first by haversine "
+                    + "distance", k, plan + ", " + nearest.length + " found", System.nanoTime() - start);
+            profile.intersection(intersection);
         }
-        return map.getKeys();
+        return nearest;
     }
 
     /**
-     * This method does the search on a single clause of a query, returns the list of relevant ids
+     * Describes the index searched by a clause, with the number of documents of each posting list it reads
      */
-    private List<String> searchOneClause(Query.Clause clause) {
+    private String describeIndex(Query.Clause clause) {
+        String field = clause.getField();
+        String value = clause.getValue().trim();
+        switch (field) {
+            case "id":
+                return frozenById != null ? "Eytzinger tree of ids" : "AVLTree of ids";
+            case "location":
+                if (value.startsWith("AT")) {
+                    return "B+ Tree byCoordinate";
+                }
+                return value.startsWith("RADIUS") ? Circle.INDEX : "R-tree byLocation";
+            case "name":
+            case "type":
+            case "region":
+                Field indexed = Field.valueOf(field.toUpperCase(Locale.ROOT));
+                String indexName = Character.toUpperCase(field.charAt(0)) + field.substring(1) + "Index";
+                Analyzer analyzer = analyzers.get();
+                StringBuilder description = new StringBuilder();
+                if (value.startsWith("CONTAINS")) {
+                    String normalized = analyzer.normalize(trimQueryOperator(value));
+                    TrigramIndex trigramIndex = trigramIndex(indexed);
+                    if (trigramIndex == null) {
+                        return "no trigram index, every document verified";
+                    }
+                    if (normalized.length() < TrigramIndex.GRAM_LENGTH) {
+                        return "trigram" + indexName + " not used, substring shorter than a trigram, every document "
+                                + "verified";
+                    }
+                    description.append("trigram").append(indexName).append(", trigrams ");
+                    trigramIndex.describe(description, normalized);
+                    return description.append(", candidates verified").toString();
+                }
+                if (value.startsWith("EXACT_MATCH")) {
+                    analyzer.analyze(trimQueryOperator(value), false);
+                    description.append("full").append(indexName).append(", full term ");
+                    appendPostings(description, fullIndex(indexed), analyzer.fullTerm());
+                    return description.toString();
+                }
+                if (value.startsWith("PREFIX")) {
+                    analyzer.analyze(trimQueryOperator(value), false);
+                    String prefix = analyzer.fullText();
+                    return description.append("full").append(indexName).append(", terms starting with [")
+                            .append(prefix).append(": ")
+                            .append(QueryProfile.terms(fullIndex(indexed).countPrefixTerms(prefix))).append(']')
+                            .toString();
+                }
+                if (value.startsWith("FUZZY")) {
+                    description.append("worded").append(indexName).append(", terms within edits of ");
+                    List<LevenshteinAutomaton> automata = fuzzyAutomata(analyzer, trimQueryOperator(value));
+                    for (int a = 0; a < automata.size(); a++) {
+                        LevenshteinAutomaton automaton = automata.get(a);
+                        int matching = wordedIndex(indexed).fuzzyTerms(automaton).length;
+                        description.append(a == 0 ? "[" : " AND [").append(automaton.word()).append('~')
+                                .append(automaton.maxDistance()).append(": ").append(QueryProfile.terms(matching))
+                                .append(']');
+                    }
+                    return description.toString();
+                }
+                description.append("worded").append(indexName).append(", terms ");
+                String[] alternatives = value.startsWith("MATCH_ANY") ? trimQueryOperator(value).split("\\|")
+                        : new String[]{value.startsWith("MATCH_ALL") ? trimQueryOperator(value) : value};
+                for (int a = 0; a < alternatives.length; a++) {
+                    description.append(a == 0 ? "" : " | ");
+                    analyzer.analyze(alternatives[a], false);
+                    for (int t = 0; t < analyzer.termCount(); t++) {
+                        description.append(t == 0 ? "" : " AND ");
+                        appendPostings(description, wordedIndex(indexed), analyzer.term(t));
+                    }
+                }
+                return description.toString();
+        }
+        return "none";
+    }
+
+    private void appendPostings(StringBuilder description, InvertedIndex index, int term) {
+        if (term == TermDictionary.NOT_FOUND) {
+            description.append("[not in the dictionary: 0]");
+        } else {
+            description.append('[').append(terms.term(term)).append(": ").append(index.postings(term).size())
+                    .append(']');
+        }
+    }
+
+    private static String describeIntersection(List<DocCursor> cursors, int filters) {
+        String checked = filters == 0 ? "" : ", then " + filters + " box(es) checked on the coordinates";
+        if (cursors.isEmpty()) {
+            return "no cursor" + checked;
+        }
+        if (cursors.size() == 1) {
+            return "1 cursor, no intersection" + checked;
+        }
+        long leadCost = Long.MAX_VALUE;
+        for (DocCursor cursor : cursors) {
+            leadCost = Math.min(leadCost, cursor.cost());
+        }
+        return cursors.size() + " cursors, led by the one with " + QueryProfile.documents(leadCost) + checked;
+    }
+
+    /**
+     * A cursor over the candidates of another cursor whose coordinate is inside some boxes and circles
+     */
+    private class WithinFilterCursor extends DocCursor {
+        private final DocCursor candidates;
+        private final Box[] boxes;
+        private int doc = -1;
+
+        WithinFilterCursor(DocCursor candidates, List<Box> boxes) {
+            this.candidates = candidates;
+            this.boxes = boxes.toArray(new Box[0]);
+        }
+
+        @Override
+        int docId() {
+            return doc;
+        }
+
+        @Override
+        int nextDoc() {
+            return doc = firstInside(candidates.nextDoc());
+        }
+
+        @Override
+        int advance(int target) {
+            return doc = firstInside(candidates.advance(target));
+        }
+
+        @Override
+        long cost() {
+            return candidates.cost();
+        }
+
+        private int firstInside(int candidate) {
+            while (candidate != NO_MORE_DOCS && !insideAll(latitudes[candidate], longitudes[candidate])) {
+                candidate = candidates.nextDoc();
+            }
+            return candidate;
+        }
+
+        private boolean insideAll(double latitude, double longitude) {
+            for (Box box : boxes) {
+                if (!box.contains(latitude, longitude)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Searches the documents inside a box or a circle on the R-tree, through the query cache
+     */
+    private int[] searchWithin(QueryCache cache, Box box) {
+        String key = box.key();
+        int[] ordinals = cache.get(key);
+        if (ordinals == null) {
+            ordinals = box.search(byLocation);
+            cache.put(key, ordinals);
+        }
+        return ordinals;
+    }
+
+    private static boolean isAreaClause(Query.Clause clause) {
+        if (!"location".equals(clause.getField())) {
+            return false;
+        }
+        String value = clause.getValue().trim();
+        return value.startsWith("WITHIN") || value.startsWith("RADIUS");
+    }
+
+    /**
+     * This method does the search on a single clause of a query, returns a cursor over the relevant ordinals
+     */
+    private DocCursor searchOneClause(Query.Clause clause) {
         String field = clause.getField();
         String value = clause.getValue();
         switch (field) {
             case "id":
-                // an id clause just returns itself so we can use AVLTree/BST to search by id later
-                ArrayList<String> ids = new ArrayList<>();
-                ids.add(value);
-                return ids;
+                int ordinal = ordinalOf(value);
+                return ordinal < 0 ? DocCursor.empty() : DocCursor.of(new int[]{ordinal});
             case "name":
-                return searchByString(fullNameIndex, wordedNameIndex, value);
             case "type":
-                return searchByString(fullTypeIndex, wordedTypeIndex, value);
             case "region":
-                return searchByString(fullRegionIndex, wordedRegionIndex, value);
+                Field indexed = Field.valueOf(field.toUpperCase(Locale.ROOT));
+                if (value.trim().startsWith("CONTAINS")) {
+                    return searchContains(indexed, trimQueryOperator(value));
+                }
+                return searchByString(fullIndex(indexed), wordedIndex(indexed), value);
             case "location":
                 return searchByLocation(value);
         }
         throw new IllegalArgumentException("invalid query: field: " + field + " value: " + value);
     }
 
+    /**
+     * This method finds the ordinal of the document with the given id, using the Eytzinger tree once the index is
+     * frozen and the AVLTree/BST before, except for the ids added since the index is frozen
+     * @return the ordinal, -1 if there is no such document or if it is deleted
+     */
+    private int ordinalOf(String id) {
+        loadSnapshotIds();
+        Integer ordinal = addedIds.get(id);
+        if (ordinal == null && frozenById != null) {
+            ordinal = frozenById.get(id);
+        } else if (ordinal == null) {
+            ordinal = byId.get(id);
+        }
+        return ordinal == null || ordinal < 0 || deleted.get(ordinal) ? -1 : ordinal;
+    }
+
     /**
      * This method eliminates the operator from a query
      */
@@ -229,84 +1701,178 @@ public class SearchIndex {
 
     /**
      * This method does a search on a given string "q", will be used in searching by name, region, type (full/part)
-     * returns a list of relevant ids
-     * @param fullIndex the inverted index for exact strings to be searched by full string of name, region, type
-     * @param wordedIndex the inverted index for the substrings, to be searched by part of name, region, type
+     * returns a cursor over the relevant ordinals
+     * @param fullIndex the inverted index for exact strings to be searched by full string of name, region, type, or by
+     *                  the start of that string (PREFIX)
+     * @param wordedIndex the inverted index for the substrings, to be searched by part of name, region, type, or by
+     *                    words close to the words of the query (FUZZY)
      */
-    private static List<String> searchByString(InvertedIndex fullIndex, InvertedIndex wordedIndex, String q) {
+    private DocCursor searchByString(InvertedIndex fullIndex, InvertedIndex wordedIndex, String q) {
+        Analyzer analyzer = analyzers.get();
         q = q.trim();
         if (q.startsWith("EXACT_MATCH")) {
             q = trimQueryOperator(q);
-            q = joinStrings(tokenize(q));
-            return fullIndex.queryTerm(q);
+            analyzer.analyze(q, false);
+            return fullIndex.queryTerm(analyzer.fullTerm());
+        } else if (q.startsWith("PREFIX")) {
+            analyzer.analyze(trimQueryOperator(q), false);
+            return fullIndex.queryPrefix(analyzer.fullText());
+        } else if (q.startsWith("FUZZY")) {
+            List<DocCursor> cursors = new ArrayList<>();
+            for (LevenshteinAutomaton automaton : fuzzyAutomata(analyzer, trimQueryOperator(q))) {
+                cursors.add(wordedIndex.queryFuzzy(automaton));
+            }
+            return DocCursor.and(cursors);
         } else if (q.startsWith("MATCH_ANY")) {
             q = trimQueryOperator(q);
-            List<String> result = new ArrayList<>();
+            List<DocCursor> alternatives = new ArrayList<>();
             for (String clause : q.split("\\|")) {
-                final List<String> other = searchByTerms(wordedIndex, tokenize(clause));
-                result = union(result, other);
+                analyzer.analyze(clause, false);
+                alternatives.add(searchByTerms(wordedIndex, analyzer));
             }
-            return result;
+            return DocCursor.or(alternatives);
         } else {
             if (q.startsWith("MATCH_ALL")) {
                 q = trimQueryOperator(q);
             }
-            return searchByTerms(wordedIndex, tokenize(q));
+            analyzer.analyze(q, false);
+            return searchByTerms(wordedIndex, analyzer);
         }
     }
 
-    private static List<String> searchByTerms(InvertedIndex wordedIndex, List<String> terms) {
-        if (terms.isEmpty()) {
-            return new ArrayList<>();
+    /**
+     * This method searches the documents whose field contains a substring, anywhere in a word, returns a cursor over
+     * their ordinals. The candidates are the documents having every trigram of the substring when the field has a
+     * trigram index and the substring is long enough, every document otherwise, and each candidate is verified
+     */
+    private DocCursor searchContains(Field field, String substring) {
+        String normalized = analyzers.get().normalize(substring);
+        if (normalized.isEmpty()) {
+            return DocCursor.empty();
         }
-        List<String> result = wordedIndex.queryTerm(terms.get(0));
-        for (int i = 1; i < terms.size(); i++) {
-            List<String> other = wordedIndex.queryTerm(terms.get(i));
-            result = intersect(result, other);
+        TrigramIndex trigramIndex = trigramIndex(field);
+        DocCursor candidates = trigramIndex != null && normalized.length() >= TrigramIndex.GRAM_LENGTH
+                ? trigramIndex.candidates(normalized) : DocCursor.all(documents.size());
+        return new ContainsFilterCursor(candidates, field, normalized);
+    }
+
+    /**
+     * A cursor over the candidates of another cursor whose field contains a normalized substring
+     */
+    private class ContainsFilterCursor extends DocCursor {
+        private final DocCursor candidates;
+        private final Field field;
+        private final String normalized;
+        private final Analyzer analyzer = analyzers.get();
+        private int doc = -1;
+
+        ContainsFilterCursor(DocCursor candidates, Field field, String normalized) {
+            this.candidates = candidates;
+            this.field = field;
+            this.normalized = normalized;
+        }
+
+        @Override
+        int docId() {
+            return doc;
+        }
+
+        @Override
+        int nextDoc() {
+            return doc = firstContaining(candidates.nextDoc());
+        }
+
+        @Override
+        int advance(int target) {
+            return doc = firstContaining(candidates.advance(target));
+        }
+
+        @Override
+        long cost() {
+            return candidates.cost();
+        }
+
+        private int firstContaining(int candidate) {
+            while (candidate != NO_MORE_DOCS && !contains(documents.get(candidate))) {
+                candidate = candidates.nextDoc();
+            }
+            return candidate;
+        }
+
+        // the documents dropped by a compaction are null
+        private boolean contains(Document doc) {
+            return doc != null && TrigramIndex.contains(analyzer, fieldText(doc, field), normalized);
         }
-        return result;
     }
 
     /**
-     * This method adds a term (with an id "docId" and a string "str") to 2 inverted indices fullIndex and wordedIndex
+     * This method builds an automaton for each word of a FUZZY query "text~k", accepting the terms within k edits of
+     * the analyzed word. Without "~k" the words may be DEFAULT_FUZZY_DISTANCE edits away
      */
-    private static void addTerms(InvertedIndex fullIndex, InvertedIndex wordedIndex, String docId, String str) {
-        List<String> tokens = tokenize(str);
-        if (!tokens.isEmpty()) {
-            for (String term : tokens) {
-                wordedIndex.addTerm(docId, term);
+    private static List<LevenshteinAutomaton> fuzzyAutomata(Analyzer analyzer, String q) {
+        int distance = DEFAULT_FUZZY_DISTANCE;
+        int tilde = q.lastIndexOf('~');
+        if (tilde != -1) {
+            try {
+                distance = Integer.parseInt(q.substring(tilde + 1).trim());
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException(q + " is not a valid query");
             }
-            fullIndex.addTerm(docId, joinStrings(tokens));
+            q = q.substring(0, tilde);
         }
+        analyzer.analyze(q, false);
+        List<LevenshteinAutomaton> automata = new ArrayList<>(analyzer.termCount());
+        if (analyzer.termCount() > 0) {
+            for (String word : analyzer.fullText().split(" ")) {
+                automata.add(new LevenshteinAutomaton(word, distance));
+            }
+        }
+        return automata;
+    }
+
+    /**
+     * This method intersects the posting lists of all terms of the text analyzed last at once, starting from the
+     * shortest one
+     */
+    private static DocCursor searchByTerms(InvertedIndex wordedIndex, Analyzer analyzer) {
+        List<DocCursor> cursors = new ArrayList<>(analyzer.termCount());
+        for (int i = 0; i < analyzer.termCount(); i++) {
+            cursors.add(wordedIndex.queryTerm(analyzer.term(i)));
+        }
+        return DocCursor.and(cursors);
     }
 
-    private List<String> searchByLocation(String s) {
+    /**
+     * This method adds the terms of a field of the document with the given ordinal to 2 inverted indices
+     * fullIndex and wordedIndex
+     */
+    private static void addTerms(InvertedIndex fullIndex, InvertedIndex wordedIndex, int ordinal,
+                                 AnalyzedDocument analyzed, Field field) {
+        int fullTerm = analyzed.fullTerm(field);
+        if (fullTerm != TermDictionary.NOT_FOUND) {
+            for (int term : analyzed.terms(field)) {
+                wordedIndex.addTerm(ordinal, term);
+            }
+            fullIndex.addTerm(ordinal, fullTerm);
+        }
+    }
+
+    private DocCursor searchByLocation(String s) {
         //if the query requests the location AT 1 pair of (latitude, longitude)
         if (s.startsWith("AT")) {
             s = trimQueryOperator(s);
-            return byCoordinate.find(parseCoordinate(s));
+            loadPendingCoordinates();
+            return DocCursor.of(sortedOrdinals(byCoordinate.find(parseCoordinate(s))));
         } else if (s.startsWith("WITHIN")) {//if the query requests the location WITHIN 2 pairs of (latitude, longitude)
-            s = trimQueryOperator(s);
-            String[] coords = s.split("\\|");
-            if (coords.length != 2) {
-                throw new IllegalArgumentException("invalid within location query [" + s + "]");
-            }
-            Coordinate first = parseCoordinate(coords[0]);//first pair of (latitude, longitude)
-            Coordinate second = parseCoordinate(coords[1]);//second pair of (latitude, longitude)
-
-            double minLatitude = Math.min(first.latitude, second.latitude);
-            double maxLatitude = Math.max(first.latitude, second.latitude);
-            //search for documents with latitude in the range of (minLatitude, maxLatitude) on the inverted index byLatitude
-            List<String> withinLatitude = byLatitude.findRange(minLatitude, maxLatitude);
-
-            double minLongitude = Math.min(first.longitude, second.longitude);
-            double maxLongitude = Math.max(first.longitude, second.longitude);
-            //search for documents with longitude in the range of (minLongitude, maxLongitude) on the inverted index byLongitude
-            List<String> withinLongitude = byLongitude.findRange(minLongitude, maxLongitude);
-            //return the intersection of documents in range of latitude and longitude
-            return intersect(withinLatitude, withinLongitude);
+            Box box = parseBox(trimQueryOperator(s));
+            //search for documents inside the box on the R-tree, only the nodes overlapping the box are visited
+            return DocCursor.of(byLocation.search(box.minLatitude, box.maxLatitude, box.minLongitude,
+                    box.maxLongitude));
+        } else if (s.startsWith("RADIUS")) {//if the query requests the location within a RADIUS of a coordinate
+            //search for documents inside the circle on the R-tree, only the nodes near the circle are visited
+            return DocCursor.of(parseArea(s).search(byLocation));
         }
-        throw new IllegalArgumentException("location must be queried with AT or WITHIN; got " + s);
+        throw new IllegalArgumentException("location must be queried with AT, WITHIN, RADIUS or NEAR; got " + s);
     }
 
     /**
@@ -333,6 +1899,167 @@ public class SearchIndex {
         }
     }
 
+    /**
+     * The box of a WITHIN clause, bounds included
+     */
+    private static class Box implements Comparable<Box> {
+        final double minLatitude;
+        final double maxLatitude;
+        final double minLongitude;
+        final double maxLongitude;
+        long estimate; // the estimated number of documents inside the box
+
+        Box(Coordinate first, Coordinate second) {
+            this(Math.min(first.latitude, second.latitude), Math.max(first.latitude, second.latitude),
+                    Math.min(first.longitude, second.longitude), Math.max(first.longitude, second.longitude));
+        }
+
+        Box(double minLatitude, double maxLatitude, double minLongitude, double maxLongitude) {
+            this.minLatitude = minLatitude;
+            this.maxLatitude = maxLatitude;
+            this.minLongitude = minLongitude;
+            this.maxLongitude = maxLongitude;
+        }
+
+        boolean contains(double latitude, double longitude) {
+            return latitude >= minLatitude && latitude <= maxLatitude
+                    && longitude >= minLongitude && longitude <= maxLongitude;
+        }
+
+        /**
+         * Estimate the number of documents of the R-tree inside the box, from the root only
+         */
+        long estimate(RTree tree) {
+            return tree.estimate(minLatitude, maxLatitude, minLongitude, maxLongitude);
+        }
+
+        /**
+         * Searches the sorted ordinals of the documents of the R-tree inside the box
+         */
+        int[] search(RTree tree) {
+            return tree.search(minLatitude, maxLatitude, minLongitude, maxLongitude);
+        }
+
+        /**
+         * Describes the index searched for EXPLAIN and PROFILE
+         */
+        String index() {
+            return "R-tree byLocation";
+        }
+
+        String shape() {
+            return "box";
+        }
+
+        /**
+         * The key of the box in the query cache, the same for every way to write the box
+         */
+        String key() {
+            return "location:WITHIN(" + minLatitude + "," + minLongitude + "|" + maxLatitude + "," + maxLongitude + ")";
+        }
+
+        @Override
+        public int compareTo(Box that) {
+            return Long.compare(this.estimate, that.estimate);
+        }
+    }
+
+    /**
+     * The circle of a RADIUS clause, bounds included. It is a Box for the plan of the query: its bounding box is the
+     * box, which prunes the R-tree and rejects most of the points outside the circle before their haversine distance
+     * to the center is checked
+     */
+    private static class Circle extends Box {
+        static final String INDEX = "R-tree byLocation, bounding box of the circle then haversine distance";
+
+        private final RTree.Circle circle;
+        private final String key;
+
+        Circle(Coordinate center, double km) {
+            this(new RTree.Circle(center.latitude, center.longitude, km),
+                    "location:RADIUS(" + center.latitude + "," + center.longitude + "|" + km + ")");
+        }
+
+        private Circle(RTree.Circle circle, String key) {
+            super(circle.minLatitude, circle.maxLatitude, circle.minLongitude, circle.maxLongitude);
+            this.circle = circle;
+            this.key = key;
+        }
+
+        @Override
+        boolean contains(double latitude, double longitude) {
+            return circle.contains(latitude, longitude);
+        }
+
+        /**
+         * The circle covers PI / 4 of its bounding box, or a bit more on a sphere
+         */
+        @Override
+        long estimate(RTree tree) {
+            return (long) Math.ceil(super.estimate(tree) * Math.PI / 4);
+        }
+
+        @Override
+        int[] search(RTree tree) {
+            return tree.search(circle);
+        }
+
+        @Override
+        String index() {
+            return INDEX;
+        }
+
+        @Override
+        String shape() {
+            return "circle";
+        }
+
+        @Override
+        String key() {
+            return key;
+        }
+    }
+
+    /**
+     * This method takes the value of a WITHIN or RADIUS clause, returns its box or its circle
+     */
+    private static Box parseArea(String value) {
+        if (value.startsWith("RADIUS")) {
+            return parseCircle(trimQueryOperator(value));
+        }
+        return parseBox(trimQueryOperator(value));
+    }
+
+    /**
+     * This method takes the string "s" of a pair of latitude and longitude and a radius in km separated by "|",
+     * returns their circle
+     */
+    private static Circle parseCircle(String s) {
+        String[] parts = s.split("\\|");
+        if (parts.length != 2) {
+            throw new IllegalArgumentException("RADIUS must be given a coordinate and a radius in km; got " + s);
+        }
+        Coordinate center = parseCoordinate(parts[0]);
+        double km;
+        try {
+            km = Double.parseDouble(parts[1].trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("invalid radius [" + parts[1].trim() + "]");
+        }
+        return new Circle(center, km);
+    }
+
+    /**
+     * This method takes the string "s" of 2 pairs of latitude and longitude separated by "|", returns their box
+     */
+    private static Box parseBox(String s) {
+        String[] coords = s.split("\\|");
+        if (coords.length != 2) {
+            throw new IllegalArgumentException("invalid within location query [" + s + "]");
+        }
+        return new Box(parseCoordinate(coords[0]), parseCoordinate(coords[1]));
+    }
+
     /**
      * This method take a string "s" of latitude and longitude, return an object of class Coordinate
      */
@@ -0,0 +1,54 @@
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * SnapshotIO writes and reads the arrays of a snapshot file. An array is written as its values one after the other,
+ * and read back from the mapped file with one bulk copy instead of a call per value.
+ */
+class SnapshotIO {
+    private SnapshotIO() {
+    }
+
+    static void writeInts(DataOutput out, int[] values, int count) throws IOException {
+        for (int i = 0; i < count; i++) {
+            out.writeInt(values[i]);
+        }
+    }
+
+    static void writeLongs(DataOutput out, long[] values, int count) throws IOException {
+        for (int i = 0; i < count; i++) {
+            out.writeLong(values[i]);
+        }
+    }
+
+    static void writeDoubles(DataOutput out, double[] values, int count) throws IOException {
+        for (int i = 0; i < count; i++) {
+            out.writeDouble(values[i]);
+        }
+    }
+
+    /**
+     * Reads "count" ints from the current position of a snapshot into "values", and moves the position past them
+     */
+    static void readInts(ByteBuffer in, int[] values, int count) {
+        in.asIntBuffer().get(values, 0, count);
+        in.position(in.position() + 4 * count);
+    }
+
+    /**
+     * Reads "count" longs from the current position of a snapshot into "values", and moves the position past them
+     */
+    static void readLongs(ByteBuffer in, long[] values, int count) {
+        in.asLongBuffer().get(values, 0, count);
+        in.position(in.position() + 8 * count);
+    }
+
+    /**
+     * Reads "count" doubles from the current position of a snapshot into "values", and moves the position past them
+     */
+    static void readDoubles(ByteBuffer in, double[] values, int count) {
+        in.asDoubleBuffer().get(values, 0, count);
+        in.position(in.position() + 8 * count);
+    }
+}
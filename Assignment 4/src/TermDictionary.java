@@ -0,0 +1,193 @@
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A TermDictionary gives each distinct term a dense id (0, 1, 2, ...) in the order terms are first interned, so the
+ * inverted indices can store their posting lists in arrays indexed by term id. Terms are looked up directly from a
+ * char buffer: the table is an open-addressing hash table with linear probing, like our HashMap, whose slots hold term
+ * ids, and the chars of the buffer are compared with the stored term, so a lookup does not create a String.
+ * Interning is synchronized so documents can be analyzed by several threads. Once frozen, lookups take no lock: a term
+ * may still be interned into a frozen dictionary, but only while no other thread reads it, as the SearchIndex does
+ * under its write lock when a document is added to a frozen index.
+ */
+class TermDictionary {
+    static final int NOT_FOUND = -1;
+    private static final int MIN_CAPACITY = 16;
+    private static final float MAX_LOAD_FACTOR = 0.6f;
+
+    private String[] terms = new String[MIN_CAPACITY]; // term of each id
+    private int[] slots; // id + 1 of the term in each slot, 0 if the slot is empty
+    private int mask;
+    private int size;
+    private volatile boolean frozen;
+
+    TermDictionary() {
+        slots = new int[MIN_CAPACITY];
+        mask = MIN_CAPACITY - 1;
+    }
+
+    /**
+     * Returns the id of the term held in "chars[from, from + length)", giving it a new id if the dictionary does not
+     * contain it yet
+     */
+    int intern(char[] chars, int from, int length) {
+        synchronized (this) {
+            int hash = hash(chars, from, length);
+            int slot = findSlot(chars, from, length, hash);
+            if (slots[slot] != 0) {
+                return slots[slot] - 1;
+            }
+            final int id = size++;
+            if (id == terms.length) {
+                terms = Arrays.copyOf(terms, id * 2);
+            }
+            terms[id] = new String(chars, from, length);
+            slots[slot] = id + 1;
+            if (size > slots.length * MAX_LOAD_FACTOR) {
+                resize(slots.length * 2);
+            }
+            return id;
+        }
+    }
+
+    /**
+     * Returns the id of the term held in "chars[from, from + length)", NOT_FOUND if the dictionary does not contain it
+     */
+    int find(char[] chars, int from, int length) {
+        if (frozen) {
+            return lookup(chars, from, length);
+        }
+        synchronized (this) {
+            return lookup(chars, from, length);
+        }
+    }
+
+    /**
+     * Returns the term of the given id
+     */
+    String term(int id) {
+        if (frozen) {
+            return terms[id];
+        }
+        synchronized (this) {
+            return terms[id];
+        }
+    }
+
+    int size() {
+        if (frozen) {
+            return size;
+        }
+        synchronized (this) {
+            return size;
+        }
+    }
+
+    /**
+     * Write the terms of the frozen dictionary to a snapshot, in the order of their ids
+     */
+    void write(DataOutput out) throws IOException {
+        if (!frozen) {
+            throw new IllegalStateException("only a frozen dictionary can be written");
+        }
+        out.writeInt(size);
+        for (int id = 0; id < size; id++) {
+            byte[] bytes = terms[id].getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    /**
+     * Read the terms written by "write" from the current position of a snapshot into this empty dictionary, so every
+     * term gets back its id. The dictionary is then frozen
+     */
+    void read(ByteBuffer in) {
+        if (size > 0 || frozen) {
+            throw new IllegalStateException("cannot read a snapshot into a dictionary which is not empty");
+        }
+        int count = in.getInt();
+        terms = new String[Math.max(MIN_CAPACITY, count)];
+        byte[] bytes = new byte[64];
+        for (int id = 0; id < count; id++) {
+            int length = in.getInt();
+            if (bytes.length < length) {
+                bytes = new byte[Math.max(length, 2 * bytes.length)];
+            }
+            in.get(bytes, 0, length);
+            terms[id] = new String(bytes, 0, length, StandardCharsets.UTF_8);
+        }
+        size = count;
+        // the terms of a snapshot are distinct, so they are placed in the table without being looked up
+        int capacity = MIN_CAPACITY;
+        while (count > capacity * MAX_LOAD_FACTOR) {
+            capacity *= 2;
+        }
+        resize(capacity);
+        freeze();
+    }
+
+    /**
+     * Switch the dictionary to its read-only form, after which lookups do not synchronize
+     */
+    synchronized void freeze() {
+        frozen = true;
+    }
+
+    private int lookup(char[] chars, int from, int length) {
+        int slot = findSlot(chars, from, length, hash(chars, from, length));
+        return slots[slot] - 1;
+    }
+
+    /**
+     * Returns the slot holding the term, or the empty slot where it would be inserted
+     */
+    private int findSlot(char[] chars, int from, int length, int hash) {
+        int slot = hash & mask;
+        while (slots[slot] != 0 && !matches(terms[slots[slot] - 1], chars, from, length)) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private static boolean matches(String term, char[] chars, int from, int length) {
+        if (term.length() != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (term.charAt(i) != chars[from + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // the hash of the chars is the hash code of the equal String, mixed so that close hash codes are spread
+    private static int hash(char[] chars, int from, int length) {
+        int h = 0;
+        for (int i = from; i < from + length; i++) {
+            h = 31 * h + chars[i];
+        }
+        return mix(h);
+    }
+
+    private static int mix(int h) {
+        h *= 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private void resize(int capacity) {
+        slots = new int[capacity];
+        mask = capacity - 1;
+        for (int id = 0; id < size; id++) {
+            int slot = mix(terms[id].hashCode()) & mask;
+            while (slots[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            slots[slot] = id + 1;
+        }
+    }
+}
@@ -0,0 +1,122 @@
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * A TrigramIndex finds the documents whose text contains a given substring, anywhere in a word. The text of a document
+ * is not cut into tokens: it is only normalized by the token filters of the analyzer, and every run of 3 chars of it,
+ * spaces and punctuation included, is a trigram. The trigrams get their ids from a TermDictionary of their own and
+ * are the terms of an InvertedIndex. A text contains a substring of 3 chars or more only if it contains every trigram
+ * of the substring, so intersecting their posting lists gives a few candidates, which must still be verified as
+ * their trigrams may be apart or in another order.
+ */
+class TrigramIndex {
+    static final int GRAM_LENGTH = 3;
+
+    private final TermDictionary trigrams;
+    private final InvertedIndex index;
+
+    /**
+     * @param trigrams: the dictionary of the trigrams, which may be shared by the trigram indices of several fields
+     */
+    TrigramIndex(TermDictionary trigrams) {
+        this(trigrams, new InvertedIndex(trigrams));
+    }
+
+    private TrigramIndex(TermDictionary trigrams, InvertedIndex index) {
+        this.trigrams = trigrams;
+        this.index = index;
+    }
+
+    /**
+     * Add the trigrams of the normalized text of the document with the given ordinal. Documents must be added in
+     * increasing order of ordinals
+     */
+    void add(int ordinal, String normalized) {
+        char[] chars = normalized.toCharArray();
+        for (int i = 0; i + GRAM_LENGTH <= chars.length; i++) {
+            index.addTerm(ordinal, trigrams.intern(chars, i, GRAM_LENGTH));
+        }
+    }
+
+    void freeze() {
+        index.freeze();
+    }
+
+    /**
+     * Returns a new frozen index without the deleted ordinals, see InvertedIndex.compact
+     */
+    TrigramIndex compact(BitSet deleted) {
+        return new TrigramIndex(trigrams, index.compact(deleted));
+    }
+
+    void write(DataOutput out) throws IOException {
+        index.write(out);
+    }
+
+    void read(ByteBuffer in) {
+        index.read(in);
+    }
+
+    /**
+     * Returns a cursor over the ordinals of the documents containing every trigram of the normalized substring: the
+     * candidates, among which the documents containing the substring. The substring must have at least GRAM_LENGTH
+     * chars
+     */
+    DocCursor candidates(String normalized) {
+        List<DocCursor> cursors = new ArrayList<>();
+        for (int term : trigramTerms(normalized)) {
+            if (term == TermDictionary.NOT_FOUND) {
+                return DocCursor.empty();
+            }
+            cursors.add(index.queryTerm(term));
+        }
+        return DocCursor.and(cursors);
+    }
+
+    /**
+     * Describes the posting lists read for the normalized substring, with the number of documents of each one
+     */
+    void describe(StringBuilder description, String normalized) {
+        char[] chars = normalized.toCharArray();
+        int[] terms = trigramTerms(normalized);
+        for (int i = 0; i < terms.length; i++) {
+            description.append(i == 0 ? "[" : " AND [").append(chars, i, GRAM_LENGTH).append(": ")
+                    .append(index.postings(terms[i]).size()).append(']');
+        }
+    }
+
+    /**
+     * Returns the id of each trigram of the normalized substring, TermDictionary.NOT_FOUND for a trigram of no
+     * document
+     */
+    private int[] trigramTerms(String normalized) {
+        char[] chars = normalized.toCharArray();
+        int[] terms = new int[Math.max(0, chars.length - GRAM_LENGTH + 1)];
+        for (int i = 0; i < terms.length; i++) {
+            terms[i] = trigrams.find(chars, i, GRAM_LENGTH);
+        }
+        return terms;
+    }
+
+    /**
+     * Returns true if the text, once normalized by the analyzer, contains the normalized substring. The text is
+     * normalized char by char while it is compared, so checking a candidate does not allocate anything
+     */
+    static boolean contains(Analyzer analyzer, String text, String normalized) {
+        int last = text.length() - normalized.length();
+        for (int start = 0; start <= last; start++) {
+            int i = 0;
+            while (i < normalized.length() && analyzer.normalize(text.charAt(start + i)) == normalized.charAt(i)) {
+                i++;
+            }
+            if (i == normalized.length()) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
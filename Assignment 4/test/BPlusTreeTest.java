@@ -0,0 +1,173 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.function.Executable;
+
+/**
+ * Lookups and range cursors of a B+ tree with repeated keys, added one by one or bulk loaded, checked against a
+ * TreeMap of the same entries
+ */
+class BPlusTreeTest {
+    private final Random random = new Random(42);
+
+    /**
+     * "count" random entries with keys below "keyRange", the value of the i-th entry being i
+     */
+    private List<BPlusTree.Entry<Integer, Integer>> entries(int count, int keyRange) {
+        List<BPlusTree.Entry<Integer, Integer>> entries = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            entries.add(new BPlusTree.Entry<>(random.nextInt(keyRange), i));
+        }
+        return entries;
+    }
+
+    private static TreeMap<Integer, List<Integer>> expected(List<BPlusTree.Entry<Integer, Integer>> entries) {
+        TreeMap<Integer, List<Integer>> expected = new TreeMap<>();
+        for (BPlusTree.Entry<Integer, Integer> entry : entries) {
+            if (!expected.containsKey(entry.key)) {
+                expected.put(entry.key, new ArrayList<Integer>());
+            }
+            expected.get(entry.key).add(entry.value);
+        }
+        return expected;
+    }
+
+    private static BPlusTree<Integer, Integer> added(int maxKeySize, List<BPlusTree.Entry<Integer, Integer>> entries) {
+        BPlusTree<Integer, Integer> tree = new BPlusTree<>(maxKeySize);
+        for (BPlusTree.Entry<Integer, Integer> entry : entries) {
+            tree.add(entry.key, entry.value);
+        }
+        return tree;
+    }
+
+    private static List<Integer> sorted(List<Integer> values) {
+        List<Integer> sorted = new ArrayList<>(values);
+        Collections.sort(sorted);
+        return sorted;
+    }
+
+    /**
+     * Checks "find" for every key of the range of the entries, and "range" and "descendingRange" for random bounds:
+     * the keys must come in order, each with all its values
+     */
+    private void checkTree(BPlusTree<Integer, Integer> tree, TreeMap<Integer, List<Integer>> expected, int keyRange) {
+        for (int key = -1; key <= keyRange; key++) {
+            List<Integer> values = expected.containsKey(key) ? expected.get(key) : new ArrayList<Integer>();
+            assertEquals(sorted(values), sorted(tree.find(key)), "values of " + key);
+        }
+        for (int i = 0; i < 200; i++) {
+            int lower = random.nextInt(keyRange + 2) - 1;
+            int upper = lower + random.nextInt(keyRange / 4 + 2);
+            checkRange(tree.range(lower, upper), expected.subMap(lower, true, upper, true));
+            checkRange(tree.descendingRange(lower, upper), expected.subMap(lower, true, upper, true).descendingMap());
+            List<Integer> found = tree.findRange(lower, upper);
+            List<Integer> all = new ArrayList<>();
+            for (List<Integer> values : expected.subMap(lower, true, upper, true).values()) {
+                all.addAll(values);
+            }
+            assertEquals(sorted(all), sorted(found), "values of [" + lower + ", " + upper + "]");
+        }
+    }
+
+    private static void checkRange(BPlusTree.RangeCursor<Integer, Integer> cursor,
+                                   Map<Integer, List<Integer>> expected) {
+        for (Map.Entry<Integer, List<Integer>> entry : expected.entrySet()) {
+            List<Integer> values = new ArrayList<>();
+            for (int i = 0; i < entry.getValue().size(); i++) {
+                assertTrue(cursor.next(), "missing values of " + entry.getKey());
+                assertEquals(entry.getKey(), cursor.key());
+                values.add(cursor.value());
+            }
+            assertEquals(sorted(entry.getValue()), sorted(values), "values of " + entry.getKey());
+        }
+        assertFalse(cursor.next());
+    }
+
+    @Test
+    void addedTreeMatchesTreeMap() {
+        for (int maxKeySize : new int[]{1, 2, 3, 16}) {
+            List<BPlusTree.Entry<Integer, Integer>> entries = entries(2000, 500);
+            checkTree(added(maxKeySize, entries), expected(entries), 500);
+        }
+    }
+
+    @Test
+    void bulkLoadedTreeMatchesTreeMap() {
+        for (int maxKeySize : new int[]{1, 2, 3, 16}) {
+            for (double fillFactor : new double[]{0.01, 0.5, 0.75, 1.0}) {
+                List<BPlusTree.Entry<Integer, Integer>> entries = entries(2000, 500);
+                Collections.sort(entries);
+                BPlusTree<Integer, Integer> tree = new BPlusTree<>(maxKeySize);
+                tree.bulkLoad(entries, fillFactor);
+                checkTree(tree, expected(entries), 500);
+            }
+        }
+    }
+
+    @Test
+    void addAfterBulkLoadSplitsLoadedNodes() {
+        List<BPlusTree.Entry<Integer, Integer>> loaded = entries(1000, 300);
+        Collections.sort(loaded);
+        BPlusTree<Integer, Integer> tree = new BPlusTree<>(4);
+        tree.bulkLoad(loaded, 1.0);
+        List<BPlusTree.Entry<Integer, Integer>> all = new ArrayList<>(loaded);
+        for (BPlusTree.Entry<Integer, Integer> entry : entries(1000, 320)) {
+            BPlusTree.Entry<Integer, Integer> added = new BPlusTree.Entry<>(entry.key, 1000 + entry.value);
+            tree.add(added.key, added.value);
+            all.add(added);
+        }
+        checkTree(tree, expected(all), 320);
+    }
+
+    @Test
+    void bulkLoadRejectsUnsortedEntriesOrFilledTree() {
+        final List<BPlusTree.Entry<Integer, Integer>> unsorted = new ArrayList<>();
+        unsorted.add(new BPlusTree.Entry<>(2, 0));
+        unsorted.add(new BPlusTree.Entry<>(1, 1));
+        assertThrows(IllegalArgumentException.class, new Executable() {
+            @Override
+            public void execute() {
+                new BPlusTree<Integer, Integer>(4).bulkLoad(unsorted, 1.0);
+            }
+        });
+        final BPlusTree<Integer, Integer> tree = new BPlusTree<>(4);
+        tree.add(1, 1);
+        assertThrows(IllegalStateException.class, new Executable() {
+            @Override
+            public void execute() {
+                tree.bulkLoad(new ArrayList<BPlusTree.Entry<Integer, Integer>>(), 1.0);
+            }
+        });
+    }
+
+    @Test
+    void rangeCursorCanStopEarly() {
+        List<BPlusTree.Entry<Integer, Integer>> entries = entries(1000, 100);
+        BPlusTree<Integer, Integer> tree = added(4, entries);
+        BPlusTree.RangeCursor<Integer, Integer> cursor = tree.range(10, 90);
+        int previous = Integer.MIN_VALUE;
+        for (int i = 0; i < 30; i++) {
+            assertTrue(cursor.next());
+            assertTrue(cursor.key() >= previous && cursor.key() >= 10);
+            previous = cursor.key();
+        }
+    }
+
+    @Test
+    void emptyTreeHasNoRange() {
+        BPlusTree<Integer, Integer> tree = new BPlusTree<>(4);
+        assertEquals(0, tree.find(3).size());
+        assertFalse(tree.range(0, 10).next());
+        assertFalse(tree.descendingRange(0, 10).next());
+    }
+}
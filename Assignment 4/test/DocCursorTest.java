@@ -0,0 +1,121 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * The galloping search and the AND / OR cursors over sorted ordinals, checked against set operations on bitsets
+ */
+class DocCursorTest {
+    private final Random random = new Random(42);
+
+    /**
+     * A random sorted set of ordinals below "range", each ordinal being in it with the given probability
+     */
+    private BitSet randomSet(int range, double density) {
+        BitSet set = new BitSet();
+        for (int ordinal = 0; ordinal < range; ordinal++) {
+            if (random.nextDouble() < density) {
+                set.set(ordinal);
+            }
+        }
+        return set;
+    }
+
+    private static List<DocCursor> cursors(List<BitSet> sets) {
+        List<DocCursor> cursors = new ArrayList<>();
+        for (BitSet set : sets) {
+            cursors.add(DocCursor.of(set.stream().toArray()));
+        }
+        return cursors;
+    }
+
+    @Test
+    void gallopFindsFirstValueNotBelowTarget() {
+        int[] values = randomSet(5000, 0.2).stream().toArray();
+        for (int i = 0; i < 2000; i++) {
+            int from = random.nextInt(values.length + 1);
+            int to = from + random.nextInt(values.length - from + 1);
+            int target = random.nextInt(5100);
+            int expected = from;
+            while (expected < to && values[expected] < target) {
+                expected++;
+            }
+            assertEquals(expected, DocCursor.gallop(values, from, to, target),
+                    "gallop in [" + from + ", " + to + ") to " + target);
+        }
+    }
+
+    @Test
+    void andAndOrMatchSetOperations() {
+        double[] densities = {0.001, 0.05, 0.5, 0.95};
+        for (int round = 0; round < 50; round++) {
+            int count = 2 + random.nextInt(4);
+            List<BitSet> sets = new ArrayList<>();
+            BitSet intersection = null;
+            BitSet union = new BitSet();
+            for (int i = 0; i < count; i++) {
+                BitSet set = randomSet(3000, densities[random.nextInt(densities.length)]);
+                sets.add(set);
+                union.or(set);
+                if (intersection == null) {
+                    intersection = (BitSet) set.clone();
+                } else {
+                    intersection.and(set);
+                }
+            }
+            assertArrayEquals(intersection.stream().toArray(), DocCursor.and(cursors(sets)).toArray());
+            assertArrayEquals(union.stream().toArray(), DocCursor.or(cursors(sets)).toArray());
+        }
+    }
+
+    @Test
+    void advanceOfAndOrMatchesSetOperations() {
+        for (int round = 0; round < 50; round++) {
+            List<BitSet> sets = Arrays.asList(randomSet(3000, 0.3), randomSet(3000, 0.6), randomSet(3000, 0.1));
+            BitSet intersection = (BitSet) sets.get(0).clone();
+            BitSet union = new BitSet();
+            for (BitSet set : sets) {
+                intersection.and(set);
+                union.or(set);
+            }
+            DocCursor and = DocCursor.and(cursors(sets));
+            DocCursor or = DocCursor.or(cursors(sets));
+            int target = 0;
+            while (target < 3100) {
+                target += 1 + random.nextInt(200);
+                int expectedAnd = intersection.nextSetBit(target);
+                int expectedOr = union.nextSetBit(target);
+                if (and.docId() < target) {
+                    assertEquals(expectedAnd < 0 ? DocCursor.NO_MORE_DOCS : expectedAnd, and.advance(target));
+                }
+                if (or.docId() < target) {
+                    assertEquals(expectedOr < 0 ? DocCursor.NO_MORE_DOCS : expectedOr, or.advance(target));
+                }
+            }
+        }
+    }
+
+    @Test
+    void nestedCursorsAndPages() {
+        BitSet a = randomSet(2000, 0.5);
+        BitSet b = randomSet(2000, 0.5);
+        BitSet c = randomSet(2000, 0.1);
+        // (a AND b) OR c
+        BitSet expected = (BitSet) a.clone();
+        expected.and(b);
+        expected.or(c);
+        DocCursor cursor = DocCursor.or(Arrays.asList(DocCursor.and(cursors(Arrays.asList(a, b))),
+                DocCursor.of(c.stream().toArray())));
+        int[] all = expected.stream().toArray();
+        DocCursor page = DocCursor.page(cursor, 10, 25);
+        assertArrayEquals(Arrays.copyOfRange(all, 10, 35), page.toArray());
+        assertArrayEquals(new int[0], DocCursor.page(DocCursor.of(all), all.length, 5).toArray());
+    }
+}
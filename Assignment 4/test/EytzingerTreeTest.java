@@ -0,0 +1,77 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.function.Executable;
+
+/**
+ * Lookups of the keys of an Eytzinger tree of every size up to a few levels, and of the keys between them
+ */
+class EytzingerTreeTest {
+
+    /**
+     * A tree of the even numbers "0, 2, ..., 2 * (size - 1)", the value of a key being its half
+     */
+    private static EytzingerTree<Integer> evens(int size) {
+        List<Integer> keys = new ArrayList<>();
+        int[] values = new int[size];
+        for (int i = 0; i < size; i++) {
+            keys.add(2 * i);
+            values[i] = i;
+        }
+        return new EytzingerTree<>(keys, values);
+    }
+
+    @Test
+    void getFindsEveryKeyAndNothingBetween() {
+        // every size up to 4 full levels, so each shape of the last level is tried
+        for (int size = 0; size <= 40; size++) {
+            EytzingerTree<Integer> tree = evens(size);
+            assertEquals(size, tree.size());
+            for (int key = -1; key <= 2 * size; key++) {
+                int expected = key >= 0 && key % 2 == 0 && key < 2 * size ? key / 2 : -1;
+                assertEquals(expected, tree.get(key), "get " + key + " in a tree of " + size + " keys");
+            }
+        }
+    }
+
+    @Test
+    void collectInOrderReturnsSortedKeys() {
+        EytzingerTree<String> tree = new EytzingerTree<>(Arrays.asList("id1", "id2", "id3", "id4", "id5"),
+                new int[]{10, 20, 30, 40, 50});
+        List<String> keys = new ArrayList<>();
+        List<Integer> values = new ArrayList<>();
+        tree.collectInOrder(keys, values);
+        assertEquals(Arrays.asList("id1", "id2", "id3", "id4", "id5"), keys);
+        assertEquals(Arrays.asList(10, 20, 30, 40, 50), values);
+        assertEquals(30, tree.get("id3"));
+        assertEquals(-1, tree.get("id0"));
+        assertEquals(-1, tree.get("id6"));
+    }
+
+    @Test
+    void unsortedOrRepeatedKeysAreRejected() {
+        assertThrows(IllegalArgumentException.class, new Executable() {
+            @Override
+            public void execute() {
+                new EytzingerTree<>(Arrays.asList("b", "a"), new int[]{0, 1});
+            }
+        });
+        assertThrows(IllegalArgumentException.class, new Executable() {
+            @Override
+            public void execute() {
+                new EytzingerTree<>(Arrays.asList("a", "a"), new int[]{0, 1});
+            }
+        });
+        assertThrows(IllegalArgumentException.class, new Executable() {
+            @Override
+            public void execute() {
+                new EytzingerTree<>(Arrays.asList("a", "b"), new int[]{0});
+            }
+        });
+    }
+}
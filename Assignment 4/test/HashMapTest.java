@@ -0,0 +1,112 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Random puts, removes and gets of the open-addressing map, checked against java.util.HashMap
+ */
+class HashMapTest {
+
+    /**
+     * A key whose hash code only takes a few values, so the probe runs are long and wrap around the table
+     */
+    private static final class CollidingKey {
+        private final int value;
+
+        CollidingKey(int value) {
+            this.value = value;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof CollidingKey && ((CollidingKey) o).value == value;
+        }
+
+        @Override
+        public int hashCode() {
+            return value % 5;
+        }
+
+        @Override
+        public String toString() {
+            return "key" + value;
+        }
+    }
+
+    private static void checkSameAsJavaMap(HashMap<CollidingKey, Integer> map,
+                                           java.util.HashMap<CollidingKey, Integer> expected, int keyRange) {
+        assertEquals(expected.size(), map.size());
+        for (int i = 0; i < keyRange; i++) {
+            CollidingKey key = new CollidingKey(i);
+            assertEquals(expected.get(key), map.get(key), "value of " + key);
+        }
+    }
+
+    @Test
+    void randomOperationsMatchJavaMap() {
+        Random random = new Random(42);
+        for (int keyRange : new int[]{8, 40, 500}) {
+            HashMap<CollidingKey, Integer> map = new HashMap<>();
+            java.util.HashMap<CollidingKey, Integer> expected = new java.util.HashMap<>();
+            for (int step = 0; step < 20000; step++) {
+                CollidingKey key = new CollidingKey(random.nextInt(keyRange));
+                if (random.nextInt(3) == 0) {
+                    assertEquals(expected.remove(key), map.remove(key), "removed value of " + key);
+                } else {
+                    map.put(key, step);
+                    expected.put(key, step);
+                }
+                if (step % 500 == 0) {
+                    checkSameAsJavaMap(map, expected, keyRange);
+                }
+            }
+            checkSameAsJavaMap(map, expected, keyRange);
+        }
+    }
+
+    @Test
+    void removeShiftsBackTheFollowingKeysOfTheRun() {
+        HashMap<CollidingKey, Integer> map = new HashMap<>(20);
+        List<Integer> values = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            map.put(new CollidingKey(i), i);
+            values.add(i);
+        }
+        // removing in random order leaves holes anywhere in the runs, each must be filled or ended
+        Collections.shuffle(values, new Random(7));
+        for (int n = 0; n < values.size(); n++) {
+            assertEquals(values.get(n), map.remove(new CollidingKey(values.get(n))));
+            assertNull(map.get(new CollidingKey(values.get(n))));
+            for (int other : values.subList(n + 1, values.size())) {
+                assertEquals(Integer.valueOf(other), map.get(new CollidingKey(other)));
+            }
+        }
+        assertEquals(0, map.size());
+        assertEquals(-1, map.nextSlot(-1));
+    }
+
+    @Test
+    void getKeysHoldsEveryKeyOnce() {
+        HashMap<String, Integer> map = new HashMap<>();
+        for (int i = 0; i < 1000; i++) {
+            map.put("id" + i, i);
+        }
+        for (int i = 0; i < 1000; i += 2) {
+            map.remove("id" + i);
+        }
+        List<String> keys = map.getKeys();
+        Collections.sort(keys);
+        List<String> expected = new ArrayList<>();
+        for (int i = 1; i < 1000; i += 2) {
+            expected.add("id" + i);
+        }
+        Collections.sort(expected);
+        assertEquals(expected, keys);
+    }
+}
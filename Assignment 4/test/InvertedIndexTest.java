@@ -0,0 +1,112 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.BitSet;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Lookups of the sorted terms of an inverted index, with terms added once it is frozen
+ */
+class InvertedIndexTest {
+    private final TermDictionary dictionary = new TermDictionary();
+
+    private int term(String text) {
+        return dictionary.intern(text.toCharArray(), 0, text.length());
+    }
+
+    /**
+     * An index where each of the words is the term of the document with its position as ordinal
+     */
+    private InvertedIndex index(String... words) {
+        InvertedIndex index = new InvertedIndex(dictionary);
+        add(index, 0, words);
+        return index;
+    }
+
+    private void add(InvertedIndex index, int firstOrdinal, String... words) {
+        for (int i = 0; i < words.length; i++) {
+            index.addTerm(firstOrdinal + i, term(words[i]));
+        }
+    }
+
+    @Test
+    void prefixFindsTermsAddedAfterFreeze() {
+        InvertedIndex index = index("lac", "lake", "mont", "laval");
+        index.freeze();
+        add(index, 4, "lachine", "montagne", "lac", "labelle");
+        assertArrayEquals(new int[]{0, 1, 3, 4, 6, 7}, index.queryPrefix("la").toArray());
+        assertArrayEquals(new int[]{0, 4, 6}, index.queryPrefix("lac").toArray());
+        assertEquals(5, index.countPrefixTerms("la"));
+        assertEquals(2, index.countPrefixTerms("lac"));
+        add(index, 8, "lacroix");
+        assertArrayEquals(new int[]{0, 4, 6, 8}, index.queryPrefix("lac").toArray());
+        assertEquals(3, index.countPrefixTerms("lac"));
+    }
+
+    @Test
+    void lookupsBeforeFreezeFollowAddedTerms() {
+        InvertedIndex index = index("lake", "mont", "lac");
+        assertArrayEquals(new int[]{0, 2}, index.queryPrefix("la").toArray());
+        add(index, 3, "labelle", "lac");
+        assertArrayEquals(new int[]{0, 2, 3, 4}, index.queryPrefix("la").toArray());
+        assertEquals(3, index.countPrefixTerms("la"));
+        assertArrayEquals(new int[]{2, 4}, index.queryFuzzy(new LevenshteinAutomaton("lac", 1)).toArray());
+        index.freeze();
+        add(index, 5, "laval");
+        assertArrayEquals(new int[]{0, 2, 3, 4, 5}, index.queryPrefix("la").toArray());
+        assertEquals(4, index.countPrefixTerms("la"));
+    }
+
+    @Test
+    void fuzzyFindsTermsAddedAfterFreeze() {
+        InvertedIndex index = index("lac", "lake", "mont");
+        index.freeze();
+        add(index, 3, "lacs", "lax", "montagne");
+        assertEquals(3, index.fuzzyTerms(new LevenshteinAutomaton("lac", 1)).length);
+        assertArrayEquals(new int[]{0, 3, 4}, index.queryFuzzy(new LevenshteinAutomaton("lac", 1)).toArray());
+    }
+
+    @Test
+    void compactMergesAddedTerms() {
+        InvertedIndex index = index("lac", "mont", "baie");
+        index.freeze();
+        add(index, 3, "anse", "lac", "pointe");
+        BitSet deleted = new BitSet();
+        deleted.set(1);
+        InvertedIndex compacted = index.compact(deleted);
+        assertArrayEquals(new int[]{0, 2, 3, 4, 5}, union(compacted, "a", "b", "l", "p"));
+        assertEquals(0, compacted.countPrefixTerms("mont"));
+        assertEquals(1, compacted.countPrefixTerms("an"));
+    }
+
+    @Test
+    void snapshotHoldsAddedTerms() throws IOException {
+        InvertedIndex index = index("lac", "mont");
+        index.freeze();
+        add(index, 2, "baie");
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        index.write(new DataOutputStream(bytes));
+        InvertedIndex read = new InvertedIndex(dictionary);
+        read.read(ByteBuffer.wrap(bytes.toByteArray()));
+        assertArrayEquals(new int[]{2}, read.queryPrefix("b").toArray());
+        assertEquals(3, read.countPrefixTerms("b") + read.countPrefixTerms("l") + read.countPrefixTerms("m"));
+    }
+
+    /**
+     * The sorted ordinals of the documents with a term starting with one of the prefixes
+     */
+    private static int[] union(InvertedIndex index, String... prefixes) {
+        BitSet ordinals = new BitSet();
+        for (String prefix : prefixes) {
+            for (int ordinal : index.queryPrefix(prefix).toArray()) {
+                ordinals.set(ordinal);
+            }
+        }
+        return ordinals.stream().toArray();
+    }
+}
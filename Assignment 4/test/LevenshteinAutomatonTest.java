@@ -0,0 +1,102 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * The words accepted by a Levenshtein automaton, checked against the edit distance table for every short word over a
+ * small alphabet
+ */
+class LevenshteinAutomatonTest {
+    private static final String[] WORDS = {"", "a", "ab", "abc", "cab", "abba", "acbca"};
+
+    /**
+     * The number of insertions, deletions and substitutions of a char turning "a" into "b"
+     */
+    static int distance(String a, String b) {
+        int[] previous = new int[b.length() + 1];
+        int[] current = new int[b.length() + 1];
+        for (int j = 0; j <= b.length(); j++) {
+            previous[j] = j;
+        }
+        for (int i = 1; i <= a.length(); i++) {
+            current[0] = i;
+            for (int j = 1; j <= b.length(); j++) {
+                int substitution = previous[j - 1] + (a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1);
+                current[j] = Math.min(substitution, Math.min(previous[j], current[j - 1]) + 1);
+            }
+            int[] swap = previous;
+            previous = current;
+            current = swap;
+        }
+        return previous[b.length()];
+    }
+
+    /**
+     * Every word of up to "maxLength" chars over the alphabet
+     */
+    private static List<String> allWords(String alphabet, int maxLength) {
+        List<String> words = new ArrayList<>();
+        words.add("");
+        for (int from = 0; from < words.size(); from++) {
+            String word = words.get(from);
+            if (word.length() < maxLength) {
+                for (char c : alphabet.toCharArray()) {
+                    words.add(word + c);
+                }
+            }
+        }
+        return words;
+    }
+
+    @Test
+    void acceptsExactlyWordsWithinMaxDistance() {
+        List<String> candidates = allWords("abc", 6);
+        for (String word : WORDS) {
+            for (int maxDistance = 0; maxDistance <= LevenshteinAutomaton.MAX_DISTANCE; maxDistance++) {
+                LevenshteinAutomaton automaton = new LevenshteinAutomaton(word, maxDistance);
+                for (String candidate : candidates) {
+                    int[] state = automaton.start();
+                    int[] next = new int[state.length];
+                    for (char c : candidate.toCharArray()) {
+                        automaton.step(state, c, next);
+                        int[] swap = state;
+                        state = next;
+                        next = swap;
+                    }
+                    assertEquals(distance(word, candidate) <= maxDistance, automaton.isMatch(state),
+                            candidate + " within " + maxDistance + " of " + word);
+                }
+            }
+        }
+    }
+
+    @Test
+    void canMatchOnlyWhileSomeExtensionIsAccepted() {
+        List<String> prefixes = allWords("abcd", 5);
+        for (String word : WORDS) {
+            for (int maxDistance = 0; maxDistance <= LevenshteinAutomaton.MAX_DISTANCE; maxDistance++) {
+                LevenshteinAutomaton automaton = new LevenshteinAutomaton(word, maxDistance);
+                for (String prefix : prefixes) {
+                    // the best extension of the prefix ends like the word, after one of its prefixes
+                    int best = Integer.MAX_VALUE;
+                    for (int i = 0; i <= word.length(); i++) {
+                        best = Math.min(best, distance(word.substring(0, i), prefix));
+                    }
+                    int[] state = automaton.start();
+                    int[] next = new int[state.length];
+                    for (char c : prefix.toCharArray()) {
+                        automaton.step(state, c, next);
+                        int[] swap = state;
+                        state = next;
+                        next = swap;
+                    }
+                    assertEquals(best <= maxDistance, automaton.canMatch(state),
+                            prefix + " can lead within " + maxDistance + " of " + word);
+                }
+            }
+        }
+    }
+}
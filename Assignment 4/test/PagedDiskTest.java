@@ -0,0 +1,76 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.function.Executable;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * The values of a B+ tree stored in a page file through a buffer pool smaller than the file
+ */
+class PagedDiskTest {
+    private static final int PAGE_SIZE = 64; // 16 values per page
+
+    @Test
+    void treeReadsValuesThroughSmallBufferPool(@TempDir Path directory) throws IOException {
+        Random random = new Random(42);
+        List<Integer> keys = new ArrayList<>();
+        try (PagedDisk<Integer> disk = PagedDisk.open(directory.resolve("tree.pages"), PagedDisk.INT_CODEC, PAGE_SIZE,
+                2, true)) {
+            BPlusTree<Integer, Integer> tree = new BPlusTree<>(4, disk);
+            for (int i = 0; i < 1000; i++) {
+                int key = random.nextInt(1000000);
+                tree.add(key, key * 2);
+                keys.add(key);
+            }
+            // the values are read in random order, so most reads miss the 2 pages in memory
+            for (int key : keys) {
+                assertEquals(key * 2, tree.find(key).get(0).intValue());
+            }
+            assertEquals(1000, disk.size());
+        }
+    }
+
+    @Test
+    void valuesSurviveReopenWithoutTruncation(@TempDir Path directory) throws IOException {
+        Path file = directory.resolve("values.pages");
+        try (PagedDisk<Integer> disk = PagedDisk.open(file, PagedDisk.INT_CODEC, PAGE_SIZE, 2, true)) {
+            for (int i = 0; i < 100; i++) {
+                assertEquals(i, disk.writeToDisk(i * 3));
+            }
+        }
+        try (PagedDisk<Integer> disk = PagedDisk.open(file, PagedDisk.INT_CODEC, PAGE_SIZE, 2, false)) {
+            assertEquals(100, disk.size());
+            for (int i = 0; i < 100; i++) {
+                assertEquals(i * 3, disk.readFromDisk(i).intValue());
+            }
+            assertEquals(100, disk.writeToDisk(7));
+        }
+        try (final PagedDisk<Integer> disk = PagedDisk.open(file, PagedDisk.INT_CODEC, PAGE_SIZE, 2, true)) {
+            assertEquals(0, disk.size());
+            assertThrows(IndexOutOfBoundsException.class, new Executable() {
+                @Override
+                public void execute() {
+                    disk.readFromDisk(0);
+                }
+            });
+        }
+    }
+
+    @Test
+    void fileOfOtherPageSizeIsRejected(@TempDir final Path directory) throws IOException {
+        PagedDisk.open(directory.resolve("values.pages"), PagedDisk.INT_CODEC, PAGE_SIZE, 2, true).close();
+        assertThrows(IOException.class, new Executable() {
+            @Override
+            public void execute() throws IOException {
+                PagedDisk.open(directory.resolve("values.pages"), PagedDisk.INT_CODEC, 2 * PAGE_SIZE, 2, false);
+            }
+        });
+    }
+}
@@ -0,0 +1,145 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * The variable-byte blocks of a posting list, walked and skipped by its cursor, before and after it is frozen
+ */
+class PostingListTest {
+    private final Random random = new Random(42);
+
+    /**
+     * "count" increasing ordinals, mostly close to each other with a few gaps needing several bytes
+     */
+    private int[] ordinals(int count) {
+        int[] ordinals = new int[count];
+        int ordinal = -1;
+        for (int i = 0; i < count; i++) {
+            ordinal += random.nextInt(10) == 0 ? 1 + random.nextInt(1 << 22) : 1 + random.nextInt(5);
+            ordinals[i] = ordinal;
+        }
+        return ordinals;
+    }
+
+    private static PostingList list(int[] ordinals) {
+        PostingList list = new PostingList();
+        for (int ordinal : ordinals) {
+            list.add(ordinal);
+            list.add(ordinal); // a repeated ordinal is dropped
+        }
+        return list;
+    }
+
+    /**
+     * Advances a cursor of the list to random increasing targets and checks each ordinal found against a binary
+     * search of the ordinals
+     */
+    private void checkAdvance(PostingList list, int[] ordinals) {
+        DocCursor cursor = list.cursor();
+        int target = 0;
+        while (true) {
+            target += 1 + random.nextInt(random.nextBoolean() ? 3 : PostingList.BLOCK_SIZE * 40);
+            int index = Arrays.binarySearch(ordinals, target);
+            if (index < 0) {
+                index = -index - 1;
+            }
+            int expected = index < ordinals.length ? ordinals[index] : DocCursor.NO_MORE_DOCS;
+            assertEquals(expected, cursor.advance(target), "advance to " + target);
+            if (expected == DocCursor.NO_MORE_DOCS) {
+                return;
+            }
+            target = expected;
+            if (random.nextBoolean() && index + 1 < ordinals.length) {
+                assertEquals(ordinals[index + 1], cursor.nextDoc());
+                target = ordinals[index + 1];
+            }
+        }
+    }
+
+    @Test
+    void cursorReadsBlocksAndTail() {
+        for (int count : new int[]{0, 1, PostingList.BLOCK_SIZE - 1, PostingList.BLOCK_SIZE, 1000}) {
+            int[] ordinals = ordinals(count);
+            PostingList list = list(ordinals);
+            assertEquals(count, list.size());
+            assertArrayEquals(ordinals, list.cursor().toArray());
+            list.freeze();
+            assertArrayEquals(ordinals, list.cursor().toArray());
+        }
+    }
+
+    @Test
+    void advanceSkipsToFirstOrdinalNotBelowTarget() {
+        for (int count : new int[]{1, PostingList.BLOCK_SIZE + 1, 5000}) {
+            int[] ordinals = ordinals(count);
+            PostingList list = list(ordinals);
+            checkAdvance(list, ordinals);
+            list.freeze();
+            for (int i = 0; i < 20; i++) {
+                checkAdvance(list, ordinals);
+            }
+        }
+    }
+
+    @Test
+    void ordinalsAddedAfterFreezeAreRead() {
+        int[] ordinals = ordinals(700);
+        PostingList list = list(Arrays.copyOf(ordinals, 500));
+        list.freeze();
+        for (int i = 500; i < ordinals.length; i++) {
+            list.add(ordinals[i]);
+        }
+        assertArrayEquals(ordinals, list.cursor().toArray());
+        checkAdvance(list, ordinals);
+    }
+
+    @Test
+    void copyDropsDeletedOrdinals() {
+        int[] ordinals = ordinals(1000);
+        PostingList list = list(ordinals);
+        BitSet deleted = new BitSet();
+        int[] live = new int[ordinals.length];
+        int liveCount = 0;
+        for (int ordinal : ordinals) {
+            if (random.nextInt(3) == 0) {
+                deleted.set(ordinal);
+            } else {
+                live[liveCount++] = ordinal;
+            }
+        }
+        PostingList copy = list.copy(deleted);
+        assertEquals(liveCount, copy.size());
+        assertArrayEquals(Arrays.copyOf(live, liveCount), copy.cursor().toArray());
+        BitSet all = new BitSet();
+        for (int ordinal : ordinals) {
+            all.set(ordinal);
+        }
+        assertNull(list.copy(all));
+    }
+
+    @Test
+    void snapshotRoundTrip() throws IOException {
+        int[] ordinals = ordinals(1000);
+        PostingList list = list(Arrays.copyOf(ordinals, 900));
+        list.freeze();
+        for (int i = 900; i < ordinals.length; i++) {
+            list.add(ordinals[i]);
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        list.write(new DataOutputStream(bytes));
+        PostingList read = PostingList.read(ByteBuffer.wrap(bytes.toByteArray()));
+        assertEquals(ordinals.length, read.size());
+        assertArrayEquals(ordinals, read.cursor().toArray());
+        checkAdvance(read, ordinals);
+    }
+}
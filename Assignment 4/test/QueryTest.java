@@ -0,0 +1,63 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.function.Executable;
+
+/**
+ * Parsing of the LIMIT and OFFSET of a query, and its normalized form, the key of the query cache
+ */
+class QueryTest {
+
+    private static void assertInvalid(final String query) {
+        assertThrows(IllegalArgumentException.class, new Executable() {
+            @Override
+            public void execute() {
+                new Query(query);
+            }
+        });
+    }
+
+    @Test
+    void pageIsRemovedFromLastClause() {
+        Query query = new Query("type: lake OFFSET 5 LIMIT 10");
+        assertEquals(10, query.getLimit());
+        assertEquals(5, query.getOffset());
+        assertEquals("lake", query.getClauses().get(0).getValue());
+    }
+
+    @Test
+    void normalizedIgnoresSpacingOutsideContains() {
+        assertEquals(new Query("name: MATCH_ALL(lac   vert)").normalized(),
+                new Query("name:MATCH_ALL( lac vert )").normalized());
+        assertEquals(new Query("location: WITHIN(46, -72 | 47, -71)").normalized(),
+                new Query("location: WITHIN(46,-72|47,-71)").normalized());
+        assertNotEquals(new Query("name: CONTAINS(lac  vert)").normalized(),
+                new Query("name: CONTAINS(lac vert)").normalized());
+    }
+
+    @Test
+    void containsIsNotAnsweredFromCacheOfOtherSpacing() {
+        SearchIndex index = new SearchIndex();
+        index.enableSubstringIndex();
+        index.addDocument(new Document("id0", "Lac  Vert", "Lake", "46.81", "-71.21", "Quebec"));
+        index.freeze();
+        assertEquals(1, index.searchQuery(new Query("name: CONTAINS(lac  vert)")).size());
+        assertEquals(0, index.searchQuery(new Query("name: CONTAINS(lac vert)")).size());
+    }
+
+    @Test
+    void negativeLimitOrOffsetIsRejected() {
+        assertInvalid("type: lake LIMIT -1");
+        assertInvalid("type: lake OFFSET -3");
+        assertInvalid("type: lake LIMIT 10 OFFSET -3");
+    }
+
+    @Test
+    void tooLargeOrRepeatedPageIsRejected() {
+        assertInvalid("type: lake LIMIT 99999999999");
+        assertInvalid("type: lake LIMIT -99999999999");
+        assertInvalid("type: lake LIMIT 1 LIMIT 2");
+    }
+}
@@ -0,0 +1,224 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.function.Executable;
+
+/**
+ * Searches of the packed R-tree, with points added after it is packed, checked against a scan of all the points
+ */
+class RTreeTest {
+    private final Random random = new Random(42);
+    private double[] latitudes = new double[0];
+    private double[] longitudes = new double[0];
+
+    /**
+     * Adds "count" random points to the tree, half of them spread over the globe and half of them in a small area, so
+     * the searches both prune nodes and go through dense ones. The ordinal of a point is its index
+     */
+    private RTree addPoints(RTree tree, int count) {
+        int from = latitudes.length;
+        latitudes = Arrays.copyOf(latitudes, from + count);
+        longitudes = Arrays.copyOf(longitudes, from + count);
+        for (int i = from; i < from + count; i++) {
+            if (i % 2 == 0) {
+                latitudes[i] = random.nextDouble() * 178 - 89;
+                longitudes[i] = random.nextDouble() * 360 - 180;
+            } else {
+                latitudes[i] = 45 + random.nextDouble() * 3;
+                longitudes[i] = -74 + random.nextDouble() * 3;
+            }
+            tree.add(latitudes[i], longitudes[i], i);
+        }
+        return tree;
+    }
+
+    private RTree tree(int count) {
+        latitudes = new double[0];
+        longitudes = new double[0];
+        RTree tree = addPoints(new RTree(), count);
+        tree.build();
+        return tree;
+    }
+
+    private int[] scanBox(double minLatitude, double maxLatitude, double minLongitude, double maxLongitude,
+                          BitSet deleted) {
+        BitSet found = new BitSet();
+        for (int i = 0; i < latitudes.length; i++) {
+            if (!deleted.get(i) && latitudes[i] >= minLatitude && latitudes[i] <= maxLatitude
+                    && longitudes[i] >= minLongitude && longitudes[i] <= maxLongitude) {
+                found.set(i);
+            }
+        }
+        return found.stream().toArray();
+    }
+
+    private void checkBoxes(RTree tree, BitSet deleted) {
+        for (int i = 0; i < 200; i++) {
+            boolean small = random.nextBoolean();
+            double minLatitude = small ? 45 + random.nextDouble() * 3 : random.nextDouble() * 178 - 89;
+            double minLongitude = small ? -74 + random.nextDouble() * 3 : random.nextDouble() * 360 - 180;
+            double maxLatitude = minLatitude + random.nextDouble() * (small ? 1 : 60);
+            double maxLongitude = minLongitude + random.nextDouble() * (small ? 1 : 90);
+            assertArrayEquals(scanBox(minLatitude, maxLatitude, minLongitude, maxLongitude, deleted),
+                    tree.search(minLatitude, maxLatitude, minLongitude, maxLongitude));
+        }
+    }
+
+    @Test
+    void boxSearchMatchesScan() {
+        for (int count : new int[]{1, RTree.NODE_CAPACITY, 3000}) {
+            checkBoxes(tree(count), new BitSet());
+        }
+    }
+
+    @Test
+    void boxSearchFindsPointsAddedAfterBuild() {
+        RTree tree = tree(2000);
+        // the first points are checked one by one, then there are too many of them and the tree is packed again
+        addPoints(tree, 100);
+        checkBoxes(tree, new BitSet());
+        addPoints(tree, 2000);
+        checkBoxes(tree, new BitSet());
+    }
+
+    @Test
+    void compactedTreeHoldsLivePoints() {
+        RTree tree = tree(3000);
+        BitSet deleted = new BitSet();
+        for (int i = 0; i < 3000; i += 3) {
+            deleted.set(i);
+        }
+        checkBoxes(tree.compact(deleted), deleted);
+    }
+
+    /**
+     * The haversine distance in km, computed apart from the tree
+     */
+    static double distanceKm(double latitude1, double longitude1, double latitude2, double longitude2) {
+        double phi1 = Math.toRadians(latitude1);
+        double phi2 = Math.toRadians(latitude2);
+        double a = Math.pow(Math.sin((phi2 - phi1) / 2), 2)
+                + Math.cos(phi1) * Math.cos(phi2) * Math.pow(Math.sin(Math.toRadians(longitude2 - longitude1) / 2), 2);
+        return 2 * RTree.EARTH_RADIUS_KM * Math.asin(Math.min(1, Math.sqrt(a)));
+    }
+
+    /**
+     * Checks that the nearest points found are as near as the k nearest points of a scan, the nearest first. The
+     * distances are compared, as two points may be as near as each other
+     */
+    private void checkNearest(RTree tree, double latitude, double longitude, int k, RTree.OrdinalFilter filter) {
+        List<Double> scanned = new ArrayList<>();
+        for (int i = 0; i < latitudes.length; i++) {
+            if (filter.accept(i)) {
+                scanned.add(distanceKm(latitude, longitude, latitudes[i], longitudes[i]));
+            }
+        }
+        Collections.sort(scanned);
+        int[] nearest = tree.nearest(latitude, longitude, k, filter);
+        String query = k + " nearest of " + latitude + ", " + longitude;
+        assertEquals(Math.min(k, scanned.size()), nearest.length, query);
+        for (int i = 0; i < nearest.length; i++) {
+            assertTrue(filter.accept(nearest[i]), query);
+            assertEquals(scanned.get(i), distanceKm(latitude, longitude, latitudes[nearest[i]],
+                    longitudes[nearest[i]]), 1e-9, query);
+        }
+    }
+
+    @Test
+    void nearestMatchesScanOfDistances() {
+        RTree tree = tree(3000);
+        addPoints(tree, 100); // unpacked
+        RTree.OrdinalFilter all = new RTree.OrdinalFilter() {
+            @Override
+            public boolean accept(int ordinal) {
+                return true;
+            }
+        };
+        RTree.OrdinalFilter everyThird = new RTree.OrdinalFilter() {
+            @Override
+            public boolean accept(int ordinal) {
+                return ordinal % 3 == 0;
+            }
+        };
+        // inside the dense area, anywhere, next to the 180th meridian and to the poles
+        double[][] origins = {{46.5, -72.5}, {0, 0}, {10, 179.9}, {-30, -179.95}, {89.9, 45}, {-89.9, -120}};
+        for (double[] origin : origins) {
+            for (int k : new int[]{1, 10, 200}) {
+                checkNearest(tree, origin[0], origin[1], k, all);
+                checkNearest(tree, origin[0], origin[1], k, everyThird);
+            }
+        }
+        for (int i = 0; i < 100; i++) {
+            checkNearest(tree, random.nextDouble() * 180 - 90, random.nextDouble() * 360 - 180,
+                    1 + random.nextInt(30), random.nextBoolean() ? all : everyThird);
+        }
+        assertEquals(0, tree.nearest(0, 0, 0, all).length);
+        assertEquals(3100, tree.nearest(0, 0, 5000, all).length);
+    }
+
+    private int[] scanCircle(double latitude, double longitude, double km, BitSet deleted) {
+        BitSet found = new BitSet();
+        for (int i = 0; i < latitudes.length; i++) {
+            if (!deleted.get(i) && distanceKm(latitude, longitude, latitudes[i], longitudes[i]) <= km) {
+                found.set(i);
+            }
+        }
+        return found.stream().toArray();
+    }
+
+    private void checkCircle(RTree tree, double latitude, double longitude, double km, BitSet deleted) {
+        assertArrayEquals(scanCircle(latitude, longitude, km, deleted),
+                tree.search(new RTree.Circle(latitude, longitude, km)),
+                "within " + km + " km of " + latitude + ", " + longitude);
+    }
+
+    @Test
+    void circleSearchMatchesScanOfDistances() {
+        RTree tree = tree(3000);
+        addPoints(tree, 100); // unpacked
+        BitSet deleted = new BitSet();
+        // inside the dense area, next to the 180th meridian and to the poles, and over the whole globe
+        double[][] circles = {{46.5, -72.5, 1}, {46.5, -72.5, 50}, {46.5, -72.5, 400}, {10, 179.9, 800},
+                {-30, -179.95, 2000}, {89.9, 45, 500}, {-89.9, -120, 1500}, {80, 0, 3000}, {0, 0, 10000},
+                {0, 0, 20000}, {0, 0, 25000}};
+        for (double[] circle : circles) {
+            checkCircle(tree, circle[0], circle[1], circle[2], deleted);
+        }
+        for (int i = 0; i < 200; i++) {
+            boolean small = random.nextBoolean();
+            double latitude = small ? 45 + random.nextDouble() * 3 : random.nextDouble() * 180 - 90;
+            double longitude = small ? -74 + random.nextDouble() * 3 : random.nextDouble() * 360 - 180;
+            checkCircle(tree, latitude, longitude, random.nextDouble() * (small ? 100 : 5000), deleted);
+        }
+        for (int i = 0; i < 3100; i += 3) {
+            deleted.set(i);
+        }
+        RTree compacted = tree.compact(deleted);
+        for (int i = 0; i < 100; i++) {
+            checkCircle(compacted, random.nextDouble() * 180 - 90, random.nextDouble() * 360 - 180,
+                    random.nextDouble() * 5000, deleted);
+        }
+    }
+
+    @Test
+    void circleWithoutPositiveRadiusIsRejected() {
+        for (final double km : new double[]{0, -1, Double.NaN}) {
+            assertThrows(IllegalArgumentException.class, new Executable() {
+                @Override
+                public void execute() {
+                    new RTree.Circle(46.5, -72.5, km);
+                }
+            }, "radius " + km);
+        }
+    }
+}
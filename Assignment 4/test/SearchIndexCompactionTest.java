@@ -0,0 +1,239 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.function.Executable;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Deletes and compactions of a frozen index while searches are open on it
+ */
+class SearchIndexCompactionTest {
+    private static final int RIVERS = 100;
+
+    /**
+     * A frozen index of the lakes "id0" to "id<count - 1>", and of RIVERS rivers elsewhere, so a few deletes do not
+     * start a compaction in the background
+     */
+    private static SearchIndex lakes(int count) {
+        return lakes(new SearchIndex(), count);
+    }
+
+    private static SearchIndex lakes(SearchIndex index, int count) {
+        for (int i = 0; i < count; i++) {
+            index.addDocument(lake("id" + i));
+        }
+        for (int i = 0; i < RIVERS; i++) {
+            index.addDocument(new Document("river" + i, "Riviere " + i, "River", "50.5", "-60.5", "Cote-Nord"));
+        }
+        index.freeze();
+        return index;
+    }
+
+    private static Document lake(String id) {
+        return new Document(id, "Lac " + id, "Lake", "46.81", "-71.21", "Quebec");
+    }
+
+    private static List<String> ids(Iterator<Document> it) {
+        List<String> ids = new ArrayList<>();
+        while (it.hasNext()) {
+            ids.add(it.next().id);
+        }
+        return ids;
+    }
+
+    private static List<String> ids(List<Document> docs) {
+        return ids(docs.iterator());
+    }
+
+    private static List<String> pageFiles(Path directory) throws IOException {
+        List<String> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            for (Path file : stream) {
+                files.add(file.getFileName().toString());
+            }
+        }
+        return files;
+    }
+
+    @Test
+    void iteratorSkipsDocumentDeletedThenCompacted() {
+        SearchIndex index = lakes(5);
+        Iterator<Document> it = index.searchIterator(new Query("type: lake"));
+        assertEquals("id0", it.next().id);
+        index.deleteDocument("id2");
+        index.compact();
+        assertEquals(Arrays.asList("id1", "id3", "id4"), ids(it));
+    }
+
+    @Test
+    void iteratorSkipsDocumentDeletedBeforeCompaction() {
+        SearchIndex index = lakes(5);
+        Iterator<Document> it = index.searchIterator(new Query("type: lake"));
+        assertEquals("id0", it.next().id);
+        index.deleteDocument("id3");
+        assertEquals(Arrays.asList("id1", "id2", "id4"), ids(it));
+    }
+
+    @Test
+    void iteratorSkipsNextDocumentDeletedAfterItWasFound() {
+        SearchIndex index = lakes(5);
+        Iterator<Document> it = index.searchIterator(new Query("type: lake"));
+        assertEquals("id0", it.next().id);
+        // "id1" is the next document of the iterator already
+        index.deleteDocument("id1");
+        index.compact();
+        assertEquals(Arrays.asList("id2", "id3", "id4"), ids(it));
+    }
+
+    @Test
+    void pageOfIteratorSkipsDeletedDocuments() {
+        SearchIndex index = lakes(5);
+        index.deleteDocument("id0");
+        Iterator<Document> it = index.searchIterator(new Query("type: lake LIMIT 2 OFFSET 1"));
+        assertEquals(Arrays.asList("id2", "id3"), ids(it));
+    }
+
+    @Test
+    void streamSkipsDocumentDeletedThenCompacted() {
+        SearchIndex index = lakes(5);
+        Stream<Document> stream = index.searchStream(new Query("type: lake"));
+        index.deleteDocument("id2");
+        index.compact();
+        assertEquals(Arrays.asList("id0", "id1", "id3", "id4"), ids(stream.iterator()));
+    }
+
+    @Test
+    void iteratorFailsWhenDocumentIsAdded() {
+        SearchIndex index = lakes(5);
+        final Iterator<Document> it = index.searchIterator(new Query("type: lake"));
+        it.next();
+        index.addDocument(lake("id5"));
+        assertThrows(ConcurrentModificationException.class, new Executable() {
+            @Override
+            public void execute() {
+                it.next();
+            }
+        });
+    }
+
+    @Test
+    void searchAfterCompactionFindsLiveDocuments() {
+        SearchIndex index = lakes(5);
+        index.deleteDocument("id1");
+        index.deleteDocument("id4");
+        index.compact();
+        assertEquals(Arrays.asList("id0", "id2", "id3"), ids(index.searchQuery(new Query("type: lake"))));
+        assertEquals(Arrays.asList("id2"), ids(index.searchQuery(new Query("id: id2"))));
+        assertEquals(Arrays.asList(), ids(index.searchQuery(new Query("id: id4"))));
+        assertEquals(Arrays.asList("id0", "id2", "id3"),
+                ids(index.searchQuery(new Query("location: WITHIN(46, -72 | 47, -71)"))));
+    }
+
+    @Test
+    void pagedCompactionReplacesPageFile(@TempDir Path directory) throws IOException {
+        SearchIndex index = lakes(new SearchIndex(directory, 4), 5);
+        index.deleteDocument("id1");
+        index.compact();
+        assertEquals(Arrays.asList("coordinate.compacted.pages"), pageFiles(directory));
+        index.deleteDocument("id3");
+        index.compact();
+        assertEquals(Arrays.asList("coordinate.pages"), pageFiles(directory));
+        assertEquals(Arrays.asList("id0", "id2", "id4"),
+                ids(index.searchQuery(new Query("location: AT(46.81, -71.21)"))));
+        index.close();
+    }
+
+    @Test
+    void compactionIsDueAtShareOfLiveDocuments() throws IOException {
+        SearchIndex index = lakes(0);
+        for (int i = 0; i < 10; i++) {
+            index.deleteDocument("river" + i);
+        }
+        index.close(); // waits for the compaction started by the tenth delete
+        assertNull(index.documents.get(0));
+        // 90 documents are left, so 9 deletes start the next compaction
+        for (int i = 10; i < 18; i++) {
+            index.deleteDocument("river" + i);
+        }
+        index.close();
+        assertNotNull(index.documents.get(17));
+        index.deleteDocument("river18");
+        index.close();
+        assertNull(index.documents.get(18));
+    }
+
+    @Test
+    void compactionStartsOverWhenDocumentIsAddedDuringRebuild() {
+        final SearchIndex index = lakes(5);
+        index.deleteDocument("id1");
+        final AtomicInteger rebuilds = new AtomicInteger();
+        index.beforeCompactionSwap = new Runnable() {
+            @Override
+            public void run() {
+                if (rebuilds.incrementAndGet() == 1) {
+                    index.addDocument(lake("id5"));
+                }
+            }
+        };
+        index.compact();
+        assertEquals(2, rebuilds.get());
+        assertEquals(Arrays.asList("id0", "id2", "id3", "id4", "id5"),
+                ids(index.searchQuery(new Query("type: lake"))));
+        assertEquals(Arrays.asList("id5"), ids(index.searchQuery(new Query("id: id5"))));
+    }
+
+    @Test
+    void compactionHoldsWriteLockAfterTooManyRebuilds() {
+        final SearchIndex index = lakes(5);
+        index.deleteDocument("id1");
+        final AtomicInteger rebuilds = new AtomicInteger();
+        index.beforeCompactionSwap = new Runnable() {
+            @Override
+            public void run() {
+                int rebuild = rebuilds.incrementAndGet();
+                if (rebuild <= SearchIndex.MAX_COMPACTION_ATTEMPTS) {
+                    index.addDocument(lake("id" + (4 + rebuild)));
+                }
+            }
+        };
+        index.compact();
+        assertEquals(SearchIndex.MAX_COMPACTION_ATTEMPTS + 1, rebuilds.get());
+        assertNull(index.documents.get(1));
+        assertEquals(Arrays.asList("id0", "id2", "id3", "id4", "id5", "id6", "id7"),
+                ids(index.searchQuery(new Query("type: lake"))));
+    }
+
+    @Test
+    void documentDeletedDuringRebuildStaysDeleted() {
+        final SearchIndex index = lakes(5);
+        index.deleteDocument("id1");
+        index.beforeCompactionSwap = new Runnable() {
+            @Override
+            public void run() {
+                index.deleteDocument("id3");
+            }
+        };
+        index.compact();
+        assertEquals(Arrays.asList("id0", "id2", "id4"), ids(index.searchQuery(new Query("type: lake"))));
+        // the next compaction drops "id3", which the first one still held
+        index.beforeCompactionSwap = null;
+        index.compact();
+        assertEquals(Arrays.asList("id0", "id2", "id4"), ids(index.searchQuery(new Query("type: lake"))));
+        assertEquals(Arrays.asList(), ids(index.searchQuery(new Query("id: id3"))));
+    }
+}
@@ -0,0 +1,294 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Queries of every kind on a small fixed set of places, on the built index and on the index loaded from its snapshot
+ */
+class SearchIndexQueryTest {
+    private static final List<Document> PLACES = Arrays.asList(
+            new Document("P01", "Lac Vert", "Lake", "46.81", "-71.21", "Québec"),
+            new Document("P02", "Lac Verte", "Lake", "46.90", "-71.30", "Québec"),
+            new Document("P03", "Lac Vers", "Lake", "47.10", "-70.90", "Charlevoix"),
+            new Document("P04", "Rivière Bonjour", "River", "48.20", "-67.50", "Rivière-Bonjour"),
+            new Document("P05", "Rivière du Loup", "River", "47.83", "-69.53", "Rivière-du-Loup"),
+            new Document("P06", "Mont Royal", "Mountain", "45.50", "-73.59", "Montréal"),
+            new Document("P07", "Mont Tremblant", "Mountain", "46.21", "-74.58", "Laurentides"),
+            new Document("P08", "Parc national de la Jacques-Cartier", "National Park", "47.32", "-71.38",
+                    "La Jacques-Cartier"),
+            new Document("P09", "Lac Saint-Jean", "Lake", "48.60", "-72.00", "Saguenay"),
+            new Document("P10", "Lac à l'Eau Claire", "Lake", "56.20", "-74.40", "Nord-du-Québec"),
+            new Document("P11", "Île d'Orléans", "Island", "46.92", "-70.98", "L'Île-d'Orléans"),
+            new Document("P12", "Baie James", "Bay", "53.00", "-80.00", "Baie-James"),
+            new Document("P13", "Lac Brome", "Lake", "45.21", "-72.52", "Brome-Missisquoi"),
+            new Document("P14", "Lacs Verts", "Lake", "46.70", "-71.10", "Québec"),
+            new Document("P15", "Ruisseau Vert", "Stream", "46.82", "-71.22", "Québec"),
+            new Document("P16", "Pointe Verte", "Point", "48.40", "-64.20", "Gaspé"),
+            new Document("P17", "Lac Laval", "Lake", "46.00", "-73.00", "Matawinie"),
+            new Document("P18", "Mont Laval", "Mountain", "46.05", "-73.05", "Matawinie"),
+            new Document("P19", "Cap Bon-Ami", "Cape", "48.95", "-64.20", "Gaspé"),
+            new Document("P20", "Anse Pleureuse", "Cove", "49.23", "-65.57", "Haute-Gaspésie"),
+            new Document("P21", "Lac Kénogami", "Lake", "48.35", "-71.45", "Saguenay"),
+            new Document("P22", "Lac Vert", "Lake", "46.81", "-71.21", "Québec"));
+
+    // the place deleted before the index is frozen and written to its snapshot
+    private static final String DELETED = "P14";
+
+    private static SearchIndex built() {
+        SearchIndex index = new SearchIndex();
+        index.enableSubstringIndex();
+        for (Document place : PLACES) {
+            index.addDocument(place);
+        }
+        index.deleteDocument(DELETED);
+        index.freeze();
+        return index;
+    }
+
+    /**
+     * The index of the places, and the one loaded from its snapshot
+     */
+    private static List<SearchIndex> indices(Path directory) throws IOException {
+        SearchIndex built = built();
+        Path snapshot = directory.resolve("places.snapshot");
+        built.writeSnapshot(snapshot);
+        SearchIndex loaded = new SearchIndex();
+        loaded.loadSnapshot(snapshot);
+        return Arrays.asList(built, loaded);
+    }
+
+    private static List<String> ids(List<Document> documents) {
+        List<String> ids = new ArrayList<>();
+        for (Document document : documents) {
+            ids.add(document.id);
+        }
+        return ids;
+    }
+
+    private static List<String> search(SearchIndex index, String query) {
+        return ids(index.searchQuery(new Query(query)));
+    }
+
+    /**
+     * Selects the places a query must find
+     */
+    private interface PlaceFilter {
+        boolean accept(Document place);
+    }
+
+    /**
+     * The ids of the places accepted by the filter, except the deleted one, in the order of the places
+     */
+    private static List<String> scan(PlaceFilter filter) {
+        List<String> ids = new ArrayList<>();
+        for (Document place : PLACES) {
+            if (!place.id.equals(DELETED) && filter.accept(place)) {
+                ids.add(place.id);
+            }
+        }
+        return ids;
+    }
+
+    private static String field(Document place, String field) {
+        if (field.equals("name")) {
+            return place.name;
+        }
+        return field.equals("region") ? place.region : place.type;
+    }
+
+    /**
+     * The text in lower case and without accents, as the analyzer compares it
+     */
+    private static String normalize(String text) {
+        return Normalizer.normalize(text.toLowerCase(Locale.ROOT), Normalizer.Form.NFD).replaceAll("\\p{M}", "");
+    }
+
+    /**
+     * The normalized words of a text which are not stop words
+     */
+    private static List<String> words(String text) {
+        List<String> stopWords = new ArrayList<>();
+        for (String stopWord : SearchIndex.STOP_WORDS) {
+            stopWords.add(normalize(stopWord));
+        }
+        List<String> words = new ArrayList<>();
+        for (String word : normalize(text).split("[ ;,()|]+")) {
+            if (!word.isEmpty() && !stopWords.contains(word)) {
+                words.add(word);
+            }
+        }
+        return words;
+    }
+
+    @Test
+    void fuzzyMatchesScanOfEditDistances(@TempDir Path directory) throws IOException {
+        List<SearchIndex> indices = indices(directory);
+        String[][] queries = {{"name", "lac vert", "1"}, {"name", "rivire", "2"}, {"name", "mont", "0"},
+                {"name", "laval", "1"}, {"name", "lacs vers", "1"}, {"name", "verts", "2"}, {"name", "bonami", "1"},
+                {"region", "gaspe", "1"}, {"region", "quebek", "1"}, {"type", "lak", "1"}, {"type", "parc", "2"}};
+        for (String[] query : queries) {
+            final String field = query[0];
+            final List<String> queryWords = words(query[1]);
+            final int maxDistance = Integer.parseInt(query[2]);
+            List<String> expected = scan(new PlaceFilter() {
+                @Override
+                public boolean accept(Document place) {
+                    List<String> placeWords = words(field(place, field));
+                    for (String queryWord : queryWords) {
+                        boolean found = false;
+                        for (String placeWord : placeWords) {
+                            found |= LevenshteinAutomatonTest.distance(queryWord, placeWord) <= maxDistance;
+                        }
+                        if (!found) {
+                            return false;
+                        }
+                    }
+                    return true;
+                }
+            });
+            String text = field + ": FUZZY(" + query[1] + "~" + maxDistance + ")";
+            for (SearchIndex index : indices) {
+                assertEquals(expected, search(index, text), text);
+            }
+        }
+    }
+
+    @Test
+    void containsMatchesScanOfNormalizedTexts(@TempDir Path directory) throws IOException {
+        List<SearchIndex> indices = new ArrayList<>(indices(directory));
+        // without the trigram indices every place is checked
+        SearchIndex scanned = new SearchIndex();
+        for (Document place : PLACES) {
+            scanned.addDocument(place);
+        }
+        scanned.deleteDocument(DELETED);
+        scanned.freeze();
+        indices.add(scanned);
+        String[][] queries = {{"name", "bon"}, {"name", "lac v"}, {"name", "VERTE"}, {"name", "de la"},
+                {"name", "ri"}, {"name", "l'eau"}, {"name", "riviere"}, {"name", "lac  vert"}, {"name", "xyz"},
+                {"region", "gasp"}, {"region", "-du-"}, {"region", "québec"}, {"type", "park"}, {"type", "la"}};
+        for (String[] query : queries) {
+            final String field = query[0];
+            final String substring = normalize(query[1]);
+            List<String> expected = scan(new PlaceFilter() {
+                @Override
+                public boolean accept(Document place) {
+                    return normalize(field(place, field)).contains(substring);
+                }
+            });
+            String text = field + ": CONTAINS(" + query[1] + ")";
+            for (SearchIndex index : indices) {
+                assertEquals(expected, search(index, text), text);
+            }
+        }
+    }
+
+    private static double distanceKm(Document place, double latitude, double longitude) {
+        return RTreeTest.distanceKm(latitude, longitude, Double.parseDouble(place.latitude),
+                Double.parseDouble(place.longitude));
+    }
+
+    @Test
+    void nearMatchesScanOfDistances(@TempDir Path directory) throws IOException {
+        List<SearchIndex> indices = indices(directory);
+        // the places are at different distances from each origin, but for P01 and P22 which are at the same point
+        double[][] origins = {{46.81, -71.21}, {48.5, -64.0}, {45.0, -74.0}, {60.0, -100.0}};
+        for (double[] origin : origins) {
+            final double latitude = origin[0];
+            final double longitude = origin[1];
+            for (String other : new String[]{"", " AND type: lake"}) {
+                for (int k = 1; k <= PLACES.size(); k++) {
+                    final boolean lakesOnly = !other.isEmpty();
+                    List<Document> places = new ArrayList<>();
+                    for (Document place : PLACES) {
+                        if (!place.id.equals(DELETED) && (!lakesOnly || place.type.equals("Lake"))) {
+                            places.add(place);
+                        }
+                    }
+                    Collections.sort(places, new Comparator<Document>() {
+                        @Override
+                        public int compare(Document a, Document b) {
+                            return Double.compare(distanceKm(a, latitude, longitude), distanceKm(b, latitude,
+                                    longitude));
+                        }
+                    });
+                    List<String> expected = ids(places.subList(0, Math.min(k, places.size())));
+                    Collections.sort(expected);
+                    // the k nearest places are known unless the k-th one is as near as the next one
+                    boolean knownPlaces = k >= places.size() || distanceKm(places.get(k - 1), latitude, longitude)
+                            < distanceKm(places.get(k), latitude, longitude);
+                    String text = "location: NEAR(" + latitude + ", " + longitude + " | " + k + ")" + other;
+                    for (SearchIndex index : indices) {
+                        List<Document> found = index.searchQuery(new Query(text));
+                        assertEquals(expected.size(), found.size(), text);
+                        for (int i = 0; i < found.size(); i++) {
+                            assertEquals(distanceKm(places.get(i), latitude, longitude),
+                                    distanceKm(found.get(i), latitude, longitude), 1e-9, text);
+                        }
+                        List<String> foundIds = ids(found);
+                        Collections.sort(foundIds);
+                        if (knownPlaces) {
+                            assertEquals(expected, foundIds, text);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    void radiusMatchesScanOfDistances(@TempDir Path directory) throws IOException {
+        List<SearchIndex> indices = indices(directory);
+        double[][] circles = {{46.81, -71.21, 1}, {46.81, -71.21, 15}, {46.81, -71.21, 100}, {48.5, -64.0, 150},
+                {45.0, -74.0, 60}, {47.5, -70.0, 400}, {60.0, -100.0, 1000}, {0, 0, 20000}};
+        for (double[] circle : circles) {
+            final double latitude = circle[0];
+            final double longitude = circle[1];
+            final double km = circle[2];
+            for (String other : new String[]{"", " AND type: lake"}) {
+                final boolean lakesOnly = !other.isEmpty();
+                List<String> expected = scan(new PlaceFilter() {
+                    @Override
+                    public boolean accept(Document place) {
+                        return distanceKm(place, latitude, longitude) <= km && (!lakesOnly
+                                || place.type.equals("Lake"));
+                    }
+                });
+                String text = "location: RADIUS(" + latitude + ", " + longitude + " | " + km + ")" + other;
+                for (SearchIndex index : indices) {
+                    assertEquals(expected, search(index, text), text);
+                }
+            }
+        }
+    }
+
+    @Test
+    void loadedSnapshotAnswersLikeBuiltIndex(@TempDir Path directory) throws IOException {
+        List<SearchIndex> indices = indices(directory);
+        String[] queries = {
+                "name: EXACT_MATCH(Lac Vert)", "name: MATCH_ALL(lac vert)", "name: MATCH_ANY(mont | baie)",
+                "type: lake", "region: québec", "id: P05", "id: " + DELETED, "location: AT(46.81, -71.21)",
+                "location: WITHIN(46, -72 | 47, -71)", "type: lake AND region: Québec", "name: PREFIX(mont)",
+                "name: FUZZY(lac vers~1)", "name: CONTAINS(bon)", "region: CONTAINS(gasp)",
+                "location: NEAR(46.81, -71.21 | 4)", "location: RADIUS(46.81, -71.21 | 30)",
+                "type: lake LIMIT 3 OFFSET 2"};
+        for (String query : queries) {
+            assertEquals(search(indices.get(0), query), search(indices.get(1), query), query);
+        }
+        assertEquals(Arrays.asList("P01", "P22"), search(indices.get(1), "name: EXACT_MATCH(Lac Vert)"));
+        assertEquals(Arrays.asList("P05"), search(indices.get(1), "id: P05"));
+        assertEquals(Arrays.asList(), search(indices.get(1), "id: " + DELETED));
+        assertEquals(Arrays.asList("P01", "P02", "P15", "P22"), search(indices.get(1), "region: Québec"));
+    }
+}
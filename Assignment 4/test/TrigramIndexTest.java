@@ -0,0 +1,85 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * The candidates of a trigram index and their verification, checked against a scan of random texts
+ */
+class TrigramIndexTest {
+    private final Random random = new Random(42);
+    private final Analyzer analyzer = Analyzer.standard(new TermDictionary(), SearchIndex.STOP_WORDS);
+
+    private String randomText(String alphabet, int maxLength) {
+        StringBuilder text = new StringBuilder();
+        int length = random.nextInt(maxLength + 1);
+        for (int i = 0; i < length; i++) {
+            text.append(alphabet.charAt(random.nextInt(alphabet.length())));
+        }
+        return text.toString();
+    }
+
+    /**
+     * The ordinals of the texts holding every trigram of the substring, whether or not they hold the substring
+     */
+    private static int[] scanTrigrams(List<String> texts, String substring, BitSet deleted) {
+        BitSet found = new BitSet();
+        for (int ordinal = 0; ordinal < texts.size(); ordinal++) {
+            boolean all = !deleted.get(ordinal);
+            for (int i = 0; all && i + TrigramIndex.GRAM_LENGTH <= substring.length(); i++) {
+                all = texts.get(ordinal).contains(substring.substring(i, i + TrigramIndex.GRAM_LENGTH));
+            }
+            if (all) {
+                found.set(ordinal);
+            }
+        }
+        return found.stream().toArray();
+    }
+
+    private void checkCandidates(TrigramIndex index, List<String> texts, BitSet deleted) {
+        for (int i = 0; i < 300; i++) {
+            String substring = randomText("ab c", 6);
+            if (substring.length() < TrigramIndex.GRAM_LENGTH) {
+                continue;
+            }
+            // a text holding the substring holds its trigrams, so it is among the candidates
+            assertArrayEquals(scanTrigrams(texts, substring, deleted), index.candidates(substring).toArray(),
+                    "candidates of " + substring);
+        }
+    }
+
+    @Test
+    void candidatesHoldEveryTrigramOfSubstring() {
+        TrigramIndex index = new TrigramIndex(new TermDictionary());
+        List<String> texts = new ArrayList<>();
+        for (int ordinal = 0; ordinal < 500; ordinal++) {
+            texts.add(randomText("ab c", 12));
+            index.add(ordinal, texts.get(ordinal));
+        }
+        index.freeze();
+        checkCandidates(index, texts, new BitSet());
+        BitSet deleted = new BitSet();
+        for (int ordinal = 0; ordinal < 500; ordinal += 4) {
+            deleted.set(ordinal);
+        }
+        checkCandidates(index.compact(deleted), texts, deleted);
+    }
+
+    @Test
+    void containsIgnoresCaseAndAccents() {
+        assertTrue(TrigramIndex.contains(analyzer, "Rivière-Bonjour", "riviere-b"));
+        assertTrue(TrigramIndex.contains(analyzer, "Rivière-Bonjour", "bonjour"));
+        assertTrue(TrigramIndex.contains(analyzer, "Lac à l'Eau Claire", "a l'eau"));
+        assertTrue(TrigramIndex.contains(analyzer, "ÎLE D'ORLÉANS", "ile d'orl"));
+        assertTrue(TrigramIndex.contains(analyzer, "Baie", "baie"));
+        assertFalse(TrigramIndex.contains(analyzer, "Baie", "baies"));
+        assertFalse(TrigramIndex.contains(analyzer, "Lac à l'Eau Claire", "lac  a"));
+        assertFalse(TrigramIndex.contains(analyzer, "", "x"));
+    }
+}